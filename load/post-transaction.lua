@@ -0,0 +1,8 @@
+-- wrk script posting a transaction of the current time
+wrk.method = "POST"
+wrk.headers["Content-Type"] = "application/json"
+
+request = function()
+   local body = '{"amount":"12.3343","timestamp":"' .. os.date("!%Y-%m-%dT%H:%M:%S.000Z") .. '"}'
+   return wrk.format(nil, nil, nil, body)
+end
@@ -0,0 +1,86 @@
+package com.transactions.store.benchmark;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.transactions.store.controller.util.ConverterUtils;
+import com.transactions.store.controller.util.JsonCodec;
+import com.transactions.store.controller.util.Validation;
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.StatisticsRepositoryImpl;
+import com.transactions.store.service.ManualTimeSource;
+
+/**
+ * Cost of the conversions of the request path: validating a transaction read from its JSON body,
+ * rejecting a transaction of the future, and writing the statistics JSON.
+ *
+ * Run with <code>mvn -Pbenchmark verify -Djmh.args=ConverterUtilsBenchmark</code>.
+ *
+ * @author onoriel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterUtilsBenchmark {
+
+	private ConverterUtils converterUtils;
+
+	private byte[] json;
+
+	private byte[] futureJson;
+
+	private Statistic statistic;
+
+	@Setup
+	public void setUp() {
+		long currentTime = Instant.now().toEpochMilli();
+		converterUtils = new ConverterUtils();
+		ReflectionTestUtils.setField(converterUtils, "timeToKeepAlive", 60L);
+		// the time does not move, the transactions stay inside the window for the whole run
+		ReflectionTestUtils.setField(converterUtils, "timeSource", new ManualTimeSource(currentTime));
+		String timestamp = Instant.ofEpochMilli(currentTime).atZone(ZoneOffset.UTC).toString();
+		String future = Instant.ofEpochMilli(currentTime).plusSeconds(61).atZone(ZoneOffset.UTC).toString();
+		json = ("{\"amount\":\"12.3456\",\"timestamp\":\"" + timestamp + "\"}").getBytes(StandardCharsets.UTF_8);
+		futureJson = ("{\"amount\":\"12.3456\",\"timestamp\":\"" + future + "\"}").getBytes(StandardCharsets.UTF_8);
+		StatisticsRepositoryImpl statisticsRepository = new StatisticsRepositoryImpl(TimeUnit.SECONDS.toMillis(60), TimeUnit.SECONDS.toMillis(1));
+		for (int amount = 1; amount <= 1000; amount++) {
+			statisticsRepository.save(new Transaction(BigDecimal.valueOf(amount, 2), currentTime, null), currentTime);
+		}
+		statistic = statisticsRepository.getWindowStatistic(currentTime);
+	}
+
+	@Benchmark
+	public Validation validateTransactionJson() {
+		return converterUtils.validate(json, 0, json.length, new Transaction());
+	}
+
+	@Benchmark
+	public Validation rejectFutureTransactionWithValidation() {
+		return converterUtils.validate(futureJson, 0, futureJson.length, new Transaction());
+	}
+
+	@Benchmark
+	public byte[] writeStatisticJson() {
+		return JsonCodec.writeStatistic(statistic);
+	}
+}
@@ -0,0 +1,94 @@
+package com.transactions.store.benchmark;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.OffHeapStatisticsRepository;
+import com.transactions.store.repository.RingBufferStatisticsRepository;
+import com.transactions.store.repository.StatisticsRepository;
+import com.transactions.store.repository.StatisticsRepositoryImpl;
+
+/**
+ * Memory held by the statistics engines once every second of their window has a transaction.
+ *
+ * Run with <code>mvn -Pbenchmark verify -Djmh.args=StatisticsRepositoryHeapBenchmark</code>; besides the
+ * time to fill the window, every run reports the heap (<code>heapBytes</code>) and the direct memory
+ * (<code>directBytes</code>) still used by the filled engine after a full collection, so the map engine
+ * can be compared with the off heap one at growing windows.
+ *
+ * @author onoriel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class StatisticsRepositoryHeapBenchmark {
+
+	@Param({ "map", "ring", "offheap" })
+	public String engine;
+
+	/**
+	 * Time to keep alive statistic, in seconds
+	 */
+	@Param({ "60", "3600", "86400" })
+	public long window;
+
+	/**
+	 * Memory used by the engine, reported as secondary results
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public long heapBytes;
+		public long directBytes;
+	}
+
+	@Benchmark
+	public StatisticsRepository fillWindow(Footprint footprint) {
+		long heap = usedHeap();
+		long direct = usedDirect();
+		StatisticsRepository statisticsRepository = "map".equals(engine) ? new StatisticsRepositoryImpl(window)
+				: "offheap".equals(engine) ? new OffHeapStatisticsRepository(window) : new RingBufferStatisticsRepository(window);
+		long currentTime = Instant.now().getEpochSecond();
+		BigDecimal amount = new BigDecimal("12.3456");
+		for (long second = 0; second < window; second++) {
+			statisticsRepository.save(new Transaction(amount, currentTime - second, null), currentTime);
+		}
+		footprint.heapBytes = usedHeap() - heap;
+		footprint.directBytes = usedDirect() - direct;
+		return statisticsRepository;
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		memory.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static long usedDirect() {
+		return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+				.filter(pool -> "direct".equals(pool.getName()))
+				.mapToLong(BufferPoolMXBean::getMemoryUsed)
+				.sum();
+	}
+}
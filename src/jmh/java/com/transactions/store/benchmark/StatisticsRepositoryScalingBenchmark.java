@@ -0,0 +1,91 @@
+package com.transactions.store.benchmark;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.OffHeapStatisticsRepository;
+import com.transactions.store.repository.RingBufferStatisticsRepository;
+import com.transactions.store.repository.StatisticsRepository;
+import com.transactions.store.repository.StatisticsRepositoryImpl;
+
+/**
+ * Write throughput and time of the statistics engines when every writer hits the same second.
+ *
+ * Run with <code>mvn -Pbenchmark verify -Djmh.args=StatisticsRepositoryScalingBenchmark</code>; each
+ * method uses a different number of writer threads, up to one per core, so the scores show how
+ * throughput grows with cores.
+ *
+ * @author onoriel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsRepositoryScalingBenchmark {
+
+	@Param({ "map", "ring", "offheap" })
+	public String engine;
+
+	private StatisticsRepository statisticsRepository;
+
+	private Transaction transaction;
+
+	private long currentTime;
+
+	@Setup
+	public void setUp() {
+		Long timeToKeepAlive = 60L;
+		statisticsRepository = "map".equals(engine) ? new StatisticsRepositoryImpl(timeToKeepAlive)
+				: "offheap".equals(engine) ? new OffHeapStatisticsRepository(timeToKeepAlive) : new RingBufferStatisticsRepository(timeToKeepAlive);
+		currentTime = Instant.now().getEpochSecond();
+		transaction = new Transaction(new BigDecimal("12.3456"), currentTime, null);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void saveHotSecondOneThread() {
+		statisticsRepository.save(transaction, currentTime);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public void saveHotSecondTwoThreads() {
+		statisticsRepository.save(transaction, currentTime);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void saveHotSecondFourThreads() {
+		statisticsRepository.save(transaction, currentTime);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void saveHotSecondEightThreads() {
+		statisticsRepository.save(transaction, currentTime);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void saveHotSecondAllThreads() {
+		statisticsRepository.save(transaction, currentTime);
+	}
+}
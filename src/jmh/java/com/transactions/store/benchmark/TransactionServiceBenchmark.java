@@ -0,0 +1,90 @@
+package com.transactions.store.benchmark;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.OffHeapStatisticsRepository;
+import com.transactions.store.repository.RingBufferStatisticsRepository;
+import com.transactions.store.repository.StatisticsRepository;
+import com.transactions.store.repository.StatisticsRepositoryImpl;
+import com.transactions.store.service.ManualTimeSource;
+import com.transactions.store.service.Metrics;
+import com.transactions.store.service.TransactionService;
+
+/**
+ * Read cost of the statistics through the service, with every second of the window holding a bucket.
+ *
+ * Run with <code>mvn -Pbenchmark verify -Djmh.args=TransactionServiceBenchmark</code>; the scores show how
+ * a query grows with the live buckets of each engine, for the whole window and for a part of it.
+ *
+ * @author onoriel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionServiceBenchmark {
+
+	@Param({ "map", "ring", "offheap" })
+	public String engine;
+
+	/**
+	 * Live buckets, one per second of the time to keep alive
+	 */
+	@Param({ "60", "3600", "86400" })
+	public long buckets;
+
+	/**
+	 * Part of the window queried, 100 being the whole window
+	 */
+	@Param({ "100", "10" })
+	public long windowPercent;
+
+	private TransactionService transactionService;
+
+	private Long window;
+
+	@Setup
+	public void setUp() {
+		long timeToKeepAlive = TimeUnit.SECONDS.toMillis(buckets);
+		long resolution = TimeUnit.SECONDS.toMillis(1);
+		StatisticsRepository statisticsRepository = "map".equals(engine) ? new StatisticsRepositoryImpl(timeToKeepAlive, resolution)
+				: "offheap".equals(engine) ? new OffHeapStatisticsRepository(timeToKeepAlive, resolution, 4)
+						: new RingBufferStatisticsRepository(timeToKeepAlive, resolution, 0, "fixed", 4);
+		long currentTime = Instant.now().toEpochMilli();
+		BigDecimal amount = new BigDecimal("12.3456");
+		for (long second = 0; second < buckets; second++) {
+			statisticsRepository.save(new Transaction(amount, currentTime - TimeUnit.SECONDS.toMillis(second), null), currentTime);
+		}
+		transactionService = new TransactionService();
+		ReflectionTestUtils.setField(transactionService, "statisticsRepository", statisticsRepository);
+		// the time does not move, every query sees the same live buckets
+		ReflectionTestUtils.setField(transactionService, "timeSource", new ManualTimeSource(currentTime));
+		ReflectionTestUtils.setField(transactionService, "metrics", new Metrics());
+		window = windowPercent == 100 ? null : timeToKeepAlive * windowPercent / 100;
+	}
+
+	@Benchmark
+	public Statistic getStatistics() {
+		return window == null ? transactionService.getStatistics() : transactionService.getStatistics(window);
+	}
+}
@@ -1,90 +1,247 @@
-package com.transactions.store.controller;
-
-import javax.validation.Valid;
-import javax.validation.constraints.NotNull;
-
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.MethodArgumentNotValidException;
-import org.springframework.web.bind.annotation.DeleteMapping;
-import org.springframework.web.bind.annotation.ExceptionHandler;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
-import org.springframework.web.bind.annotation.RestController;
-
-import com.transactions.store.controller.exception.FutureTransactionException;
-import com.transactions.store.controller.exception.OlderTransactionException;
-import com.transactions.store.controller.exception.ParseableTransactionException;
-import com.transactions.store.controller.util.ConverterUtils;
-import com.transactions.store.dto.StatisticDTO;
-import com.transactions.store.dto.TransactionDTO;
-import com.transactions.store.service.TransactionService;
-
-import lombok.extern.log4j.Log4j2;
-
-/**
- * Transaction Controller 
- * 
- * @author onoriel
- *
- */
-@RestController
-@Log4j2
-public class TransactionController {
-	
-	@Autowired
-	private TransactionService transactionService;
-	
-	@Autowired
-	private ConverterUtils converterUtils;
-
-	/**
-	 * Save transaction end point
-	 * @param transaction
-	 * @return HTTP Code Status
-	 * @throws OlderTransactionException, ParseableTransactionException, FutureTransactionException
-	 */
-	@PostMapping(value = "/transactions")
-	public ResponseEntity<Void> saveTransaction(@RequestBody @Valid @NotNull TransactionDTO transaction){
-		log.debug("saveTransaction: new transaction to save [{}]", transaction );
-		transactionService.save(converterUtils.asTrasanctionEntity(transaction));
-		return new ResponseEntity<Void>(HttpStatus.CREATED);
-	}
-
-	/**
-	 * Statistics generation end point
-	 * @return statistics information
-	 */
-	@GetMapping(value = "/statistics")
-	public ResponseEntity<StatisticDTO> generateStatistics() {
-		return new ResponseEntity<StatisticDTO>(converterUtils.asStatisticDTO(transactionService.getStatistics()), HttpStatus.OK);
-	}
-	/**
-	 * Statistics removal end point
-	 * @return
-	 */
-	@DeleteMapping(value = "/transactions")
-	public ResponseEntity<Void> deleteTransactions() {
-		transactionService.deleteStatistics(); 
-		return new ResponseEntity<Void>(HttpStatus.NO_CONTENT);
-	}
-	
-	@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
-	@ExceptionHandler({ParseableTransactionException.class, FutureTransactionException.class})
-	public void parseableAndFutureExceptionHandler(Exception exception) {
-	  
-	}
-	@ResponseStatus(HttpStatus.NO_CONTENT)
-	@ExceptionHandler({OlderTransactionException.class})
-	public void olderExceptionHanlder(Exception exception) {
-	  
-	}
-	@ResponseStatus(HttpStatus.BAD_REQUEST)
-	@ExceptionHandler({MethodArgumentNotValidException.class})
-	public void argumentExceptionHanlder(Exception exception) {
-	  
-	}
-}
+package com.transactions.store.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import com.transactions.store.controller.exception.UnsupportedWindowException;
+import com.transactions.store.controller.util.BatchReader;
+import com.transactions.store.controller.util.BinaryTransactionFormat;
+import com.transactions.store.controller.util.ConverterUtils;
+import com.transactions.store.controller.util.JsonCodec;
+import com.transactions.store.controller.util.PrometheusExporter;
+import com.transactions.store.controller.util.StatisticsCache;
+import com.transactions.store.controller.util.StatisticsStream;
+import com.transactions.store.controller.util.Validation;
+import com.transactions.store.dto.BatchResultDTO;
+import com.transactions.store.dto.IngestionDTO;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.service.Metrics;
+import com.transactions.store.service.Metrics.Endpoint;
+import com.transactions.store.service.TransactionService;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Transaction Controller of the servlet stack
+ * 
+ * @author onoriel
+ *
+ */
+@RestController
+@ConditionalOnWebApplication(type = Type.SERVLET)
+@Log4j2
+public class TransactionController {
+	
+	@Autowired
+	private TransactionService transactionService;
+	
+	@Autowired
+	private ConverterUtils converterUtils;
+	
+	@Autowired
+	private BatchReader batchReader;
+	
+	@Autowired
+	private StatisticsCache statisticsCache;
+	
+	@Autowired
+	private StatisticsStream statisticsStream;
+	
+	@Autowired
+	private PrometheusExporter prometheusExporter;
+	
+	@Autowired
+	private Metrics metrics;
+
+	/**
+	 * Save transaction end point, read by the {@link JsonCodec} and answered with the {@link Validation} of the transaction
+	 * @param transaction
+	 * @return HTTP Code Status
+	 */
+	@PostMapping(value = "/transactions", consumes = { MediaType.APPLICATION_JSON_VALUE, "application/*+json" })
+	public ResponseEntity<Void> saveTransaction(@RequestBody byte[] transaction){
+		long start = System.nanoTime();
+		Transaction entity = new Transaction();
+		Validation validation = converterUtils.validate(transaction, 0, transaction.length, entity);
+		if (validation == Validation.ACCEPTED) {
+			log.debug("saveTransaction: new transaction to save [{}]", entity);
+			transactionService.save(entity);
+		}
+		metrics.recordRequest(Endpoint.SAVE, start);
+		return validation.getResponse();
+	}
+
+	/**
+	 * Save transaction end point for a record of the {@link BinaryTransactionFormat}, with the same answers than the JSON one
+	 * @param transaction
+	 * @return HTTP Code Status
+	 */
+	@PostMapping(value = "/transactions", consumes = BinaryTransactionFormat.MEDIA_TYPE)
+	public ResponseEntity<Void> saveBinaryTransaction(@RequestBody byte[] transaction) {
+		long start = System.nanoTime();
+		ByteBuffer buffer = ByteBuffer.wrap(transaction);
+		if (BinaryTransactionFormat.length(buffer) != transaction.length) {
+			throw new HttpMessageNotReadableException("saveBinaryTransaction: not a single binary transaction record");
+		}
+		Validation validation = batchReader.saveRecord(buffer);
+		metrics.recordRequest(Endpoint.SAVE, start);
+		return validation.getResponse();
+	}
+
+	/**
+	 * Batch save end point: one JSON transaction per line, gzip compressed when the request says so.
+	 * The body is read line by line and saved in chunks, never held whole in memory.
+	 * @param request
+	 * @return number of lines accepted, older and rejected
+	 * @throws IOException
+	 */
+	@PostMapping(value = "/transactions/batch")
+	public ResponseEntity<BatchResultDTO> saveTransactions(HttpServletRequest request) throws IOException {
+		long start = System.nanoTime();
+		BatchResultDTO result;
+		try (InputStream input = bodyOf(request)) {
+			result = batchReader.readLines(input);
+		}
+		metrics.recordRequest(Endpoint.BATCH, start);
+		log.debug("saveTransactions: batch saved [{}]", result);
+		return new ResponseEntity<BatchResultDTO>(result, HttpStatus.OK);
+	}
+
+	/**
+	 * Batch save end point for records of the {@link BinaryTransactionFormat}, gzip compressed when the request says so.
+	 * The records are decoded from a buffer reused for the whole body and saved one by one.
+	 * @param request
+	 * @return number of records accepted, older and rejected
+	 * @throws IOException
+	 */
+	@PostMapping(value = "/transactions/batch", consumes = BinaryTransactionFormat.MEDIA_TYPE)
+	public ResponseEntity<BatchResultDTO> saveBinaryTransactions(HttpServletRequest request) throws IOException {
+		long start = System.nanoTime();
+		BatchResultDTO result;
+		try (ReadableByteChannel channel = Channels.newChannel(bodyOf(request))) {
+			result = batchReader.readRecords(channel);
+		}
+		metrics.recordRequest(Endpoint.BATCH, start);
+		log.debug("saveBinaryTransactions: batch saved [{}]", result);
+		return new ResponseEntity<BatchResultDTO>(result, HttpStatus.OK);
+	}
+
+	/**
+	 * Ingestion state end point: mode, and depth and drain latency of the queue when the transactions are queued
+	 * @return ingestion state
+	 */
+	@GetMapping(value = "/transactions/ingestion")
+	public ResponseEntity<IngestionDTO> ingestion() {
+		return new ResponseEntity<IngestionDTO>(converterUtils.asIngestionDTO(transactionService.getIngestionQueue()), HttpStatus.OK);
+	}
+
+	/**
+	 * Statistics generation end point, answered from the {@link StatisticsCache}. A request whose
+	 * <code>If-None-Match</code> holds the entity tag of the statistics gets a 304 without body
+	 * @param window optional window such as 5m, 1h or 24h, the time to keep alive by default
+	 * @param request
+	 * @return statistics information
+	 * @throws UnsupportedWindowException
+	 */
+	@GetMapping(value = "/statistics")
+	public ResponseEntity<byte[]> generateStatistics(@RequestParam(value = "window", required = false) String window, WebRequest request) {
+		long start = System.nanoTime();
+		StatisticsCache.Response response = statisticsCache.get(Objects.isNull(window) ? null : converterUtils.asWindow(window, transactionService.retention()));
+		metrics.recordRequest(Endpoint.STATISTICS, start);
+		if (request.checkNotModified(response.getETag())) {
+			return null;
+		}
+		return ResponseEntity.ok().eTag(response.getETag()).contentType(MediaType.APPLICATION_JSON_UTF8).body(response.getBody());
+	}
+	/**
+	 * Statistics stream end point: a Server-Sent Event with the statistics on subscription and whenever
+	 * they change, at most once every <code>statistic.stream.period</code>
+	 * @return stream of statistics information
+	 */
+	@GetMapping(value = "/statistics/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseBodyEmitter streamStatistics() {
+		return statisticsStream.subscribe();
+	}
+	/**
+	 * Statistics of a key end point, under its own path so no key is taken for another statistics end point
+	 * @param key transaction key, such as a merchant or a card BIN
+	 * @return statistics information of the key
+	 */
+	@GetMapping(value = "/statistics/keys/{key}")
+	public ResponseEntity<byte[]> generateKeyStatistics(@PathVariable("key") String key) {
+		long start = System.nanoTime();
+		byte[] body = JsonCodec.writeStatistic(transactionService.getStatistics(key));
+		metrics.recordRequest(Endpoint.KEY_STATISTICS, start);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+	}
+	/**
+	 * Metrics end point, in the Prometheus text format
+	 * @return counters, gauges and latency summaries
+	 */
+	@GetMapping(value = "/metrics", produces = PrometheusExporter.CONTENT_TYPE)
+	public ResponseEntity<String> metrics() {
+		return new ResponseEntity<String>(prometheusExporter.scrape(), HttpStatus.OK);
+	}
+	/**
+	 * Statistics snapshot end point, written to <code>statistic.snapshot.file</code>
+	 * @return HTTP Code Status
+	 */
+	@PostMapping(value = "/statistics/snapshot")
+	public ResponseEntity<Void> snapshotStatistics() {
+		int buckets = transactionService.snapshot();
+		log.debug("snapshotStatistics: {} buckets written", buckets);
+		return new ResponseEntity<Void>(HttpStatus.CREATED);
+	}
+	/**
+	 * Statistics removal end point
+	 * @return
+	 */
+	@DeleteMapping(value = "/transactions")
+	public ResponseEntity<Void> deleteTransactions() {
+		transactionService.deleteStatistics(); 
+		return new ResponseEntity<Void>(HttpStatus.NO_CONTENT);
+	}
+	
+	/**
+	 * @param request
+	 * @return body of the request, gunzipped when it says so
+	 * @throws IOException
+	 */
+	private InputStream bodyOf(HttpServletRequest request) throws IOException {
+		InputStream input = request.getInputStream();
+		return "gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING)) ? new GZIPInputStream(input) : input;
+	}
+	
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	@ExceptionHandler(UnsupportedWindowException.class)
+	public void argumentExceptionHandler(Exception exception) {
+	  
+	}
+}
@@ -1,11 +0,0 @@
-package com.transactions.store.controller.exception;
-
-/**
- * Older Transaction Exception
- * 
- * @author onoriel
- *
- */
-public class OlderTransactionException extends RuntimeException{
-
-}
@@ -0,0 +1,11 @@
+package com.transactions.store.controller.exception;
+
+/**
+ * Unsupported Statistics Window Exception
+ * 
+ * @author onoriel
+ *
+ */
+public class UnsupportedWindowException extends RuntimeException{
+
+}
@@ -0,0 +1,203 @@
+package com.transactions.store.controller.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import com.transactions.store.dto.BatchResultDTO;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.service.TransactionService;
+
+/**
+ * Reader of the batch bodies shared by the HTTP front ends, counting every transaction of a batch
+ * as the single transaction end points would answer it
+ *
+ * @author onoriel
+ *
+ */
+@Component
+public class BatchReader {
+
+	/**
+	 * Transactions handed to the service at once, bounding the memory used by a batch
+	 */
+	private static final int BATCH_CHUNK = 4096;
+
+	/**
+	 * Buffer the lines or records are read to
+	 */
+	private static final int BATCH_BUFFER = 1 << 16;
+
+	/**
+	 * Longest line of a batch, far longer than any transaction accepted, so a line never outgrows the buffer
+	 */
+	private static final int MAX_LINE = 1 << 12;
+
+	/**
+	 * Longest key of a transaction
+	 */
+	private static final int MAX_KEY = 64;
+
+	private final TransactionService transactionService;
+
+	private final ConverterUtils converterUtils;
+
+	@Autowired
+	public BatchReader(TransactionService transactionService, ConverterUtils converterUtils) {
+		this.transactionService = transactionService;
+		this.converterUtils = converterUtils;
+	}
+
+	/**
+	 * Save a batch of one JSON transaction per line, read line by line and saved in chunks, never held whole in memory.
+	 * A line longer than {@link #MAX_LINE} is rejected and skipped up to its end
+	 * @param input
+	 * @return number of lines accepted, older and rejected
+	 * @throws IOException
+	 */
+	public BatchResultDTO readLines(InputStream input) throws IOException {
+		BatchResultDTO result = new BatchResultDTO();
+		List<Transaction> chunk = new ArrayList<>();
+		byte[] buffer = new byte[BATCH_BUFFER];
+		int length = 0;
+		// whether the line being read is too long, so it is dropped up to its end
+		boolean skipping = false;
+		for (int read = 0, scanned = 0; read >= 0;) {
+			read = input.read(buffer, length, buffer.length - length);
+			length += Math.max(read, 0);
+			int start = 0;
+			for (; scanned < length; scanned++) {
+				if (buffer[scanned] == '\n') {
+					if (!skipping) {
+						saveLine(buffer, start, scanned, result, chunk);
+					}
+					skipping = false;
+					start = scanned + 1;
+				}
+			}
+			if (!skipping && length - start > MAX_LINE) {
+				count(converterUtils.count(Validation.UNREADABLE), result);
+				skipping = true;
+			}
+			if (skipping) {
+				start = length;
+			}
+			if (read < 0 && start < length) {
+				saveLine(buffer, start, length, result, chunk);
+				start = length;
+			}
+			System.arraycopy(buffer, start, buffer, 0, length - start);
+			length -= start;
+			scanned -= start;
+		}
+		if (!chunk.isEmpty()) {
+			transactionService.saveAll(chunk);
+		}
+		return result;
+	}
+
+	/**
+	 * Save a batch of records of the {@link BinaryTransactionFormat}, decoded from a buffer reused for the whole body
+	 * and saved one by one
+	 * @param channel
+	 * @return number of records accepted, older and rejected
+	 * @throws IOException
+	 */
+	public BatchResultDTO readRecords(ReadableByteChannel channel) throws IOException {
+		BatchResultDTO result = new BatchResultDTO();
+		ByteBuffer buffer = ByteBuffer.allocate(BATCH_BUFFER);
+		for (boolean end = false; !end;) {
+			end = channel.read(buffer) < 0;
+			buffer.flip();
+			for (int length = BinaryTransactionFormat.length(buffer); length > 0; length = BinaryTransactionFormat.length(buffer)) {
+				count(saveRecord(buffer), result);
+				buffer.position(buffer.position() + length);
+			}
+			if (end && buffer.hasRemaining()) {
+				// a truncated last record
+				converterUtils.count(Validation.UNREADABLE);
+				result.setRejected(result.getRejected() + 1);
+			}
+			buffer.compact();
+		}
+		return result;
+	}
+
+	/**
+	 * Save the binary record at the position of the buffer, without moving it
+	 * @param buffer
+	 * @return validation of the record, saved only when {@link Validation#ACCEPTED}
+	 */
+	public Validation saveRecord(ByteBuffer buffer) {
+		String key = BinaryTransactionFormat.key(buffer);
+		if (!Objects.isNull(key) && key.length() > MAX_KEY) {
+			return converterUtils.count(Validation.UNREADABLE);
+		}
+		long timestamp = BinaryTransactionFormat.timestamp(buffer);
+		Validation validation = converterUtils.validateTimestamp(timestamp);
+		if (validation == Validation.ACCEPTED) {
+			transactionService.save(timestamp, BinaryTransactionFormat.unscaled(buffer), BinaryTransactionFormat.scale(buffer), key);
+		}
+		return validation;
+	}
+
+	/**
+	 * Count a line of a batch, saving the chunk when it is full
+	 * @param buffer
+	 * @param from first byte of the line
+	 * @param to end of the line, exclusive
+	 * @param result
+	 * @param chunk transactions accepted and not saved yet
+	 */
+	private void saveLine(byte[] buffer, int from, int to, BatchResultDTO result, List<Transaction> chunk) {
+		while (from < to && Character.isWhitespace(buffer[from])) {
+			from++;
+		}
+		while (to > from && Character.isWhitespace(buffer[to - 1])) {
+			to--;
+		}
+		if (from == to) {
+			return;
+		}
+		if (to - from > MAX_LINE) {
+			count(converterUtils.count(Validation.UNREADABLE), result);
+			return;
+		}
+		Transaction transaction = new Transaction();
+		Validation validation;
+		try {
+			validation = converterUtils.validate(buffer, from, to, transaction);
+		} catch (HttpMessageNotReadableException exception) {
+			validation = Validation.UNREADABLE;
+		}
+		if (validation == Validation.ACCEPTED) {
+			chunk.add(transaction);
+		}
+		count(validation, result);
+		if (chunk.size() == BATCH_CHUNK) {
+			transactionService.saveAll(chunk);
+			chunk.clear();
+		}
+	}
+	
+	private static void count(Validation validation, BatchResultDTO result) {
+		switch (validation) {
+		case ACCEPTED:
+			result.setAccepted(result.getAccepted() + 1);
+			break;
+		case OLDER:
+			result.setOlder(result.getOlder() + 1);
+			break;
+		default:
+			result.setRejected(result.getRejected() + 1);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.transactions.store.controller.util;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Binary wire format of the transactions, read straight from the request buffer.
+ *
+ * Every record is big endian and holds
+ *
+ * <pre>
+ * long   timestamp, epoch milliseconds
+ * long   unscaled amount
+ * byte   scale of the amount
+ * byte   unsigned length of the UTF-8 key, 0 without key
+ * ...    key
+ * </pre>
+ *
+ * The fields are read at absolute positions, so decoding a record does not move the buffer
+ * nor build any object but its key.
+ *
+ * @author onoriel
+ *
+ */
+public final class BinaryTransactionFormat {
+
+	/**
+	 * Content type of a request in the binary format
+	 */
+	public static final String MEDIA_TYPE = "application/x-transaction";
+
+	/**
+	 * Length of a record without its key
+	 */
+	public static final int HEADER = 18;
+
+	/**
+	 * Longest record
+	 */
+	public static final int MAX_LENGTH = HEADER + 255;
+
+	private static final int AMOUNT = 8;
+	private static final int SCALE = 16;
+	private static final int KEY_LENGTH = 17;
+
+	private BinaryTransactionFormat() {
+	}
+
+	/**
+	 * Length of the record at the position of the buffer
+	 * @param buffer
+	 * @return length, or -1 when the buffer does not hold the whole record
+	 */
+	public static int length(ByteBuffer buffer) {
+		if (buffer.remaining() < HEADER) {
+			return -1;
+		}
+		int length = HEADER + (buffer.get(buffer.position() + KEY_LENGTH) & 0xFF);
+		return buffer.remaining() < length ? -1 : length;
+	}
+
+	public static long timestamp(ByteBuffer buffer) {
+		return buffer.getLong(buffer.position());
+	}
+
+	public static long unscaled(ByteBuffer buffer) {
+		return buffer.getLong(buffer.position() + AMOUNT);
+	}
+
+	public static int scale(ByteBuffer buffer) {
+		return buffer.get(buffer.position() + SCALE);
+	}
+
+	/**
+	 * @param buffer
+	 * @return key of the record, or null when it has none
+	 */
+	public static String key(ByteBuffer buffer) {
+		int length = buffer.get(buffer.position() + KEY_LENGTH) & 0xFF;
+		if (length == 0) {
+			return null;
+		}
+		ByteBuffer key = buffer.duplicate();
+		key.position(buffer.position() + HEADER).limit(buffer.position() + HEADER + length);
+		return StandardCharsets.UTF_8.decode(key).toString();
+	}
+
+	/**
+	 * Write a record, as a client would
+	 * @param buffer
+	 * @param timestamp
+	 * @param amount amount whose unscaled value fits in a long
+	 * @param key optional key
+	 * @throws IllegalArgumentException when the amount or the key do not fit in the format
+	 */
+	public static void write(ByteBuffer buffer, long timestamp, BigDecimal amount, String key) {
+		if (amount.unscaledValue().bitLength() > 63 || amount.scale() != (byte) amount.scale()) {
+			throw new IllegalArgumentException("amount does not fit in the binary format: " + amount);
+		}
+		byte[] bytes = Objects.isNull(key) ? new byte[0] : key.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 255) {
+			throw new IllegalArgumentException("key does not fit in the binary format: " + key);
+		}
+		buffer.putLong(timestamp);
+		buffer.putLong(amount.unscaledValue().longValue());
+		buffer.put((byte) amount.scale());
+		buffer.put((byte) bytes.length);
+		buffer.put(bytes);
+	}
+}
@@ -1,101 +1,201 @@
-package com.transactions.store.controller.util;
-
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeParseException;
-import java.util.Objects;
-
-import org.apache.commons.lang3.math.NumberUtils;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
-import org.springframework.context.annotation.Scope;
-import org.springframework.stereotype.Component;
-
-import com.transactions.store.controller.exception.FutureTransactionException;
-import com.transactions.store.controller.exception.OlderTransactionException;
-import com.transactions.store.controller.exception.ParseableTransactionException;
-import com.transactions.store.dto.StatisticDTO;
-import com.transactions.store.dto.TransactionDTO;
-import com.transactions.store.model.Statistic;
-import com.transactions.store.model.Transaction;
-
-/**
- * Converter utility
- * 
- * @author onoriel
- *
- */
-@Component
-@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
-public class ConverterUtils {
-	
-	/**
-	 * Time to keep statistics alive
-	 */
-	@Value("${statistic.time:60}") 
-	private Long timeToKeepAlive;
-
-	
-	public StatisticDTO asStatisticDTO(Statistic statistic) {
-		Objects.requireNonNull(statistic);
-		StatisticDTO statisticDTO = new StatisticDTO();
-		statisticDTO.setAvg(roundBigDecimal(statistic.getAvg()).toString());
-		statisticDTO.setMax(roundBigDecimal(statistic.getMax()).toString());
-		statisticDTO.setMin(roundBigDecimal(statistic.getMin()).toString());
-		statisticDTO.setSum(roundBigDecimal(statistic.getSum()).toString());
-		statisticDTO.setCount(Objects.isNull(statistic.getCount()) ? NumberUtils.LONG_ZERO : statistic.getCount());
-		return statisticDTO;
-	}
-	
-	public Transaction asTrasanctionEntity(TransactionDTO transactionDTO) {
-		Objects.requireNonNull(transactionDTO);
-		Transaction transaction = new Transaction();
-		transaction.setAmount(parseToBigDecimal(transactionDTO.getAmount()));
-		transaction.setTimestamp(parseToDateTimeLong(transactionDTO.getTimestamp()));
-		return transaction;
-	}
-	 
-	private BigDecimal parseToBigDecimal(String amount) {
-		BigDecimal parsedAmount = null;
-		try {
-			parsedAmount = new BigDecimal (amount);
-		}catch(NumberFormatException numberFormatException) {
-			throw new ParseableTransactionException();
-		}
-		return parsedAmount;
-	}
-	
-	private Long parseToDateTimeLong(String datetime) throws ParseableTransactionException, FutureTransactionException, OlderTransactionException {
-		Long parsedLong = null;
-		try {
-			 ZonedDateTime dateTime = ZonedDateTime.parse(datetime).toInstant().atZone(ZoneOffset.UTC);
-			 checkFutureTransaction(dateTime);
-			 checkPastTransaction(dateTime);
-			 parsedLong = dateTime.toEpochSecond();
-		}catch(DateTimeParseException dateTimeParseException) {
-			throw new ParseableTransactionException();
-		}
-		return parsedLong;
-	}
-	private void checkFutureTransaction(ZonedDateTime dateTime) {
-		ZonedDateTime limitTime = Instant.now().atZone(ZoneOffset.UTC);
-		if( dateTime.isAfter(limitTime)) {
-			 throw new FutureTransactionException();
-		}
-	}
-	private void checkPastTransaction(ZonedDateTime dateTime) {
-		ZonedDateTime limitTime = Instant.now().minusSeconds(timeToKeepAlive).atZone(ZoneOffset.UTC);
-		if( dateTime.isBefore(limitTime)) {
-			 throw new OlderTransactionException();
-		}
-	}
-	private BigDecimal roundBigDecimal(BigDecimal initial) {
-		if(Objects.isNull(initial))
-			return BigDecimal.ZERO.setScale(2); 
-		return initial.setScale(2, RoundingMode.HALF_UP);
-	}
-
-}
+package com.transactions.store.controller.util;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import com.transactions.store.controller.exception.UnsupportedWindowException;
+import com.transactions.store.dto.IngestionDTO;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.service.IngestionQueue;
+import com.transactions.store.service.TimeSource;
+
+/**
+ * Converter utility
+ * 
+ * @author onoriel
+ *
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class ConverterUtils {
+	
+	/**
+	 * Statistics window: an amount followed by a unit (ms, s, m, h or d)
+	 */
+	private static final Pattern WINDOW = Pattern.compile("(\\d{1,9})(ms|s|m|h|d)");
+	
+	/**
+	 * Time to keep statistics alive
+	 */
+	@Value("${statistic.time:60}") 
+	private Long timeToKeepAlive;
+	
+	@Autowired
+	private TimeSource timeSource;
+	
+	/**
+	 * Transactions rejected by reason, see {@link #validate(byte[], int, int, Transaction)}
+	 */
+	private final LongAdder[] rejections = Stream.generate(LongAdder::new).limit(Validation.values().length).toArray(LongAdder[]::new);
+
+	
+	/**
+	 * @param ingestionQueue queue applied by a single writer thread, or null
+	 * @return ingestion state
+	 */
+	public IngestionDTO asIngestionDTO(IngestionQueue ingestionQueue) {
+		if (Objects.isNull(ingestionQueue)) {
+			return new IngestionDTO("direct", null, 0L, 0L, 0L);
+		}
+		return new IngestionDTO("queue", ingestionQueue.isAckOnApply() ? "apply" : "enqueue", ingestionQueue.capacity(), ingestionQueue.depth(),
+				TimeUnit.NANOSECONDS.toMicros(ingestionQueue.drainLatency()));
+	}
+	
+	/**
+	 * Parse a statistics window such as <code>5m</code>
+	 * @param window
+	 * @param retention longest window served by the statistics engine (milliseconds)
+	 * @return window in milliseconds
+	 * @throws UnsupportedWindowException when the window can not be parsed or is longer than the retention
+	 */
+	public Long asWindow(String window, long retention) throws UnsupportedWindowException {
+		Matcher matcher = WINDOW.matcher(window);
+		if (!matcher.matches()) {
+			throw new UnsupportedWindowException();
+		}
+		long millis = windowUnit(matcher.group(2)).toMillis(Long.parseLong(matcher.group(1)));
+		if (millis <= 0 || millis > retention) {
+			throw new UnsupportedWindowException();
+		}
+		return millis;
+	}
+	
+	/**
+	 * Validate a transaction read from JSON bytes, answering the rejections instead of throwing them
+	 * @param json
+	 * @param from first byte of the transaction
+	 * @param to end of the transaction, exclusive
+	 * @param transaction transaction read to
+	 * @return validation, the transaction is complete when {@link Validation#ACCEPTED}
+	 * @throws HttpMessageNotReadableException
+	 */
+	public Validation validate(byte[] json, int from, int to, Transaction transaction) {
+		Validation validation;
+		try {
+			validation = JsonCodec.readTransaction(json, from, to, this::parseTimestamp, transaction);
+		} catch (HttpMessageNotReadableException exception) {
+			count(Validation.UNREADABLE);
+			throw exception;
+		}
+		return count(validation == Validation.ACCEPTED ? windowOf(transaction.getTimestamp()) : validation);
+	}
+	
+	/**
+	 * Validate a transaction time against the window, answering the rejections instead of throwing them
+	 * @param timestamp epoch milliseconds
+	 * @return {@link Validation#ACCEPTED}, {@link Validation#OLDER} or {@link Validation#FUTURE}
+	 */
+	public Validation validateTimestamp(long timestamp) {
+		return count(windowOf(timestamp));
+	}
+	
+	/**
+	 * Count a rejection, such as a transaction of a key that is not readable
+	 * @param validation
+	 * @return validation
+	 */
+	public Validation count(Validation validation) {
+		if (validation != Validation.ACCEPTED) {
+			rejections[validation.ordinal()].increment();
+		}
+		return validation;
+	}
+	
+	/**
+	 * @param reason
+	 * @return transactions rejected for the reason since the start
+	 */
+	public long rejections(Validation reason) {
+		return rejections[reason.ordinal()].sum();
+	}
+	 
+	/**
+	 * @param timestamp epoch milliseconds
+	 * @return {@link Validation#ACCEPTED}, {@link Validation#OLDER} or {@link Validation#FUTURE}
+	 */
+	private Validation windowOf(long timestamp) {
+		long currentTime = timeSource.currentTimeMillis();
+		// a transaction of the current time is not in the future of a clock lagging behind it, checked
+		// against the clock itself before it is refused since the lag may be longer than the resolution
+		if (timestamp > currentTime + timeSource.resolution() && timestamp > timeSource.exactTimeMillis()) {
+			return Validation.FUTURE;
+		}
+		if (timestamp < currentTime - TimeUnit.SECONDS.toMillis(timeToKeepAlive)) {
+			return Validation.OLDER;
+		}
+		return Validation.ACCEPTED;
+	}
+	
+	/**
+	 * Parse a timestamp with the {@link IsoTimestampParser}, or the full ISO parser for the forms it does not read
+	 * @return epoch milliseconds, or {@link IsoTimestampParser#NOT_PARSED}
+	 */
+	private long parseTimestamp(byte[] text, int from, int to) {
+		long timestamp = IsoTimestampParser.parse(text, from, to);
+		if (timestamp == IsoTimestampParser.NOT_PARSED) {
+			timestamp = parseFully(new String(text, from, to - from, StandardCharsets.UTF_8));
+		}
+		return timestamp;
+	}
+	private long parseFully(String datetime) {
+		ParsePosition position = new ParsePosition(0);
+		if (Objects.isNull(DateTimeFormatter.ISO_ZONED_DATE_TIME.parseUnresolved(datetime, position)) || position.getIndex() != datetime.length()) {
+			// checked without an exception first, most timestamps that can not be parsed do not get to the full parser
+			return IsoTimestampParser.NOT_PARSED;
+		}
+		Instant instant;
+		try {
+			instant = ZonedDateTime.parse(datetime).toInstant();
+		}catch(DateTimeParseException dateTimeParseException) {
+			return IsoTimestampParser.NOT_PARSED;
+		}
+		try {
+			return instant.toEpochMilli();
+		}catch(ArithmeticException arithmeticException) {
+			// out of the range of epoch milliseconds, so out of the window as well
+			return instant.isBefore(Instant.EPOCH) ? Long.MIN_VALUE + 1 : Long.MAX_VALUE;
+		}
+	}
+	private TimeUnit windowUnit(String unit) {
+		switch (unit) {
+		case "ms":
+			return TimeUnit.MILLISECONDS;
+		case "s":
+			return TimeUnit.SECONDS;
+		case "m":
+			return TimeUnit.MINUTES;
+		case "h":
+			return TimeUnit.HOURS;
+		default:
+			return TimeUnit.DAYS;
+		}
+	}
+
+}
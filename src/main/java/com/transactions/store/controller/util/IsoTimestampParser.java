@@ -0,0 +1,133 @@
+package com.transactions.store.controller.util;
+
+/**
+ * Parser of the usual ISO-8601 timestamps straight to epoch milliseconds, without building any object.
+ *
+ * It reads <code>yyyy-MM-ddTHH:mm:ss</code> with an optional fraction of up to 9 digits, followed by
+ * <code>Z</code> or an offset <code>+HH:mm</code>. Any other form, such as a region id or a year of
+ * more than 4 digits, and any invalid field are left to the full parser, which also reports the error.
+ *
+ * @author onoriel
+ *
+ */
+public final class IsoTimestampParser {
+
+	/**
+	 * Marker returned when the text is not in one of the forms this parser reads
+	 */
+	public static final long NOT_PARSED = Long.MIN_VALUE;
+
+	private static final int SECONDS_PER_DAY = 86400;
+
+	/**
+	 * Days from 0000-01-01 to 1970-01-01
+	 */
+	private static final long DAYS_0000_TO_1970 = 719528L;
+
+	/**
+	 * Longest offset, in hours
+	 */
+	private static final int MAX_OFFSET = 18;
+
+	private IsoTimestampParser() {
+	}
+
+	/**
+	 * Parse a timestamp
+	 * @param text
+	 * @param from first byte of the timestamp
+	 * @param to end of the timestamp, exclusive
+	 * @return epoch milliseconds, or {@link #NOT_PARSED}
+	 */
+	public static long parse(byte[] text, int from, int to) {
+		if (to - from < 20 || text[from + 4] != '-' || text[from + 7] != '-' || text[from + 10] != 'T' || text[from + 13] != ':'
+				|| text[from + 16] != ':') {
+			return NOT_PARSED;
+		}
+		int year = digits(text, from, 4);
+		int month = digits(text, from + 5, 2);
+		int day = digits(text, from + 8, 2);
+		int hour = digits(text, from + 11, 2);
+		int minute = digits(text, from + 14, 2);
+		int second = digits(text, from + 17, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) || hour < 0 || hour > 23
+				|| minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return NOT_PARSED;
+		}
+		int position = from + 19;
+		int millis = 0;
+		if (text[position] == '.') {
+			int fraction = ++position;
+			for (; position < to && position - fraction < 9 && text[position] >= '0' && text[position] <= '9'; position++) {
+				if (position - fraction < 3) {
+					millis = millis * 10 + (text[position] - '0');
+				}
+			}
+			if (position == fraction) {
+				return NOT_PARSED;
+			}
+			for (int digit = position - fraction; digit < 3; digit++) {
+				millis *= 10;
+			}
+		}
+		int offset;
+		if (position == to - 1 && text[position] == 'Z') {
+			offset = 0;
+		} else if (position == to - 6 && (text[position] == '+' || text[position] == '-') && text[position + 3] == ':') {
+			int offsetHours = digits(text, position + 1, 2);
+			int offsetMinutes = digits(text, position + 4, 2);
+			if (offsetHours < 0 || offsetMinutes < 0 || offsetMinutes > 59 || offsetHours * 60 + offsetMinutes > MAX_OFFSET * 60) {
+				return NOT_PARSED;
+			}
+			offset = (text[position] == '-' ? -1 : 1) * (offsetHours * 3600 + offsetMinutes * 60);
+		} else {
+			return NOT_PARSED;
+		}
+		long seconds = epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offset;
+		return seconds * 1000 + millis;
+	}
+
+	/**
+	 * @return value of the decimal digits, or -1 when they are not digits
+	 */
+	private static int digits(byte[] text, int from, int count) {
+		int value = 0;
+		for (int index = from; index < from + count; index++) {
+			if (text[index] < '0' || text[index] > '9') {
+				return -1;
+			}
+			value = value * 10 + (text[index] - '0');
+		}
+		return value;
+	}
+
+	private static boolean isLeap(int year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return isLeap(year) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * Days since the epoch, as <code>LocalDate.toEpochDay()</code> for years from 0 to 9999
+	 */
+	private static long epochDay(int year, int month, int day) {
+		long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+		total += (367 * month - 362) / 12 + day - 1;
+		if (month > 2) {
+			total -= isLeap(year) ? 1 : 2;
+		}
+		return total - DAYS_0000_TO_1970;
+	}
+}
@@ -0,0 +1,526 @@
+package com.transactions.store.controller.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.transactions.store.model.QuantileSketch;
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * JSON codec of the two shapes of the hot end points, a transaction read from the request bytes and a
+ * statistic written to a buffer reused by each thread, without reflection nor intermediate strings
+ * for the amounts.
+ *
+ * It answers as the Jackson binding of the transaction and statistic DTOs it replaced did: a malformed
+ * body, a missing amount or timestamp or a key out of 1 to 64 characters are not readable (400), an
+ * amount or timestamp that can not be parsed is {@link Validation#UNPARSEABLE} (422), unknown fields are ignored and scalar values are
+ * taken as their text.
+ *
+ * @author onoriel
+ *
+ */
+public final class JsonCodec {
+
+	/**
+	 * Longest key of a transaction
+	 */
+	private static final int MAX_KEY = 64;
+
+	/**
+	 * Digits a long unscaled amount can always hold
+	 */
+	private static final int MAX_DIGITS = 18;
+
+	/**
+	 * Amounts <code>new BigDecimal(String)</code> parses
+	 */
+	private static final Pattern NUMBER = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d{1,9})?");
+
+	private static final byte[] AMOUNT = "amount".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] TIMESTAMP = "timestamp".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] KEY = "key".getBytes(StandardCharsets.UTF_8);
+
+	private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
+
+	private JsonCodec() {
+	}
+
+	/**
+	 * Parser of the timestamp of a transaction
+	 */
+	@FunctionalInterface
+	public interface TimestampParser {
+
+		/**
+		 * @param text
+		 * @param from first byte of the timestamp
+		 * @param to end of the timestamp, exclusive
+		 * @return epoch milliseconds, or {@link IsoTimestampParser#NOT_PARSED} when it can not be parsed
+		 */
+		long parse(byte[] text, int from, int to);
+	}
+
+	/**
+	 * Read a transaction, answering the amounts and timestamps that can not be parsed instead of throwing
+	 * @param json request bytes
+	 * @param from first byte of the transaction
+	 * @param to end of the transaction, exclusive
+	 * @param timestampParser parser of the timestamp bytes
+	 * @param transaction transaction read to
+	 * @return {@link Validation#ACCEPTED} when read, its timestamp is left to check against the window, or {@link Validation#UNPARSEABLE}
+	 * @throws HttpMessageNotReadableException
+	 */
+	public static Validation readTransaction(byte[] json, int from, int to, TimestampParser timestampParser, Transaction transaction) {
+		Reader reader = new Reader(json, from, to);
+		reader.expect('{');
+		int amountFrom = -1;
+		int amountTo = -1;
+		boolean amountEscaped = false;
+		int timestampFrom = -1;
+		int timestampTo = -1;
+		boolean timestampEscaped = false;
+		String key = null;
+		if (!reader.next('}')) {
+			do {
+				reader.expect('"');
+				int nameFrom = reader.position;
+				boolean escaped = reader.skipString();
+				int nameTo = reader.position - 1;
+				reader.expect(':');
+				reader.whitespace();
+				if (escaped) {
+					reader.skipValue();
+				} else if (is(json, nameFrom, nameTo, AMOUNT)) {
+					reader.scalar();
+					amountFrom = reader.valueFrom;
+					amountTo = reader.valueTo;
+					amountEscaped = reader.valueEscaped;
+				} else if (is(json, nameFrom, nameTo, TIMESTAMP)) {
+					reader.scalar();
+					timestampFrom = reader.valueFrom;
+					timestampTo = reader.valueTo;
+					timestampEscaped = reader.valueEscaped;
+				} else if (is(json, nameFrom, nameTo, KEY)) {
+					reader.scalar();
+					key = reader.valueFrom < 0 ? null : reader.text();
+				} else {
+					reader.skipValue();
+				}
+			} while (reader.next(','));
+			reader.expect('}');
+		}
+		if (amountFrom < 0 || amountFrom == amountTo || timestampFrom < 0 || timestampFrom == timestampTo
+				|| (!Objects.isNull(key) && (key.isEmpty() || key.length() > MAX_KEY))) {
+			throw new HttpMessageNotReadableException("readTransaction: not a valid transaction");
+		}
+		BigDecimal amount = amountEscaped ? parseAmount(reader.unescape(amountFrom, amountTo)) : parseAmount(json, amountFrom, amountTo);
+		if (Objects.isNull(amount)) {
+			return Validation.UNPARSEABLE;
+		}
+		long timestamp;
+		if (timestampEscaped) {
+			byte[] text = reader.unescape(timestampFrom, timestampTo).getBytes(StandardCharsets.UTF_8);
+			timestamp = timestampParser.parse(text, 0, text.length);
+		} else {
+			timestamp = timestampParser.parse(json, timestampFrom, timestampTo);
+		}
+		if (timestamp == IsoTimestampParser.NOT_PARSED) {
+			return Validation.UNPARSEABLE;
+		}
+		transaction.setAmount(amount);
+		transaction.setTimestamp(timestamp);
+		transaction.setKey(key);
+		return Validation.ACCEPTED;
+	}
+
+	/**
+	 * Write a statistic, with its amounts rounded to 2 decimals
+	 * @param statistic
+	 * @return JSON bytes
+	 */
+	public static byte[] writeStatistic(Statistic statistic) {
+		Output output = OUTPUT.get();
+		output.length = 0;
+		output.write("{\"sum\":");
+		output.amount(statistic.getSum());
+		output.write(",\"avg\":");
+		output.amount(statistic.getAvg());
+		output.write(",\"max\":");
+		output.amount(statistic.getMax());
+		output.write(",\"min\":");
+		output.amount(statistic.getMin());
+		output.write(",\"count\":");
+		output.number(Objects.isNull(statistic.getCount()) ? 0L : statistic.getCount());
+		QuantileSketch sketch = statistic.getSketch();
+		if (!Objects.isNull(sketch) && sketch.getCount() > 0) {
+			output.write(",\"p50\":");
+			output.amount(BigDecimal.valueOf(sketch.quantile(0.50)));
+			output.write(",\"p95\":");
+			output.amount(BigDecimal.valueOf(sketch.quantile(0.95)));
+			output.write(",\"p99\":");
+			output.amount(BigDecimal.valueOf(sketch.quantile(0.99)));
+		}
+		output.write('}');
+		return Arrays.copyOf(output.bytes, output.length);
+	}
+
+	/**
+	 * Parse an amount from its unescaped bytes, as <code>new BigDecimal(String)</code> would
+	 * @return amount, or null when it is not a number
+	 */
+	private static BigDecimal parseAmount(byte[] json, int from, int to) {
+		int position = from;
+		boolean negative = json[position] == '-';
+		if (negative || json[position] == '+') {
+			position++;
+		}
+		long unscaled = 0L;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		for (; position < to; position++) {
+			byte character = json[position];
+			if (character >= '0' && character <= '9' && digits < MAX_DIGITS) {
+				unscaled = unscaled * 10 + (character - '0');
+				digits++;
+				scale += point ? 1 : 0;
+			} else if (character == '.' && !point) {
+				point = true;
+			} else {
+				// exponents, long amounts and anything else are left to BigDecimal
+				return parseAmount(new String(json, from, to - from, StandardCharsets.UTF_8));
+			}
+		}
+		if (digits == 0) {
+			return null;
+		}
+		return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+	}
+
+	private static BigDecimal parseAmount(String amount) {
+		if (!NUMBER.matcher(amount).matches()) {
+			return null;
+		}
+		try {
+			return new BigDecimal(amount);
+		} catch (NumberFormatException numberFormatException) {
+			// an exponent out of the range of the scale
+			return null;
+		}
+	}
+
+	private static boolean is(byte[] json, int from, int to, byte[] name) {
+		if (to - from != name.length) {
+			return false;
+		}
+		for (int index = 0; index < name.length; index++) {
+			if (json[from + index] != name[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static HttpMessageNotReadableException malformed(int position) {
+		return new HttpMessageNotReadableException("readTransaction: malformed JSON at " + position);
+	}
+
+	/**
+	 * Cursor over the bytes of a transaction
+	 */
+	private static final class Reader {
+
+		private final byte[] json;
+		private final int end;
+		private int position;
+
+		/**
+		 * Range of the last scalar value read, without its quotes, -1 for null
+		 */
+		private int valueFrom;
+		private int valueTo;
+		private boolean valueEscaped;
+
+		private Reader(byte[] json, int from, int to) {
+			this.json = json;
+			this.position = from;
+			this.end = to;
+		}
+
+		private void whitespace() {
+			while (position < end && (json[position] == ' ' || json[position] == '\t' || json[position] == '\n' || json[position] == '\r')) {
+				position++;
+			}
+		}
+
+		private void expect(char character) {
+			whitespace();
+			if (position >= end || json[position] != character) {
+				throw malformed(position);
+			}
+			position++;
+		}
+
+		/**
+		 * @return whether the next character is the given one, consumed if so
+		 */
+		private boolean next(char character) {
+			whitespace();
+			if (position < end && json[position] == character) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Skip a string whose opening quote was consumed
+		 * @return whether it holds escapes
+		 */
+		private boolean skipString() {
+			boolean escaped = false;
+			for (; position < end; position++) {
+				byte character = json[position];
+				if (character == '"') {
+					position++;
+					return escaped;
+				}
+				if (character == '\\') {
+					escaped = true;
+					position++;
+				} else if (character >= 0 && character < 0x20) {
+					break;
+				}
+			}
+			throw malformed(position);
+		}
+
+		/**
+		 * Read a scalar value, as a range of the bytes
+		 */
+		private void scalar() {
+			if (position >= end) {
+				throw malformed(position);
+			}
+			if (json[position] == '"') {
+				valueFrom = ++position;
+				valueEscaped = skipString();
+				valueTo = position - 1;
+				return;
+			}
+			if (json[position] == '{' || json[position] == '[') {
+				throw malformed(position);
+			}
+			valueFrom = position;
+			skipLiteral();
+			valueTo = position;
+			valueEscaped = false;
+			if (valueTo - valueFrom == 4 && json[valueFrom] == 'n') {
+				valueFrom = -1;
+			}
+		}
+
+		/**
+		 * @return text of the last scalar value read
+		 */
+		private String text() {
+			return valueEscaped ? unescape(valueFrom, valueTo) : new String(json, valueFrom, valueTo - valueFrom, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Skip a number, <code>true</code>, <code>false</code> or <code>null</code>
+		 */
+		private void skipLiteral() {
+			int from = position;
+			while (position < end && json[position] != ',' && json[position] != '}' && json[position] != ']' && json[position] != ' '
+					&& json[position] != '\t' && json[position] != '\n' && json[position] != '\r') {
+				position++;
+			}
+			byte first = position > from ? json[from] : 0;
+			boolean number = first == '-' || (first >= '0' && first <= '9');
+			if (!number && !literal(from, "true") && !literal(from, "false") && !literal(from, "null")) {
+				throw malformed(from);
+			}
+		}
+
+		private boolean literal(int from, String literal) {
+			if (position - from != literal.length()) {
+				return false;
+			}
+			for (int index = 0; index < literal.length(); index++) {
+				if (json[from + index] != literal.charAt(index)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Skip any value, nested ones included
+		 */
+		private void skipValue() {
+			whitespace();
+			if (position >= end) {
+				throw malformed(position);
+			}
+			byte character = json[position];
+			if (character == '"') {
+				position++;
+				skipString();
+			} else if (character == '{' || character == '[') {
+				char close = character == '{' ? '}' : ']';
+				position++;
+				if (next(close)) {
+					return;
+				}
+				do {
+					if (close == '}') {
+						expect('"');
+						skipString();
+						expect(':');
+					}
+					skipValue();
+				} while (next(','));
+				expect(close);
+			} else {
+				skipLiteral();
+			}
+		}
+
+		/**
+		 * Decode a string holding escapes
+		 */
+		private String unescape(int from, int to) {
+			StringBuilder text = new StringBuilder(to - from);
+			int start = from;
+			for (int index = from; index < to; index++) {
+				if (json[index] != '\\') {
+					continue;
+				}
+				text.append(new String(json, start, index - start, StandardCharsets.UTF_8));
+				byte escape = json[++index];
+				switch (escape) {
+				case 'b':
+					text.append('\b');
+					break;
+				case 'f':
+					text.append('\f');
+					break;
+				case 'n':
+					text.append('\n');
+					break;
+				case 'r':
+					text.append('\r');
+					break;
+				case 't':
+					text.append('\t');
+					break;
+				case 'u':
+					if (index + 4 >= to) {
+						throw malformed(index);
+					}
+					try {
+						text.append((char) Integer.parseInt(new String(json, index + 1, 4, StandardCharsets.US_ASCII), 16));
+					} catch (NumberFormatException numberFormatException) {
+						throw malformed(index);
+					}
+					index += 4;
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					text.append((char) escape);
+					break;
+				default:
+					throw malformed(index);
+				}
+				start = index + 1;
+			}
+			return text.append(new String(json, start, to - start, StandardCharsets.UTF_8)).toString();
+		}
+	}
+
+	/**
+	 * Output buffer, reused by the requests of a thread
+	 */
+	private static final class Output {
+
+		private byte[] bytes = new byte[256];
+		private int length;
+
+		private void ensure(int extra) {
+			if (length + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+			}
+		}
+
+		private void write(char character) {
+			ensure(1);
+			bytes[length++] = (byte) character;
+		}
+
+		private void write(String ascii) {
+			ensure(ascii.length());
+			for (int index = 0; index < ascii.length(); index++) {
+				bytes[length++] = (byte) ascii.charAt(index);
+			}
+		}
+
+		private void number(long value) {
+			if (value < 0) {
+				if (value == Long.MIN_VALUE) {
+					write(Long.toString(value));
+					return;
+				}
+				write('-');
+				value = -value;
+			}
+			ensure(19);
+			int start = length;
+			do {
+				bytes[length++] = (byte) ('0' + value % 10);
+				value /= 10;
+			} while (value > 0);
+			for (int left = start, right = length - 1; left < right; left++, right--) {
+				byte swap = bytes[left];
+				bytes[left] = bytes[right];
+				bytes[right] = swap;
+			}
+		}
+
+		/**
+		 * Write an amount rounded to 2 decimals as a JSON string, 0.00 when there is none
+		 */
+		private void amount(BigDecimal amount) {
+			if (Objects.isNull(amount)) {
+				write("\"0.00\"");
+				return;
+			}
+			BigDecimal rounded = amount.setScale(2, RoundingMode.HALF_UP);
+			BigInteger unscaled = rounded.unscaledValue();
+			write('"');
+			if (unscaled.bitLength() >= 63) {
+				write(rounded.toString());
+			} else {
+				long value = unscaled.longValue();
+				if (value < 0) {
+					write('-');
+					value = -value;
+				}
+				number(value / 100);
+				write('.');
+				write((char) ('0' + value % 100 / 10));
+				write((char) ('0' + value % 10));
+			}
+			write('"');
+		}
+	}
+}
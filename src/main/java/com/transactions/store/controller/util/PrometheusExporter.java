@@ -0,0 +1,116 @@
+package com.transactions.store.controller.util;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.transactions.store.service.IngestionQueue;
+import com.transactions.store.service.LatencyHistogram;
+import com.transactions.store.service.Metrics;
+import com.transactions.store.service.TransactionService;
+
+/**
+ * Writer of the {@link Metrics}, the rejections and the state of the statistics in the Prometheus text
+ * format. Latencies are summaries of the quantiles since the start, in seconds
+ *
+ * @author onoriel
+ *
+ */
+@Component
+public class PrometheusExporter {
+
+	/**
+	 * Media type of the Prometheus text format
+	 */
+	public static final String CONTENT_TYPE = "text/plain;version=0.0.4;charset=utf-8";
+
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final TransactionService transactionService;
+
+	private final ConverterUtils converterUtils;
+
+	@Autowired
+	public PrometheusExporter(TransactionService transactionService, ConverterUtils converterUtils) {
+		this.transactionService = transactionService;
+		this.converterUtils = converterUtils;
+	}
+
+	/**
+	 * @return every metric, in the Prometheus text format
+	 */
+	public String scrape() {
+		Metrics metrics = transactionService.getMetrics();
+		StringBuilder text = new StringBuilder(4096);
+		header(text, "transactions_saved_total", "counter", "Transactions saved");
+		sample(text, "transactions_saved_total", null, metrics.saved());
+		header(text, "transactions_rejected_total", "counter", "Transactions rejected by the validation, by reason");
+		for (Validation reason : Validation.values()) {
+			if (reason != Validation.ACCEPTED) {
+				sample(text, "transactions_rejected_total", "reason=\"" + reason.name().toLowerCase(Locale.ROOT) + "\"", converterUtils.rejections(reason));
+			}
+		}
+		header(text, "transactions_save_seconds", "summary", "Latency of the saves of a single transaction");
+		summary(text, "transactions_save_seconds", null, metrics.getSaveLatency());
+		header(text, "statistics_query_seconds", "summary", "Latency of the queries of the statistics");
+		summary(text, "statistics_query_seconds", null, metrics.getQueryLatency());
+		header(text, "statistics_buckets", "gauge", "Buckets held by the statistics, until they are evicted");
+		sample(text, "statistics_buckets", null, transactionService.liveBuckets());
+		header(text, "statistics_keys", "gauge", "Keys holding statistics");
+		sample(text, "statistics_keys", null, transactionService.liveKeys());
+		header(text, "statistics_evicted_buckets_total", "counter", "Buckets evicted from the window");
+		sample(text, "statistics_evicted_buckets_total", null, metrics.evicted());
+		header(text, "statistics_eviction_seconds", "summary", "Latency of the evictions of the expired buckets");
+		summary(text, "statistics_eviction_seconds", null, metrics.getEvictionLatency());
+		header(text, "http_request_seconds", "summary", "Latency of the requests answered, by end point");
+		for (Metrics.Endpoint endpoint : Metrics.Endpoint.values()) {
+			summary(text, "http_request_seconds", "endpoint=\"" + endpoint.label() + "\"", metrics.getRequestLatency(endpoint));
+		}
+		IngestionQueue ingestionQueue = transactionService.getIngestionQueue();
+		if (!Objects.isNull(ingestionQueue)) {
+			header(text, "ingestion_queue_depth", "gauge", "Transactions queued and not applied yet");
+			sample(text, "ingestion_queue_depth", null, ingestionQueue.depth());
+			header(text, "ingestion_queue_capacity", "gauge", "Entries of the ingestion queue");
+			sample(text, "ingestion_queue_capacity", null, ingestionQueue.capacity());
+			header(text, "ingestion_queue_drain_latency_seconds", "gauge", "Time from the enqueue to the apply of the last batch drained");
+			sample(text, "ingestion_queue_drain_latency_seconds", null, ingestionQueue.drainLatency() / NANOS_PER_SECOND);
+		}
+		return text.toString();
+	}
+
+	private static void summary(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+		long[] quantiles = histogram.quantiles(QUANTILES);
+		for (int index = 0; index < QUANTILES.length; index++) {
+			String quantile = "quantile=\"" + QUANTILES[index] + "\"";
+			sample(text, name, Objects.isNull(labels) ? quantile : labels + "," + quantile, quantiles[index] / NANOS_PER_SECOND);
+		}
+		sample(text, name + "_sum", labels, histogram.sum() / NANOS_PER_SECOND);
+		sample(text, name + "_count", labels, histogram.count());
+	}
+
+	private static void header(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder text, String name, String labels, long value) {
+		sampleName(text, name, labels).append(value).append('\n');
+	}
+
+	private static void sample(StringBuilder text, String name, String labels, double value) {
+		sampleName(text, name, labels).append(value).append('\n');
+	}
+
+	private static StringBuilder sampleName(StringBuilder text, String name, String labels) {
+		text.append(name);
+		if (!Objects.isNull(labels)) {
+			text.append('{').append(labels).append('}');
+		}
+		return text.append(' ');
+	}
+}
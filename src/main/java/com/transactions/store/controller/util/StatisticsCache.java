@@ -0,0 +1,117 @@
+package com.transactions.store.controller.util;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.transactions.store.service.TimeSource;
+import com.transactions.store.service.TransactionService;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Cache of the rendered statistics responses of every window.
+ *
+ * A response stays valid while the statistics generation and the bucket of the current time are the same,
+ * so it is invalidated by every write and removal and by the expiration of a bucket. The requests missing
+ * the cache at the same time wait for a single rendering.
+ *
+ * @author onoriel
+ *
+ */
+@Component
+public class StatisticsCache {
+
+	/**
+	 * Windows cached at once, bounding the cache against arbitrary windows
+	 */
+	private static final int MAX_WINDOWS = 16;
+
+	/**
+	 * Key of the default window
+	 */
+	private static final long DEFAULT_WINDOW = -1L;
+
+	private final TransactionService transactionService;
+
+	private final TimeSource timeSource;
+
+	/**
+	 * Bucket resolution (milliseconds)
+	 */
+	private final long resolution;
+
+	private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+	@Autowired
+	public StatisticsCache(TransactionService transactionService, TimeSource timeSource, @Value("${statistic.resolution:1000}") Long resolution) {
+		this.transactionService = transactionService;
+		this.timeSource = timeSource;
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Rendered statistics of a window
+	 * @param window window (milliseconds), or null for the time to keep alive
+	 * @return response
+	 */
+	public Response get(Long window) {
+		long generation = transactionService.generation();
+		long tick = Math.floorDiv(timeSource.currentTimeMillis(), resolution);
+		long key = Objects.isNull(window) ? DEFAULT_WINDOW : window;
+		Entry entry = entries.get(key);
+		if (Objects.isNull(entry) || !entry.isValid(generation, tick)) {
+			if (entries.size() >= MAX_WINDOWS && !entries.containsKey(key)) {
+				entries.clear();
+			}
+			Entry candidate = new Entry(generation, tick, new CompletableFuture<>());
+			entry = entries.compute(key, (cached, current) -> Objects.isNull(current) || !current.isValid(generation, tick) ? candidate : current);
+			if (entry == candidate) {
+				try {
+					candidate.getResponse().complete(render(window));
+				} catch (RuntimeException exception) {
+					entries.remove(key, candidate);
+					candidate.getResponse().completeExceptionally(exception);
+					throw exception;
+				}
+			}
+		}
+		return entry.getResponse().join();
+	}
+
+	private Response render(Long window) {
+		byte[] body = JsonCodec.writeStatistic(Objects.isNull(window) ? transactionService.getStatistics() : transactionService.getStatistics(window));
+		CRC32 checksum = new CRC32();
+		checksum.update(body);
+		return new Response(body, "\"" + Long.toHexString(checksum.getValue()) + "\"");
+	}
+
+	/**
+	 * Rendered statistics and their entity tag
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static class Response {
+		private final byte[] body;
+		private final String eTag;
+	}
+
+	@Getter
+	@AllArgsConstructor
+	private static class Entry {
+		private final long generation;
+		private final long tick;
+		private final CompletableFuture<Response> response;
+
+		private boolean isValid(long generation, long tick) {
+			return this.generation == generation && this.tick == tick;
+		}
+	}
+}
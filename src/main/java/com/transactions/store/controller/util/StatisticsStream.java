@@ -0,0 +1,272 @@
+package com.transactions.store.controller.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Server-Sent Events stream of the statistics.
+ *
+ * A single publisher thread reads the statistics from the {@link StatisticsCache} every period, and when
+ * they changed it encodes one event that is handed as is to every subscriber. The subscribers are async
+ * requests of the servlet stack, so an idle connection holds no thread.
+ *
+ * Every subscriber holds only the last event not sent yet, written by a pool of sender threads one
+ * subscriber at a time, so a slow subscriber skips the events it could not keep up with instead of
+ * delaying the others, and one whose send blocks longer than the send timeout is dropped.
+ *
+ * @author onoriel
+ *
+ */
+@Component
+@ConditionalOnWebApplication(type = Type.SERVLET)
+@Log4j2
+public class StatisticsStream {
+
+	private static final byte[] ID = "id:".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] DATA = "\ndata:".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] END = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private final StatisticsCache statisticsCache;
+
+	/**
+	 * Publishing period (milliseconds), the highest rate of the events
+	 */
+	private final long period;
+
+	/**
+	 * Time a subscription is kept open (milliseconds), 0 never times out
+	 */
+	private final long timeout;
+
+	/**
+	 * Time a send may block before its subscriber is dropped (milliseconds)
+	 */
+	private final long sendTimeout;
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Event of the current statistics
+	 */
+	private volatile Event current;
+
+	private ScheduledExecutorService publisher;
+
+	private final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "statistics-stream-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Autowired
+	public StatisticsStream(StatisticsCache statisticsCache, @Value("${statistic.stream.period:1000}") Long period,
+			@Value("${statistic.stream.timeout:0}") Long timeout, @Value("${statistic.stream.send-timeout:10000}") Long sendTimeout) {
+		this.statisticsCache = statisticsCache;
+		this.period = period;
+		this.timeout = timeout;
+		this.sendTimeout = sendTimeout;
+	}
+
+	@PostConstruct
+	public void start() {
+		publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "statistics-stream");
+			thread.setDaemon(true);
+			return thread;
+		});
+		publisher.scheduleAtFixedRate(this::publish, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		publisher.shutdownNow();
+		senders.shutdownNow();
+		subscribers.forEach(subscriber -> subscriber.getEmitter().complete());
+		subscribers.clear();
+	}
+
+	/**
+	 * Subscribe to the stream, starting with the current statistics
+	 * @return emitter of the events
+	 */
+	public ResponseBodyEmitter subscribe() {
+		Subscriber subscriber = new Subscriber(new EventStreamEmitter(timeout));
+		ResponseBodyEmitter emitter = subscriber.getEmitter();
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(exception -> subscribers.remove(subscriber));
+		subscribers.add(subscriber);
+		subscriber.offer(refresh());
+		return emitter;
+	}
+
+	/**
+	 * Hand the statistics to every subscriber not offered them yet, dropping the subscribers whose send
+	 * has blocked for longer than the send timeout
+	 */
+	public void publish() {
+		try {
+			if (subscribers.isEmpty()) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			subscribers.removeIf(subscriber -> subscriber.isStalled(now));
+			Event event = refresh();
+			subscribers.forEach(subscriber -> subscriber.offer(event));
+		} catch (RuntimeException exception) {
+			// an exception would cancel every following execution
+			log.error("publish: statistics stream failed", exception);
+		}
+	}
+
+	/**
+	 * @return number of open subscriptions
+	 */
+	public int subscribers() {
+		return subscribers.size();
+	}
+
+	/**
+	 * @return event of the current statistics, encoded again only when they changed
+	 */
+	private Event refresh() {
+		StatisticsCache.Response response = statisticsCache.get(null);
+		Event event = current;
+		if (Objects.isNull(event) || !event.getETag().equals(response.getETag())) {
+			event = new Event(response.getETag(), encode(response));
+			current = event;
+		}
+		return event;
+	}
+
+	/**
+	 * Subscription holding the last event not sent yet
+	 */
+	@Getter
+	private class Subscriber {
+		private final ResponseBodyEmitter emitter;
+		private final AtomicReference<byte[]> pending = new AtomicReference<>();
+
+		/**
+		 * Event last offered, so an event is offered once whether it comes from the subscription or a publish
+		 */
+		private Event offered;
+
+		/**
+		 * Start of the send running, 0 when none is
+		 */
+		private volatile long sendingSince;
+
+		private Subscriber(ResponseBodyEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		/**
+		 * Replace the event not sent yet, starting a sender when none is running for this subscriber
+		 * @param event
+		 */
+		private synchronized void offer(Event event) {
+			if (event == offered) {
+				return;
+			}
+			offered = event;
+			if (Objects.isNull(pending.getAndSet(event.getBytes()))) {
+				senders.execute(this::drain);
+			}
+		}
+
+		/**
+		 * Send the pending events until none is left, the ones offered meanwhile replacing each other
+		 */
+		private void drain() {
+			for (byte[] event = pending.get();; event = pending.get()) {
+				sendingSince = System.currentTimeMillis();
+				try {
+					emitter.send(event, MediaType.TEXT_EVENT_STREAM);
+				} catch (IOException | IllegalStateException exception) {
+					// a closed connection
+					subscribers.remove(this);
+					log.debug("send: subscriber removed [{}]", exception.getMessage());
+					return;
+				} finally {
+					sendingSince = 0L;
+				}
+				if (!subscribers.contains(this)) {
+					// dropped while it was blocked, or completed
+					emitter.complete();
+					return;
+				}
+				if (pending.compareAndSet(event, null)) {
+					return;
+				}
+			}
+		}
+
+		private boolean isStalled(long now) {
+			long since = sendingSince;
+			return since != 0L && now - since > sendTimeout;
+		}
+	}
+
+	/**
+	 * @return event <code>id:etag\ndata:json\n\n</code>, the statistics JSON holding no line break
+	 */
+	private static byte[] encode(StatisticsCache.Response response) {
+		byte[] eTag = response.getETag().getBytes(StandardCharsets.UTF_8);
+		byte[] body = response.getBody();
+		byte[] event = Arrays.copyOf(ID, ID.length + eTag.length + DATA.length + body.length + END.length);
+		System.arraycopy(eTag, 0, event, ID.length, eTag.length);
+		System.arraycopy(DATA, 0, event, ID.length + eTag.length, DATA.length);
+		System.arraycopy(body, 0, event, ID.length + eTag.length + DATA.length, body.length);
+		System.arraycopy(END, 0, event, event.length - END.length, END.length);
+		return event;
+	}
+
+	@Getter
+	@AllArgsConstructor
+	private static class Event {
+		private final String eTag;
+		private final byte[] bytes;
+	}
+
+	/**
+	 * Emitter of already encoded events, written without any framing
+	 */
+	private static class EventStreamEmitter extends ResponseBodyEmitter {
+
+		private EventStreamEmitter(Long timeout) {
+			super(timeout);
+		}
+
+		@Override
+		protected void extendResponse(ServerHttpResponse outputMessage) {
+			super.extendResponse(outputMessage);
+			outputMessage.getHeaders().setContentType(new MediaType(MediaType.TEXT_EVENT_STREAM, StandardCharsets.UTF_8));
+		}
+	}
+}
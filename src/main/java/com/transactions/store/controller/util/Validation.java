@@ -0,0 +1,48 @@
+package com.transactions.store.controller.util;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Outcome of the validation of a transaction, returned instead of thrown so a rejection costs no stack
+ * trace, with the answer of the save end points preallocated
+ *
+ * @author onoriel
+ *
+ */
+public enum Validation {
+
+	/**
+	 * Inside the window, saved (201)
+	 */
+	ACCEPTED(HttpStatus.CREATED),
+	/**
+	 * Older than the window, ignored (204)
+	 */
+	OLDER(HttpStatus.NO_CONTENT),
+	/**
+	 * In the future (422)
+	 */
+	FUTURE(HttpStatus.UNPROCESSABLE_ENTITY),
+	/**
+	 * Amount or timestamp that can not be parsed (422)
+	 */
+	UNPARSEABLE(HttpStatus.UNPROCESSABLE_ENTITY),
+	/**
+	 * Not a transaction, such as a malformed body or an invalid key (400)
+	 */
+	UNREADABLE(HttpStatus.BAD_REQUEST);
+
+	private final ResponseEntity<Void> response;
+
+	private Validation(HttpStatus status) {
+		this.response = new ResponseEntity<Void>(status);
+	}
+
+	/**
+	 * @return answer of the save end points, shared by every request
+	 */
+	public ResponseEntity<Void> getResponse() {
+		return response;
+	}
+}
@@ -0,0 +1,46 @@
+package com.transactions.store.dto;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Batch ingestion result DTO, counting the lines as the single transaction end point would answer them
+ *
+ * @author onoriel
+ *
+ */
+@Data
+@ToString(includeFieldNames=true)
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonPropertyOrder({ "accepted", "older", "rejected" })
+public class BatchResultDTO implements Serializable {
+
+	/**
+	 * Serial version
+	 */
+	private final static long serialVersionUID = -3404715885405736374L;
+
+	/**
+	 * transactions saved (201)
+	 */
+	@JsonProperty("accepted")
+	private long accepted;
+	/**
+	 * transactions older than the window, ignored (204)
+	 */
+	@JsonProperty("older")
+	private long older;
+	/**
+	 * lines that are not a valid transaction or hold a future one (400 and 422)
+	 */
+	@JsonProperty("rejected")
+	private long rejected;
+}
@@ -0,0 +1,56 @@
+package com.transactions.store.dto;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Ingestion state DTO, of the queue applied by a single writer thread
+ *
+ * @author onoriel
+ *
+ */
+@Data
+@ToString(includeFieldNames=true)
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonPropertyOrder({ "mode", "ack", "capacity", "depth", "drainLatency" })
+public class IngestionDTO implements Serializable {
+
+	/**
+	 * Serial version
+	 */
+	private final static long serialVersionUID = 5120917364430398141L;
+
+	/**
+	 * direct or queue
+	 */
+	@JsonProperty("mode")
+	private String mode;
+	/**
+	 * apply or enqueue, when queued
+	 */
+	@JsonProperty("ack")
+	private String ack;
+	/**
+	 * entries of the queue
+	 */
+	@JsonProperty("capacity")
+	private long capacity;
+	/**
+	 * transactions queued and not applied yet
+	 */
+	@JsonProperty("depth")
+	private long depth;
+	/**
+	 * time from the enqueue of the first transaction of the last batch drained to its apply (microseconds)
+	 */
+	@JsonProperty("drainLatency")
+	private long drainLatency;
+}
@@ -0,0 +1,281 @@
+package com.transactions.store.model;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch of amounts.
+ *
+ * Amounts are counted in a log-linear histogram whose bin boundaries grow by a factor
+ * <code>GAMMA = (1 + ACCURACY) / (1 - ACCURACY)</code>: an amount <code>x</code> falls in bin
+ * <code>ceil(log_GAMMA |x|)</code> and a bin is estimated by the point of its range closest to both
+ * ends, so every quantile is estimated with a relative error of at most {@link #ACCURACY} (1%) of
+ * the true amount. Negative amounts are counted in a mirrored histogram and amounts under
+ * {@link #MIN_AMOUNT} as zero.
+ *
+ * Bins are kept in a dense array covering only the range of bins seen, with at most {@link #MAX_BINS}
+ * bins per sign (16 KB): when a histogram would grow beyond it, its lowest bins are collapsed into
+ * the lowest kept one, so only the smallest magnitudes lose accuracy. Merging two sketches adds their
+ * bins, which is exact: a merged sketch is the same as the sketch of every amount, and a sketch merged
+ * before can be subtracted again.
+ *
+ * @author onoriel
+ *
+ */
+public class QuantileSketch implements Serializable {
+
+	/**
+	 * Serial version
+	 */
+	private final static long serialVersionUID = -2209861213411540339L;
+
+	/**
+	 * Highest relative error of an estimated quantile
+	 */
+	public static final double ACCURACY = 0.01;
+
+	/**
+	 * Lowest magnitude told apart from zero
+	 */
+	public static final double MIN_AMOUNT = 1e-9;
+
+	/**
+	 * Highest number of bins per sign
+	 */
+	public static final int MAX_BINS = 2048;
+
+	private static final double GAMMA = (1 + ACCURACY) / (1 - ACCURACY);
+
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+
+	private final Bins positives;
+	private final Bins negatives;
+	private long zeros;
+
+	public QuantileSketch() {
+		this.positives = new Bins();
+		this.negatives = new Bins();
+	}
+
+	private QuantileSketch(QuantileSketch sketch) {
+		this.positives = new Bins(sketch.positives);
+		this.negatives = new Bins(sketch.negatives);
+		this.zeros = sketch.zeros;
+	}
+
+	/**
+	 * Count an amount
+	 * @param amount
+	 */
+	public void add(double amount) {
+		if (amount >= MIN_AMOUNT) {
+			positives.add(binOf(amount), 1L);
+		} else if (amount <= -MIN_AMOUNT) {
+			negatives.add(binOf(-amount), 1L);
+		} else {
+			zeros++;
+		}
+	}
+
+	/**
+	 * Add the amounts of another sketch to this one
+	 * @param sketch
+	 * @return this sketch
+	 */
+	public QuantileSketch merge(QuantileSketch sketch) {
+		positives.merge(sketch.positives);
+		negatives.merge(sketch.negatives);
+		zeros += sketch.zeros;
+		return this;
+	}
+
+	/**
+	 * Remove the amounts of a sketch merged into this one before. Amounts of bins collapsed since then
+	 * are removed from the lowest bin kept, where they are counted
+	 * @param sketch
+	 * @return this sketch
+	 */
+	public QuantileSketch subtract(QuantileSketch sketch) {
+		positives.subtract(sketch.positives);
+		negatives.subtract(sketch.negatives);
+		zeros -= Math.min(zeros, sketch.zeros);
+		return this;
+	}
+
+	public QuantileSketch copy() {
+		return new QuantileSketch(this);
+	}
+
+	/**
+	 * @return number of amounts counted
+	 */
+	public long getCount() {
+		return positives.total + negatives.total + zeros;
+	}
+
+	/**
+	 * Estimate a quantile
+	 * @param quantile between 0 and 1
+	 * @return estimated amount, NaN when the sketch is empty
+	 */
+	public double quantile(double quantile) {
+		long count = getCount();
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) (quantile * (count - 1));
+		if (rank < negatives.total) {
+			// the most negative amounts sit in the highest bins of the mirrored histogram
+			return -amountOf(negatives.binAtRank(negatives.total - 1 - rank));
+		}
+		rank -= negatives.total;
+		if (rank < zeros) {
+			return 0d;
+		}
+		return amountOf(positives.binAtRank(rank - zeros));
+	}
+
+	/**
+	 * Write the bins of the sketch
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(DataOutput output) throws IOException {
+		positives.write(output);
+		negatives.write(output);
+		output.writeLong(zeros);
+	}
+
+	/**
+	 * Read a sketch written by {@link #write(DataOutput)}
+	 * @param buffer
+	 * @return sketch
+	 */
+	public static QuantileSketch read(ByteBuffer buffer) {
+		QuantileSketch sketch = new QuantileSketch();
+		sketch.positives.read(buffer);
+		sketch.negatives.read(buffer);
+		sketch.zeros = buffer.getLong();
+		return sketch;
+	}
+
+	private static int binOf(double magnitude) {
+		return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+	}
+
+	private static double amountOf(int bin) {
+		return 2 * Math.pow(GAMMA, bin) / (GAMMA + 1);
+	}
+
+	/**
+	 * Dense counts of a contiguous range of bins
+	 */
+	private static final class Bins implements Serializable {
+
+		private final static long serialVersionUID = 4431712032717870418L;
+
+		private static final long[] EMPTY = new long[0];
+
+		/**
+		 * counts[i] is the count of bin offset + i
+		 */
+		private long[] counts;
+		private int offset;
+		private long total;
+
+		private Bins() {
+			this.counts = EMPTY;
+		}
+
+		private Bins(Bins bins) {
+			this.counts = Arrays.copyOf(bins.counts, bins.counts.length);
+			this.offset = bins.offset;
+			this.total = bins.total;
+		}
+
+		private void add(int bin, long count) {
+			if (counts.length == 0) {
+				counts = new long[8];
+				offset = bin - 4;
+			}
+			if (bin < offset || bin >= offset + counts.length) {
+				grow(bin);
+			}
+			counts[Math.max(bin, offset) - offset] += count;
+			total += count;
+		}
+
+		private void merge(Bins bins) {
+			for (int index = 0; index < bins.counts.length; index++) {
+				if (bins.counts[index] > 0) {
+					add(bins.offset + index, bins.counts[index]);
+				}
+			}
+		}
+
+		private void subtract(Bins bins) {
+			for (int index = 0; index < bins.counts.length; index++) {
+				int bin = bins.offset + index;
+				if (bins.counts[index] > 0 && counts.length > 0 && bin < offset + counts.length) {
+					int target = Math.max(bin, offset) - offset;
+					long removed = Math.min(bins.counts[index], counts[target]);
+					counts[target] -= removed;
+					total -= removed;
+				}
+			}
+		}
+
+		/**
+		 * Extend the range to cover a bin, collapsing the lowest bins when it would exceed {@link #MAX_BINS}
+		 */
+		private void grow(int bin) {
+			int low = Math.min(bin, offset);
+			int high = Math.max(bin, offset + counts.length - 1);
+			if (high - low >= MAX_BINS) {
+				low = high - MAX_BINS + 1;
+			}
+			int length = Math.min(MAX_BINS, Math.max(high - low + 1, 2 * counts.length));
+			if (bin < offset && low + length - 1 > high) {
+				// leave room below, where the range was growing
+				low = Math.max(high - length + 1, high - MAX_BINS + 1);
+			}
+			long[] grown = new long[length];
+			for (int index = 0; index < counts.length; index++) {
+				int target = Math.max(offset + index, low) - low;
+				grown[Math.min(target, length - 1)] += counts[index];
+			}
+			counts = grown;
+			offset = low;
+		}
+
+		private void write(DataOutput output) throws IOException {
+			output.writeInt(offset);
+			output.writeInt(counts.length);
+			for (long count : counts) {
+				output.writeLong(count);
+			}
+		}
+
+		private void read(ByteBuffer buffer) {
+			offset = buffer.getInt();
+			counts = new long[buffer.getInt()];
+			buffer.asLongBuffer().get(counts);
+			buffer.position(buffer.position() + counts.length * Long.BYTES);
+			total = Arrays.stream(counts).sum();
+		}
+
+		private int binAtRank(long rank) {
+			long seen = 0;
+			for (int index = 0; index < counts.length; index++) {
+				seen += counts[index];
+				if (seen > rank) {
+					return offset + index;
+				}
+			}
+			return offset + counts.length - 1;
+		}
+	}
+}
@@ -1,65 +1,100 @@
-package com.transactions.store.model;
-
-import java.io.Serializable;
-import java.math.BigDecimal;
-
-import org.apache.commons.lang3.math.NumberUtils;
-
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.ToString;
-
-/**
- * Statistic DTO
- * 
- * @author onoriel
- *
- */
-@Data
-@ToString(includeFieldNames=true)
-@AllArgsConstructor	
-public class Statistic implements Serializable {
-	
-	/**
-	 * Serial version
-	 */
-	private final static long serialVersionUID = 8301295409563430072L;
-	
-	/**
-	 * Long time (Seconds) 
-	 */
-	private Long timestamp;
-	
-	/**
-	 * the total sum of transaction value in the last 60 seconds
-	 */
-	private BigDecimal sum;
-	/**
-	 * the average amount of transaction value in the last 60 seconds
-	 */
-	private BigDecimal avg;
-	/**
-	 * single highest transaction value in the last 60 seconds
-	 */
-	private BigDecimal max;
-	/**
-	 * single lowest transaction value in the last 60 seconds
-	 */
-	private BigDecimal min;
-	/**
-	 * total number of transactions happened in the last 60 seconds
-	 */
-	private Long count;
-	
-	public Statistic() {
-		reset();
-	}
-	public void reset() {
-		this.avg = BigDecimal.ZERO;
-		this.count = NumberUtils.LONG_ZERO;
-		this.sum = BigDecimal.ZERO;
-		this.timestamp = NumberUtils.LONG_ZERO;
-	}
-	
-	
+package com.transactions.store.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Statistic DTO
+ * 
+ * @author onoriel
+ *
+ */
+@Data
+@ToString(includeFieldNames=true)
+public class Statistic implements Serializable {
+	
+	/**
+	 * Serial version
+	 */
+	private final static long serialVersionUID = 8301295409563430072L;
+	
+	/**
+	 * Long time (Seconds) 
+	 */
+	private Long timestamp;
+	
+	/**
+	 * the total sum of transaction value in the last 60 seconds
+	 */
+	private BigDecimal sum;
+	/**
+	 * the average amount of transaction value in the last 60 seconds
+	 */
+	private BigDecimal avg;
+	/**
+	 * single highest transaction value in the last 60 seconds
+	 */
+	private BigDecimal max;
+	/**
+	 * single lowest transaction value in the last 60 seconds
+	 */
+	private BigDecimal min;
+	/**
+	 * total number of transactions happened in the last 60 seconds
+	 */
+	private Long count;
+	/**
+	 * quantile sketch of the transaction values, null when percentiles are not tracked
+	 */
+	@EqualsAndHashCode.Exclude
+	@ToString.Exclude
+	private QuantileSketch sketch;
+	
+	public Statistic() {
+		reset();
+	}
+	public Statistic(Long timestamp, BigDecimal sum, BigDecimal avg, BigDecimal max, BigDecimal min, Long count) {
+		this.timestamp = timestamp;
+		this.sum = sum;
+		this.avg = avg;
+		this.max = max;
+		this.min = min;
+		this.count = count;
+	}
+	public void reset() {
+		this.avg = BigDecimal.ZERO;
+		this.count = NumberUtils.LONG_ZERO;
+		this.sum = BigDecimal.ZERO;
+		this.timestamp = NumberUtils.LONG_ZERO;
+		this.sketch = null;
+	}
+	/**
+	 * Merge another statistic into this one
+	 * @param statistic
+	 * @return this statistic
+	 */
+	public Statistic merge(Statistic statistic) {
+		this.sum = this.sum.add(statistic.getSum());
+		this.count = Long.sum(this.count, statistic.getCount());
+		this.max = Objects.isNull(this.max) ? statistic.getMax() :
+				   Objects.isNull(statistic.getMax()) ? this.max : this.max.max(statistic.getMax());
+		this.min = Objects.isNull(this.min) ? statistic.getMin() :
+				   Objects.isNull(statistic.getMin()) ? this.min : this.min.min(statistic.getMin());
+		this.avg = this.count > 0 ? this.sum.divide(new BigDecimal(this.count), 2, RoundingMode.HALF_UP) : BigDecimal.ZERO;
+		if (!Objects.isNull(statistic.getSketch())) {
+			// the merged sketch is copied, it may still be updated by its owner
+			this.sketch = Objects.isNull(this.sketch) ? statistic.getSketch().copy() : this.sketch.merge(statistic.getSketch());
+		}
+		return this;
+	}
+	
+	
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.transactions.store.repository;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed point arithmetic helpers: amounts are handled as <code>long</code> units of
+ * <code>10^-scale</code>, and only turned back to {@link BigDecimal} when a statistic is read.
+ *
+ * @author onoriel
+ *
+ */
+public final class FixedPoint {
+
+	/**
+	 * Marker returned when an amount can not be represented with the requested scale
+	 */
+	public static final long NOT_REPRESENTABLE = Long.MIN_VALUE;
+
+	/**
+	 * Maximum number of digits a long unit can always hold
+	 */
+	private static final int MAX_DIGITS = 18;
+
+	private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1L;
+		for (int exponent = 1; exponent <= MAX_DIGITS; exponent++) {
+			POWERS_OF_TEN[exponent] = POWERS_OF_TEN[exponent - 1] * 10L;
+		}
+	}
+
+	private FixedPoint() {
+	}
+
+	/**
+	 * Convert an amount to units of <code>10^-scale</code>
+	 * @param amount
+	 * @param scale
+	 * @return units, or {@link #NOT_REPRESENTABLE} when the amount has more decimals than the scale
+	 * or does not fit in a long
+	 */
+	public static long toUnits(BigDecimal amount, int scale) {
+		int shift = scale - amount.scale();
+		if (shift < 0 || amount.precision() + shift > MAX_DIGITS) {
+			return NOT_REPRESENTABLE;
+		}
+		return amount.unscaledValue().longValue() * POWERS_OF_TEN[shift];
+	}
+
+	/**
+	 * Convert an amount given as <code>unscaled * 10^-amountScale</code> to units of <code>10^-scale</code>
+	 * @param unscaled
+	 * @param amountScale
+	 * @param scale
+	 * @return units, or {@link #NOT_REPRESENTABLE} when the amount has more decimals than the scale
+	 * or does not fit in a long
+	 */
+	public static long toUnits(long unscaled, int amountScale, int scale) {
+		int shift = scale - amountScale;
+		if (shift < 0 || shift > MAX_DIGITS || unscaled == NOT_REPRESENTABLE) {
+			return NOT_REPRESENTABLE;
+		}
+		long limit = Long.MAX_VALUE / POWERS_OF_TEN[shift];
+		if (unscaled > limit || unscaled < -limit) {
+			return NOT_REPRESENTABLE;
+		}
+		return unscaled * POWERS_OF_TEN[shift];
+	}
+
+	/**
+	 * Convert units of <code>10^-scale</code> back to an amount
+	 * @param units
+	 * @param scale
+	 * @param amountScale scale of the resulting amount, never lower than the one of the original amounts
+	 * @return amount
+	 */
+	public static BigDecimal toAmount(long units, int scale, int amountScale) {
+		return BigDecimal.valueOf(units, scale).setScale(amountScale);
+	}
+
+	/**
+	 * Sum two unit values
+	 * @param units
+	 * @param addend
+	 * @return sum, or {@link #NOT_REPRESENTABLE} on overflow
+	 */
+	public static long add(long units, long addend) {
+		long sum = units + addend;
+		if (((units ^ sum) & (addend ^ sum)) < 0 || sum == NOT_REPRESENTABLE) {
+			return NOT_REPRESENTABLE;
+		}
+		return sum;
+	}
+}
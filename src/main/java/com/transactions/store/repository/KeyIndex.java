@@ -0,0 +1,262 @@
+package com.transactions.store.repository;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Bounded index of string keys to values, backed by primitive arrays.
+ *
+ * Entries live in preallocated arrays addressed by a handle (key, hash, value and last access time),
+ * and an open addressing table with linear probing maps a key hash to its handle, so the index holds
+ * no node per entry and its memory is fixed by the capacity. Lookups are optimistic reads of a
+ * {@link StampedLock}, retried under the read lock only when an insertion or removal ran meanwhile.
+ *
+ * When the index is full, inserting a key evicts the least recently used of a few entries sampled at
+ * random, which approximates LRU without keeping an ordered list; idle entries are removed by
+ * {@link #removeIdle(long)}.
+ *
+ * @author onoriel
+ *
+ */
+public class KeyIndex<V> {
+
+	/**
+	 * Entries sampled to pick the one evicted when the index is full
+	 */
+	private static final int EVICTION_SAMPLES = 8;
+
+	private static final int FREE = 0;
+
+	private final int capacity;
+	private final int mask;
+
+	/**
+	 * Handle + 1 of the entry in every position, {@link #FREE} when the position is free
+	 */
+	private final int[] table;
+
+	private final String[] keys;
+	private final int[] hashes;
+	private final Object[] values;
+	private final long[] accesses;
+
+	/**
+	 * Stack of free handles
+	 */
+	private final int[] free;
+	private int freeCount;
+
+	private final StampedLock lock = new StampedLock();
+
+	public KeyIndex(int capacity) {
+		this.capacity = capacity;
+		int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+		this.mask = tableSize - 1;
+		this.table = new int[tableSize];
+		this.keys = new String[capacity];
+		this.hashes = new int[capacity];
+		this.values = new Object[capacity];
+		this.accesses = new long[capacity];
+		this.free = new int[capacity];
+		for (int handle = 0; handle < capacity; handle++) {
+			free[handle] = capacity - 1 - handle;
+		}
+		this.freeCount = capacity;
+	}
+
+	/**
+	 * Get the value of a key, recording the access
+	 * @param key
+	 * @param currentTime access time
+	 * @return value, null when the key is not indexed
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(String key, long currentTime) {
+		int hash = hash(key);
+		long stamp = lock.tryOptimisticRead();
+		int handle = find(key, hash);
+		Object value = handle < 0 ? null : values[handle];
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				handle = find(key, hash);
+				value = handle < 0 ? null : values[handle];
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if (handle >= 0) {
+			// racy on purpose: a lost update only makes the entry look a bit older
+			accesses[handle] = currentTime;
+		}
+		return (V) value;
+	}
+
+	/**
+	 * Get the value of a key, indexing a new one when the key is not indexed yet
+	 * @param key
+	 * @param currentTime access time
+	 * @param factory value of a new key
+	 * @return value
+	 */
+	@SuppressWarnings("unchecked")
+	public V computeIfAbsent(String key, long currentTime, Function<String, V> factory) {
+		V value = get(key, currentTime);
+		if (value != null) {
+			return value;
+		}
+		int hash = hash(key);
+		long stamp = lock.writeLock();
+		try {
+			int handle = find(key, hash);
+			if (handle >= 0) {
+				accesses[handle] = currentTime;
+				return (V) values[handle];
+			}
+			if (freeCount == 0) {
+				remove(leastRecentlyUsed());
+			}
+			handle = free[--freeCount];
+			keys[handle] = key;
+			hashes[handle] = hash;
+			values[handle] = value = factory.apply(key);
+			accesses[handle] = currentTime;
+			int position = hash & mask;
+			while (table[position] != FREE) {
+				position = (position + 1) & mask;
+			}
+			table[position] = handle + 1;
+			return value;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Remove every entry not accessed after the given time
+	 * @param idleThrough newest access time of an idle entry
+	 * @return number of entries removed
+	 */
+	public int removeIdle(long idleThrough) {
+		int removed = 0;
+		for (int handle = 0; handle < capacity; handle++) {
+			if (keys[handle] == null || accesses[handle] > idleThrough) {
+				// checked without the lock, most entries are not idle
+				continue;
+			}
+			long stamp = lock.writeLock();
+			try {
+				if (keys[handle] != null && accesses[handle] <= idleThrough) {
+					remove(handle);
+					removed++;
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Visit every entry, holding the read lock
+	 * @param visitor
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(BiConsumer<String, V> visitor) {
+		long stamp = lock.readLock();
+		try {
+			for (int handle = 0; handle < capacity; handle++) {
+				if (keys[handle] != null) {
+					visitor.accept(keys[handle], (V) values[handle]);
+				}
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public void clear() {
+		long stamp = lock.writeLock();
+		try {
+			for (int handle = 0; handle < capacity; handle++) {
+				if (keys[handle] != null) {
+					remove(handle);
+				}
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return capacity - freeCount;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Handle of a key, bounded by the table size so a concurrent change can not make it loop
+	 * @return handle, -1 when the key is not indexed
+	 */
+	private int find(String key, int hash) {
+		int position = hash & mask;
+		for (int probe = 0; probe <= mask; probe++) {
+			int entry = table[position];
+			if (entry == FREE) {
+				return -1;
+			}
+			int handle = entry - 1;
+			if (hashes[handle] == hash && key.equals(keys[handle])) {
+				return handle;
+			}
+			position = (position + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int leastRecentlyUsed() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int oldest = random.nextInt(capacity);
+		for (int sample = 1; sample < EVICTION_SAMPLES; sample++) {
+			int handle = random.nextInt(capacity);
+			if (accesses[handle] < accesses[oldest]) {
+				oldest = handle;
+			}
+		}
+		return oldest;
+	}
+
+	/**
+	 * Remove an entry under the write lock, shifting back the entries probed after it
+	 * @param handle
+	 */
+	private void remove(int handle) {
+		int hole = hashes[handle] & mask;
+		while (table[hole] != handle + 1) {
+			hole = (hole + 1) & mask;
+		}
+		table[hole] = FREE;
+		for (int position = (hole + 1) & mask; table[position] != FREE; position = (position + 1) & mask) {
+			int home = hashes[table[position] - 1] & mask;
+			// the entry may fill the hole when its home position is not between the hole and itself
+			if (((position - home) & mask) >= ((position - hole) & mask)) {
+				table[hole] = table[position];
+				table[position] = FREE;
+				hole = position;
+			}
+		}
+		keys[handle] = null;
+		values[handle] = null;
+		free[freeCount++] = handle;
+	}
+
+	private static int hash(String key) {
+		int hash = key.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+}
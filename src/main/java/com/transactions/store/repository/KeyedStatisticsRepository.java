@@ -0,0 +1,304 @@
+package com.transactions.store.repository;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Statistics repository broken down by transaction key (merchant, card BIN...).
+ *
+ * Keys are held in a bounded {@link KeyIndex}, and the window of a key is only allocated with its
+ * first transaction: a small ring of <code>statistic.key-slots</code> slots kept in one long array, so
+ * the edge of a key window is accurate to <code>statistic.time / statistic.key-slots</code>. A key with
+ * no transaction for a whole window is removed by the eviction, and when the index is full the least
+ * recently used keys make room for the new ones, so memory stays bounded by
+ * <code>statistic.key-capacity</code> however many keys the traffic carries.
+ *
+ * @author onoriel
+ *
+ */
+@Repository
+public class KeyedStatisticsRepository {
+
+	/**
+	 * Time to keep alive statistic
+	 */
+	private final long timeToKeepAlive;
+
+	/**
+	 * Time covered by a slot of a key window
+	 */
+	private final long slotLength;
+
+	private final int slots;
+
+	/**
+	 * Number of decimals of a fixed point unit
+	 */
+	private final int scale;
+
+	private final KeyIndex<KeyWindow> index;
+
+	public KeyedStatisticsRepository(Long timeToKeepAlive, int capacity, int slots) {
+		this(timeToKeepAlive, capacity, slots, 4);
+	}
+
+	/**
+	 * @param timeToKeepAlive time to keep alive statistic (milliseconds when wired by Spring)
+	 * @param capacity highest number of keys held
+	 * @param slots slots of a key window
+	 * @param scale number of decimals of a fixed point unit
+	 */
+	@Autowired
+	public KeyedStatisticsRepository(@Value("#{${statistic.time} * 1000}") Long timeToKeepAlive, @Value("${statistic.key-capacity:100000}") int capacity,
+			@Value("${statistic.key-slots:12}") int slots, @Value("${statistic.scale:4}") int scale) {
+		if (slots <= 0 || timeToKeepAlive % slots != 0) {
+			throw new IllegalArgumentException("key slots must divide the time to keep alive: " + slots);
+		}
+		this.timeToKeepAlive = timeToKeepAlive;
+		this.slotLength = timeToKeepAlive / slots;
+		this.slots = slots;
+		this.scale = scale;
+		this.index = new KeyIndex<>(capacity);
+	}
+
+	/**
+	 * Save a transaction in the window of its key
+	 * @param key
+	 * @param transaction
+	 * @param currentTime
+	 */
+	public void save(String key, Transaction transaction, Long currentTime) {
+		if (currentTime - transaction.getTimestamp() >= timeToKeepAlive) {
+			return;
+		}
+		long units = FixedPoint.toUnits(transaction.getAmount(), scale);
+		index.computeIfAbsent(key, currentTime, newKey -> new KeyWindow(slots)).save(Math.floorDiv(transaction.getTimestamp(), slotLength), units, transaction);
+	}
+
+	/**
+	 * Get the statistic of the window of a key
+	 * @param key
+	 * @param currentTime reference time
+	 * @return statistic, empty when the key has no transaction in the window
+	 */
+	public Statistic getWindowStatistic(String key, Long currentTime) {
+		KeyWindow window = index.get(key, currentTime);
+		Statistic statistic = Objects.isNull(window) ? new Statistic() : window.statistic(Math.floorDiv(currentTime, slotLength), scale);
+		statistic.setTimestamp(currentTime);
+		return statistic;
+	}
+
+	/**
+	 * Remove the keys without any access for a whole window, whose statistics are all expired
+	 * @param currentTime reference time
+	 */
+	public void cleanOldStatistics(Long currentTime) {
+		index.removeIdle(currentTime - timeToKeepAlive);
+	}
+
+	public void cleanAllStatistics() {
+		index.clear();
+	}
+
+	/**
+	 * Write the windows of every key: the slot fields are written as they are, so restoring them is a
+	 * bulk copy
+	 * @param output
+	 * @throws IOException
+	 */
+	public void snapshot(DataOutput output) throws IOException {
+		List<String> keys = new ArrayList<>();
+		List<KeyWindow> windows = new ArrayList<>();
+		index.forEach((key, window) -> {
+			keys.add(key);
+			windows.add(window);
+		});
+		output.writeLong(slotLength);
+		output.writeInt(slots);
+		output.writeInt(scale);
+		output.writeInt(keys.size());
+		for (int key = 0; key < keys.size(); key++) {
+			byte[] bytes = keys.get(key).getBytes(StandardCharsets.UTF_8);
+			output.writeShort(bytes.length);
+			output.write(bytes);
+			windows.get(key).write(output);
+		}
+	}
+
+	/**
+	 * Restore the windows written by {@link #snapshot(DataOutput)}, skipping the keys without any
+	 * slot alive; nothing is restored when the slots or the scale were configured differently
+	 * @param buffer
+	 * @param currentTime
+	 * @return number of keys restored
+	 */
+	public int restore(ByteBuffer buffer, Long currentTime) {
+		if (buffer.getLong() != slotLength || buffer.getInt() != slots || buffer.getInt() != scale) {
+			return 0;
+		}
+		long currentEpoch = Math.floorDiv(currentTime, slotLength);
+		int restored = 0;
+		for (int keys = buffer.getInt(); keys > 0; keys--) {
+			byte[] bytes = new byte[buffer.getShort()];
+			buffer.get(bytes);
+			KeyWindow window = KeyWindow.read(buffer, slots);
+			if (window.isAlive(currentEpoch)) {
+				index.computeIfAbsent(new String(bytes, StandardCharsets.UTF_8), currentTime, key -> window);
+				restored++;
+			}
+		}
+		return restored;
+	}
+
+	/**
+	 * @return number of keys held
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Window of a key: slot fields (epoch, count, sum, min and max) laid out one after the other in a
+	 * single array, with an exact decimal statistic per slot only for amounts not representable as
+	 * fixed point units
+	 */
+	private static final class KeyWindow {
+
+		private static final int EPOCH = 0;
+		private static final int COUNT = 1;
+		private static final int SUM = 2;
+		private static final int MIN = 3;
+		private static final int MAX = 4;
+		private static final int FIELDS = 5;
+
+		private static final long EMPTY_SLOT = Long.MIN_VALUE;
+
+		private final long[] fields;
+		private Statistic[] exacts;
+		private int amountScale;
+
+		private KeyWindow(int slots) {
+			this.fields = new long[slots * FIELDS];
+			for (int slot = 0; slot < slots; slot++) {
+				fields[slot * FIELDS + EPOCH] = EMPTY_SLOT;
+			}
+		}
+
+		private synchronized void save(long epoch, long units, Transaction transaction) {
+			int slots = fields.length / FIELDS;
+			int slot = (int) Math.floorMod(epoch, (long) slots);
+			int base = slot * FIELDS;
+			if (fields[base + EPOCH] != epoch) {
+				if (fields[base + EPOCH] > epoch) {
+					// the slot already belongs to a newer epoch, so this one has left the window
+					return;
+				}
+				Arrays.fill(fields, base, base + FIELDS, 0L);
+				fields[base + EPOCH] = epoch;
+				if (!Objects.isNull(exacts)) {
+					exacts[slot] = null;
+				}
+			}
+			long sum = units == FixedPoint.NOT_REPRESENTABLE ? units : FixedPoint.add(fields[base + SUM], units);
+			if (sum == FixedPoint.NOT_REPRESENTABLE) {
+				BigDecimal amount = transaction.getAmount();
+				if (Objects.isNull(exacts)) {
+					exacts = new Statistic[slots];
+				}
+				Statistic statistic = new Statistic(epoch, amount, amount, amount, amount, 1L);
+				exacts[slot] = Objects.isNull(exacts[slot]) ? statistic : exacts[slot].merge(statistic);
+				return;
+			}
+			long count = ++fields[base + COUNT];
+			fields[base + SUM] = sum;
+			fields[base + MIN] = count == 1 ? units : Math.min(fields[base + MIN], units);
+			fields[base + MAX] = count == 1 ? units : Math.max(fields[base + MAX], units);
+			amountScale = Math.max(amountScale, transaction.getAmount().scale());
+		}
+
+		private synchronized void write(DataOutput output) throws IOException {
+			output.writeInt(amountScale);
+			for (long field : fields) {
+				output.writeLong(field);
+			}
+			int exactSlots = Objects.isNull(exacts) ? 0 : (int) Arrays.stream(exacts).filter(Objects::nonNull).count();
+			output.writeInt(exactSlots);
+			for (int slot = 0; exactSlots > 0 && slot < exacts.length; slot++) {
+				if (!Objects.isNull(exacts[slot])) {
+					output.writeInt(slot);
+					StatisticsSnapshot.writeStatistic(output, exacts[slot]);
+				}
+			}
+		}
+
+		private static KeyWindow read(ByteBuffer buffer, int slots) {
+			KeyWindow window = new KeyWindow(slots);
+			window.amountScale = buffer.getInt();
+			buffer.asLongBuffer().get(window.fields);
+			buffer.position(buffer.position() + window.fields.length * Long.BYTES);
+			for (int exactSlots = buffer.getInt(); exactSlots > 0; exactSlots--) {
+				if (Objects.isNull(window.exacts)) {
+					window.exacts = new Statistic[slots];
+				}
+				int slot = buffer.getInt();
+				window.exacts[slot] = StatisticsSnapshot.readStatistic(buffer);
+			}
+			return window;
+		}
+
+		private boolean isAlive(long currentEpoch) {
+			int slots = fields.length / FIELDS;
+			for (int slot = 0; slot < slots; slot++) {
+				long epoch = fields[slot * FIELDS + EPOCH];
+				if (epoch != EMPTY_SLOT && currentEpoch - epoch < slots) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private synchronized Statistic statistic(long currentEpoch, int scale) {
+			int slots = fields.length / FIELDS;
+			Statistic statistic = new Statistic();
+			long count = 0L;
+			BigDecimal sum = BigDecimal.ZERO;
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (int slot = 0; slot < slots; slot++) {
+				int base = slot * FIELDS;
+				long epoch = fields[base + EPOCH];
+				if (epoch == EMPTY_SLOT || currentEpoch - epoch >= slots) {
+					continue;
+				}
+				if (!Objects.isNull(exacts) && !Objects.isNull(exacts[slot])) {
+					statistic.merge(exacts[slot]);
+				}
+				if (fields[base + COUNT] > 0) {
+					count += fields[base + COUNT];
+					sum = sum.add(BigDecimal.valueOf(fields[base + SUM], scale));
+					min = Math.min(min, fields[base + MIN]);
+					max = Math.max(max, fields[base + MAX]);
+				}
+			}
+			if (count > 0) {
+				statistic.merge(new Statistic(null, sum.setScale(amountScale), null, FixedPoint.toAmount(max, scale, amountScale),
+						FixedPoint.toAmount(min, scale, amountScale), count));
+			}
+			return statistic;
+		}
+	}
+}
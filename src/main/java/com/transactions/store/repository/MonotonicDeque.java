@@ -0,0 +1,145 @@
+package com.transactions.store.repository;
+
+/**
+ * Sliding window extreme (lowest or highest value) over time buckets.
+ *
+ * Entries are kept ordered by epoch with monotonic values: a bucket value is dropped as soon as a
+ * bucket of the same or a newer epoch holds a value at least as good, because it can never be the
+ * extreme of the window again. The head is therefore the extreme of the window, and sliding the
+ * window only pops expired heads, which gives amortized constant time per bucket.
+ *
+ * Values may arrive for any bucket still inside the window, not only the newest one; they are
+ * inserted at their epoch position, which is next to the tail for almost every transaction.
+ *
+ * @author onoriel
+ *
+ */
+public class MonotonicDeque {
+
+	/**
+	 * Whether the deque tracks the highest value instead of the lowest one
+	 */
+	private final boolean maximum;
+
+	private final long[] epochs;
+	private final long[] values;
+	private int head;
+	private int size;
+
+	/**
+	 * @param buckets number of buckets of the window
+	 * @param maximum true to track the highest value, false for the lowest one
+	 */
+	public MonotonicDeque(int buckets, boolean maximum) {
+		this.maximum = maximum;
+		this.epochs = new long[buckets + 1];
+		this.values = new long[buckets + 1];
+	}
+
+	/**
+	 * Register a value for a bucket
+	 * @param epoch bucket epoch
+	 * @param value bucket value
+	 */
+	public synchronized void offer(long epoch, long value) {
+		int position = size;
+		while (position > 0 && epochAt(position - 1) > epoch) {
+			position--;
+		}
+		if (position < size && !isBetter(value, valueAt(position))) {
+			// a newer bucket already holds a value at least as good
+			return;
+		}
+		if (position > 0 && epochAt(position - 1) == epoch && !isBetter(value, valueAt(position - 1))) {
+			return;
+		}
+		int start = position;
+		while (start > 0 && !isBetter(valueAt(start - 1), value)) {
+			start--;
+		}
+		replace(start, position, epoch, value);
+	}
+
+	/**
+	 * Drop the buckets leaving the window
+	 * @param through newest expired epoch
+	 */
+	public synchronized void expireThrough(long through) {
+		while (size > 0 && epochs[head] <= through) {
+			head = index(1);
+			size--;
+		}
+	}
+
+	/**
+	 * Extreme of the window, skipping the buckets already out of it but not expired yet
+	 * @param through newest epoch out of the window
+	 * @param empty value returned when no bucket is inside the window
+	 * @return extreme value of the window
+	 */
+	public synchronized long peek(long through, long empty) {
+		for (int position = 0; position < size; position++) {
+			if (epochAt(position) > through) {
+				return valueAt(position);
+			}
+		}
+		return empty;
+	}
+
+	public synchronized void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Replace the entries in [start, end) with a single entry
+	 */
+	private void replace(int start, int end, long epoch, long value) {
+		int removed = end - start;
+		if (removed == 0) {
+			if (size == epochs.length) {
+				if (start == 0) {
+					// older than every bucket of a full window
+					return;
+				}
+				// every bucket is taken, so the head is older than the whole window
+				head = index(1);
+				size--;
+				start--;
+				end--;
+			}
+			for (int position = size; position > end; position--) {
+				move(position - 1, position);
+			}
+			size++;
+		} else {
+			for (int position = end; position < size; position++) {
+				move(position, position - removed + 1);
+			}
+			size -= removed - 1;
+		}
+		epochs[index(start)] = epoch;
+		values[index(start)] = value;
+	}
+
+	private void move(int from, int to) {
+		epochs[index(to)] = epochs[index(from)];
+		values[index(to)] = values[index(from)];
+	}
+
+	private boolean isBetter(long value, long reference) {
+		return maximum ? value > reference : value < reference;
+	}
+
+	private long epochAt(int position) {
+		return epochs[index(position)];
+	}
+
+	private long valueAt(int position) {
+		return values[index(position)];
+	}
+
+	private int index(int position) {
+		return (head + position) % epochs.length;
+	}
+}
@@ -0,0 +1,431 @@
+package com.transactions.store.repository;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Statistics repository keeping its time slots off heap.
+ *
+ * Every slot is a fixed binary record of {@link #RECORD} bytes in a direct {@link ByteBuffer}, read and
+ * written with absolute offsets:
+ *
+ * <pre>
+ * offset  0  epoch (long)   bucket of the slot, {@link #EMPTY_SLOT} when empty
+ * offset  8  count (long)
+ * offset 16  sum   (long)   fixed point units of 10^-statistic.scale
+ * offset 24  min   (long)   fixed point units
+ * offset 32  max   (long)   fixed point units
+ * offset 40  scale (int)    highest scale of the amounts
+ * offset 44  padding up to 64 bytes
+ * </pre>
+ *
+ * The heap only holds the buffer, one lock word per slot and the rare exact decimal statistics of
+ * amounts not representable as fixed point units, so the number of live objects does not grow with
+ * the window or the traffic: statistics are only materialized when they are read. Percentiles are not
+ * supported by this engine, and its retention is the time to keep alive, so longer windows are refused
+ * before it is queried.
+ *
+ * @author onoriel
+ *
+ */
+@Repository
+@ConditionalOnProperty(name = "statistic.engine", havingValue = "offheap")
+public class OffHeapStatisticsRepository implements StatisticsRepository {
+
+	private static final int EPOCH = 0;
+	private static final int COUNT = 8;
+	private static final int SUM = 16;
+	private static final int MIN = 24;
+	private static final int MAX = 32;
+	private static final int SCALE = 40;
+
+	/**
+	 * Record size, a whole cache line so records of different slots do not share one
+	 */
+	private static final int RECORD = 64;
+
+	/**
+	 * Epoch of a slot without data
+	 */
+	private static final long EMPTY_SLOT = Long.MIN_VALUE;
+
+	/**
+	 * Time to keep alive statistic
+	 */
+	private final long timeToKeepAlive;
+
+	/**
+	 * Time covered by a slot
+	 */
+	private final long resolution;
+
+	/**
+	 * Number of slots of the window
+	 */
+	private final int window;
+
+	/**
+	 * Number of decimals of a fixed point unit
+	 */
+	private final int scale;
+
+	private final ByteBuffer records;
+	private final AtomicIntegerArray busy;
+	private final Statistic[] exacts;
+
+	/**
+	 * Bucket of the last reference time received, used to hide slots expired since then
+	 */
+	private final AtomicLong lastTime = new AtomicLong(EMPTY_SLOT);
+
+	/**
+	 * Records holding a bucket
+	 */
+	private final AtomicInteger held = new AtomicInteger();
+
+	public OffHeapStatisticsRepository(Long timeToKeepAlive) {
+		this(timeToKeepAlive, 1L, 4);
+	}
+
+	/**
+	 * @param timeToKeepAlive time to keep alive statistic (milliseconds when wired by Spring)
+	 * @param resolution time covered by a slot, in the unit of the time to keep alive
+	 * @param scale number of decimals of a fixed point unit
+	 */
+	@Autowired
+	public OffHeapStatisticsRepository(@Value("#{${statistic.time} * 1000}") Long timeToKeepAlive, @Value("${statistic.resolution:1000}") Long resolution,
+			@Value("${statistic.scale:4}") int scale) {
+		if (resolution <= 0 || resolution > timeToKeepAlive) {
+			throw new IllegalArgumentException("resolution must be between 1 and the time to keep alive: " + resolution);
+		}
+		this.timeToKeepAlive = timeToKeepAlive;
+		this.resolution = resolution;
+		this.window = Math.toIntExact((timeToKeepAlive + resolution - 1) / resolution);
+		this.scale = scale;
+		this.records = ByteBuffer.allocateDirect(Math.multiplyExact(window, RECORD)).order(ByteOrder.nativeOrder());
+		this.busy = new AtomicIntegerArray(window);
+		this.exacts = new Statistic[window];
+		for (int slot = 0; slot < window; slot++) {
+			records.putLong(slot * RECORD + EPOCH, EMPTY_SLOT);
+			empty(slot);
+		}
+	}
+
+	@Override
+	public void cleanAllStatistics() {
+		for (int slot = 0; slot < window; slot++) {
+			lock(slot);
+			try {
+				empty(slot);
+			} finally {
+				unlock(slot);
+			}
+		}
+	}
+
+	@Override
+	public Map<Long, Statistic> getStatistics() {
+		Map<Long, Statistic> statistics = new HashMap<>();
+		long referenceTime = lastTime.get();
+		for (int slot = 0; slot < window; slot++) {
+			Fold fold = new Fold();
+			lock(slot);
+			try {
+				long epoch = records.getLong(slot * RECORD + EPOCH);
+				if (!isAlive(epoch, referenceTime, window)) {
+					continue;
+				}
+				fold.add(slot);
+				Statistic statistic = fold.toStatistic();
+				statistic.setTimestamp(epoch * resolution);
+				statistics.put(statistic.getTimestamp(), statistic);
+			} finally {
+				unlock(slot);
+			}
+		}
+		return statistics;
+	}
+
+	@Override
+	public Statistic getWindowStatistic(Long currentTime) {
+		return getWindowStatistic(currentTime, timeToKeepAlive);
+	}
+
+	@Override
+	public Statistic getWindowStatistic(Long currentTime, Long window) {
+		if (window > timeToKeepAlive) {
+			throw new IllegalArgumentException("the off heap engine only keeps statistics for the time to keep alive: " + window);
+		}
+		long bucket = updateLastTime(currentTime);
+		long buckets = (window + resolution - 1) / resolution;
+		Fold fold = new Fold();
+		for (int slot = 0; slot < this.window; slot++) {
+			lock(slot);
+			try {
+				if (isAlive(records.getLong(slot * RECORD + EPOCH), bucket, buckets)) {
+					fold.add(slot);
+				}
+			} finally {
+				unlock(slot);
+			}
+		}
+		Statistic statistic = fold.toStatistic();
+		statistic.setTimestamp(currentTime);
+		return statistic;
+	}
+
+	/**
+	 * @return the time to keep alive, no record is kept longer
+	 */
+	@Override
+	public Long getRetention() {
+		return timeToKeepAlive;
+	}
+
+	@Override
+	public void save(Transaction transaction, Long currentTime) {
+		save(transaction.getTimestamp(), FixedPoint.toUnits(transaction.getAmount(), scale), transaction.getAmount().scale(), transaction, currentTime);
+	}
+
+	@Override
+	public void save(long timestamp, long unscaled, int amountScale, long currentTime) {
+		long units = FixedPoint.toUnits(unscaled, amountScale, scale);
+		if (units == FixedPoint.NOT_REPRESENTABLE) {
+			save(new Transaction(BigDecimal.valueOf(unscaled, amountScale), timestamp, null), currentTime);
+			return;
+		}
+		save(timestamp, units, amountScale, null, currentTime);
+	}
+
+	/**
+	 * Save the units of a transaction
+	 * @param timestamp
+	 * @param units
+	 * @param amountScale
+	 * @param transaction the transaction itself, required when the units are not representable and built otherwise
+	 * only if the sum of its slot overflows
+	 * @param currentTime
+	 */
+	private void save(long timestamp, long units, int amountScale, Transaction transaction, long currentTime) {
+		updateLastTime(currentTime);
+		if (currentTime - timestamp >= timeToKeepAlive) {
+			return;
+		}
+		long bucket = Math.floorDiv(timestamp, resolution);
+		int slot = (int) Math.floorMod(bucket, (long) window);
+		int base = slot * RECORD;
+		lock(slot);
+		try {
+			long epoch = records.getLong(base + EPOCH);
+			if (epoch != bucket) {
+				if (epoch > bucket) {
+					// the slot already belongs to a newer bucket, so this one has left the window
+					return;
+				}
+				empty(slot);
+				occupy(slot, bucket);
+			}
+			long sum = units == FixedPoint.NOT_REPRESENTABLE ? units : FixedPoint.add(records.getLong(base + SUM), units);
+			if (sum == FixedPoint.NOT_REPRESENTABLE) {
+				Transaction exact = Objects.isNull(transaction) ? new Transaction(FixedPoint.toAmount(units, scale, amountScale), timestamp, null) : transaction;
+				exacts[slot] = updateStatistic(exact, Objects.isNull(exacts[slot]) ? new Statistic() : exacts[slot]);
+				return;
+			}
+			long count = records.getLong(base + COUNT) + 1;
+			records.putLong(base + COUNT, count);
+			records.putLong(base + SUM, sum);
+			if (count == 1 || units < records.getLong(base + MIN)) {
+				records.putLong(base + MIN, units);
+			}
+			if (count == 1 || units > records.getLong(base + MAX)) {
+				records.putLong(base + MAX, units);
+			}
+			if (count == 1 || amountScale > records.getInt(base + SCALE)) {
+				records.putInt(base + SCALE, amountScale);
+			}
+		} finally {
+			unlock(slot);
+		}
+	}
+
+	@Override
+	public void saveBucket(Statistic statistic, Long currentTime) {
+		updateLastTime(currentTime);
+		if (statistic.getCount() == 0 || currentTime - statistic.getTimestamp() >= timeToKeepAlive) {
+			return;
+		}
+		long bucket = Math.floorDiv(statistic.getTimestamp(), resolution);
+		long sum = FixedPoint.toUnits(statistic.getSum(), scale);
+		long min = FixedPoint.toUnits(statistic.getMin(), scale);
+		long max = FixedPoint.toUnits(statistic.getMax(), scale);
+		int amountScale = Math.max(statistic.getSum().scale(), Math.max(statistic.getMin().scale(), statistic.getMax().scale()));
+		int slot = (int) Math.floorMod(bucket, (long) window);
+		int base = slot * RECORD;
+		lock(slot);
+		try {
+			long epoch = records.getLong(base + EPOCH);
+			if (epoch != bucket) {
+				if (epoch > bucket) {
+					return;
+				}
+				empty(slot);
+				occupy(slot, bucket);
+			}
+			long folded = sum == FixedPoint.NOT_REPRESENTABLE ? sum : FixedPoint.add(records.getLong(base + SUM), sum);
+			if (folded == FixedPoint.NOT_REPRESENTABLE || min == FixedPoint.NOT_REPRESENTABLE || max == FixedPoint.NOT_REPRESENTABLE) {
+				Statistic exact = new Statistic(statistic.getTimestamp(), statistic.getSum(), null, statistic.getMax(), statistic.getMin(), statistic.getCount());
+				exacts[slot] = Objects.isNull(exacts[slot]) ? exact : exacts[slot].merge(exact);
+				return;
+			}
+			long count = records.getLong(base + COUNT);
+			records.putLong(base + COUNT, count + statistic.getCount());
+			records.putLong(base + SUM, folded);
+			if (count == 0 || min < records.getLong(base + MIN)) {
+				records.putLong(base + MIN, min);
+			}
+			if (count == 0 || max > records.getLong(base + MAX)) {
+				records.putLong(base + MAX, max);
+			}
+			if (count == 0 || amountScale > records.getInt(base + SCALE)) {
+				records.putInt(base + SCALE, amountScale);
+			}
+		} finally {
+			unlock(slot);
+		}
+	}
+
+	@Override
+	public int cleanOldStatistics(Long currentTime) {
+		long bucket = updateLastTime(currentTime);
+		int evicted = 0;
+		for (int slot = 0; slot < window; slot++) {
+			lock(slot);
+			try {
+				long epoch = records.getLong(slot * RECORD + EPOCH);
+				if (epoch != EMPTY_SLOT && !isAlive(epoch, bucket, window)) {
+					empty(slot);
+					evicted++;
+				}
+			} finally {
+				unlock(slot);
+			}
+		}
+		return evicted;
+	}
+
+	@Override
+	public int size() {
+		return held.get();
+	}
+
+	/**
+	 * Move an empty locked record to a bucket
+	 * @param slot
+	 * @param bucket
+	 */
+	private void occupy(int slot, long bucket) {
+		records.putLong(slot * RECORD + EPOCH, bucket);
+		held.incrementAndGet();
+	}
+
+	private void empty(int slot) {
+		int base = slot * RECORD;
+		if (records.getLong(base + EPOCH) != EMPTY_SLOT) {
+			held.decrementAndGet();
+		}
+		records.putLong(base + EPOCH, EMPTY_SLOT);
+		records.putLong(base + COUNT, 0L);
+		records.putLong(base + SUM, 0L);
+		records.putLong(base + MIN, 0L);
+		records.putLong(base + MAX, 0L);
+		records.putInt(base + SCALE, 0);
+		exacts[slot] = null;
+	}
+
+	private void lock(int slot) {
+		while (!busy.compareAndSet(slot, 0, 1)) {
+			Thread.yield();
+		}
+	}
+
+	private void unlock(int slot) {
+		busy.set(slot, 0);
+	}
+
+	private boolean isAlive(long epoch, long referenceTime, long buckets) {
+		return epoch != EMPTY_SLOT && (referenceTime == EMPTY_SLOT || referenceTime - epoch < buckets);
+	}
+
+	/**
+	 * Move the last reference time forward
+	 * @param currentTime
+	 * @return bucket of the current time
+	 */
+	private long updateLastTime(long currentTime) {
+		long bucket = Math.floorDiv(currentTime, resolution);
+		if (bucket > lastTime.get()) {
+			lastTime.accumulateAndGet(bucket, Math::max);
+		}
+		return bucket;
+	}
+
+	/**
+	 * Aggregate of locked slot records, kept in primitives until it is turned into a statistic
+	 */
+	private final class Fold {
+		private long count;
+		private long sum;
+		private long min = Long.MAX_VALUE;
+		private long max = Long.MIN_VALUE;
+		private int amountScale;
+		private BigDecimal overflow = BigDecimal.ZERO;
+		private final Statistic exact = new Statistic();
+
+		private void add(int slot) {
+			int base = slot * RECORD;
+			if (!Objects.isNull(exacts[slot])) {
+				exact.merge(exacts[slot]);
+			}
+			long slotCount = records.getLong(base + COUNT);
+			if (slotCount == 0) {
+				return;
+			}
+			long slotSum = records.getLong(base + SUM);
+			long folded = FixedPoint.add(sum, slotSum);
+			if (folded == FixedPoint.NOT_REPRESENTABLE) {
+				overflow = overflow.add(BigDecimal.valueOf(slotSum, scale));
+			} else {
+				sum = folded;
+			}
+			count += slotCount;
+			min = Math.min(min, records.getLong(base + MIN));
+			max = Math.max(max, records.getLong(base + MAX));
+			amountScale = Math.max(amountScale, records.getInt(base + SCALE));
+		}
+
+		private Statistic toStatistic() {
+			Statistic statistic = new Statistic();
+			statistic.merge(exact);
+			if (count > 0) {
+				statistic.merge(new Statistic(null, BigDecimal.valueOf(sum, scale).add(overflow).setScale(amountScale), null,
+						FixedPoint.toAmount(max, scale, amountScale), FixedPoint.toAmount(min, scale, amountScale), count));
+			}
+			return statistic;
+		}
+	}
+}
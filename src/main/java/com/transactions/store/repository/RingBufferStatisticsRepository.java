@@ -0,0 +1,1030 @@
+package com.transactions.store.repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.transactions.store.model.QuantileSketch;
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Statistics repository backed by a preallocated ring of time slots.
+ *
+ * Timestamps are bucketed by <code>resolution</code> (same unit as the timestamps, milliseconds when
+ * wired by Spring): each slot holds one bucket, so the ring has <code>timeToKeepAlive / resolution</code>
+ * slots and the window edge is accurate to one bucket.
+ *
+ * Every slot is split in striped cells, in the same way as {@link java.util.concurrent.atomic.LongAdder}:
+ * a writer accumulates into the cell picked by its thread probe, and cells are only folded together
+ * when statistics are read. Cell aggregates are kept in parallel arrays (epoch, count, sum, min, max)
+ * laid out stripe by stripe, so cells of the same second never share a cache line, and a cell whose
+ * epoch has left the window is recycled in place.
+ *
+ * With the <code>fixed</code> arithmetic (default) amounts are converted once to long units of
+ * <code>10^-statistic.scale</code> and every cell aggregate is kept in primitives. Amounts with more
+ * decimals than the scale, or sums that would overflow, fall back to an exact {@link BigDecimal}
+ * statistic for that cell; the <code>decimal</code> arithmetic always uses it. When percentiles are
+ * tracked every cell also holds a {@link QuantileSketch}, and so does every stripe for its cells inside the
+ * window, so the sketch of the window is merged from one sketch per stripe.
+ *
+ * Count and sum of the whole window are maintained incrementally: every save adds to them and every
+ * cell subtracts its contribution when it is evicted, so the window statistic is read without walking
+ * the slots. Eviction runs outside of the request path (see <code>cleanOldStatistics</code>); readers
+ * only discount the few buckets that left the window since the last eviction. Lowest and highest
+ * amounts, which can not be subtracted, are tracked per bucket in
+ * {@link MonotonicDeque}s that slide with the window.
+ *
+ * Windows longer than the time to keep alive, up to <code>retention</code>, are served by a hierarchy of
+ * coarser rings: when a bucket is evicted its aggregate rolls up into the next level, whose buckets span
+ * the whole window of the level below (seconds into minutes, minutes into hours). Every transaction is
+ * ingested once and lives in exactly one level, and memory grows with the number of levels, that is
+ * logarithmically with the retention. The edge of a long window is accurate to one bucket of the
+ * coarsest level it reaches.
+ *
+ * @author onoriel
+ *
+ */
+@Repository
+@ConditionalOnProperty(name = "statistic.engine", havingValue = "ring", matchIfMissing = true)
+public class RingBufferStatisticsRepository implements StatisticsRepository {
+
+	/**
+	 * Epoch of a cell without data
+	 */
+	private static final long EMPTY_SLOT = Long.MIN_VALUE;
+
+	/**
+	 * Magnitude under which the wrapping long sum of the window is known to be exact
+	 */
+	private static final double EXACT_SUM_LIMIT = 0x1p62;
+
+	/**
+	 * Thread probe used to pick a stripe, moved to another stripe on contention
+	 */
+	private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> new int[] { ThreadLocalRandom.current().nextInt() | 1 });
+
+	/**
+	 * Highest number of cells of a ring whose stripes are sized automatically
+	 */
+	private static final int MAX_AUTO_CELLS = 1 << 20;
+
+	/**
+	 * Number of slots of a rollup level, each of them spanning the whole window of the level below
+	 */
+	private static final int ROLLUP_SLOTS = 60;
+
+	/**
+	 * Optimistic attempts of a window read before it blocks the write sections out
+	 */
+	private static final int OPTIMISTIC_READS = 64;
+
+	/**
+	 * Time to keep alive statistic
+	 */
+	private final long timeToKeepAlive;
+
+	/**
+	 * Time covered by a slot
+	 */
+	private final long resolution;
+
+	/**
+	 * Longest window served, through the rollup levels
+	 */
+	private final long retention;
+
+	/**
+	 * Number of slots of the window
+	 */
+	private final int window;
+
+	/**
+	 * Number of cells per slot (power of two)
+	 */
+	private final int stripes;
+
+	/**
+	 * Whether amounts are accumulated as fixed point units
+	 */
+	private final boolean fixedPoint;
+
+	/**
+	 * Number of decimals of a fixed point unit
+	 */
+	private final int scale;
+
+	/**
+	 * Fixed point units of an amount of one
+	 */
+	private final double unitsPerAmount;
+
+	/**
+	 * Whether cells hold a quantile sketch of their amounts
+	 */
+	private final boolean percentiles;
+
+	private final long[] epochs;
+	private final long[] counts;
+	private final long[] sums;
+	private final long[] mins;
+	private final long[] maxs;
+	private final int[] scales;
+	private final Statistic[] exacts;
+	private final QuantileSketch[] sketches;
+	private final AtomicIntegerArray busy;
+
+	/**
+	 * Cells of every slot holding a bucket, and slots with any of them
+	 */
+	private final AtomicIntegerArray slotCells;
+	private final AtomicInteger heldSlots = new AtomicInteger();
+
+	/**
+	 * Running aggregate of the cells inside the window
+	 */
+	private final LongAdder windowCount = new LongAdder();
+	private final LongAdder windowSum = new LongAdder();
+	private final DoubleAdder windowSumEstimate = new DoubleAdder();
+	private final AtomicInteger windowScale = new AtomicInteger();
+	private final Statistic windowExact = new Statistic();
+	private final MonotonicDeque windowMins;
+	private final MonotonicDeque windowMaxs;
+
+	/**
+	 * Running quantile sketch of the cells of every stripe inside the window, each one guarded by its own monitor
+	 */
+	private final QuantileSketch[] windowSketches;
+
+	/**
+	 * Newest bucket already subtracted from the window aggregate
+	 */
+	private volatile long expiredThrough = EMPTY_SLOT;
+
+	private final Object expiryLock = new Object();
+
+	/**
+	 * Moved when a write section starts and when it ends, so readers can detect one ran meanwhile and retry.
+	 * Shared by every level
+	 */
+	private final AtomicLong expiryVersion;
+
+	/**
+	 * Write sections running: evictions, and cells recycled by the writers. Shared by every level
+	 */
+	private final AtomicInteger expiring;
+
+	/**
+	 * Set while a read holding the eviction lock waits for the write sections, the writers hold their
+	 * recycles back meanwhile. Only the top level is read, rollups are recycled inside the sections of the level below
+	 */
+	private volatile boolean readBlocking;
+
+	/**
+	 * Bucket of the last reference time received, used to hide slots expired since then
+	 */
+	private final AtomicLong lastTime = new AtomicLong(EMPTY_SLOT);
+
+	/**
+	 * Coarser level the evicted buckets roll up into, null for the top level
+	 */
+	private final RingBufferStatisticsRepository rollup;
+
+	public RingBufferStatisticsRepository(Long timeToKeepAlive) {
+		this(timeToKeepAlive, 0);
+	}
+
+	public RingBufferStatisticsRepository(Long timeToKeepAlive, int stripes) {
+		this(timeToKeepAlive, stripes, "fixed", 4);
+	}
+
+	public RingBufferStatisticsRepository(Long timeToKeepAlive, int stripes, String arithmetic, int scale) {
+		this(timeToKeepAlive, 1L, stripes, arithmetic, scale);
+	}
+
+	public RingBufferStatisticsRepository(Long timeToKeepAlive, Long resolution, int stripes, String arithmetic, int scale) {
+		this(timeToKeepAlive, resolution, timeToKeepAlive, stripes, arithmetic, scale);
+	}
+
+	public RingBufferStatisticsRepository(Long timeToKeepAlive, Long resolution, Long retention, int stripes, String arithmetic, int scale) {
+		this(timeToKeepAlive, resolution, retention, stripes, arithmetic, scale, true);
+	}
+
+	/**
+	 * @param timeToKeepAlive time to keep alive statistic (milliseconds when wired by Spring)
+	 * @param resolution time covered by a slot, in the unit of the time to keep alive
+	 * @param retention longest window served, in the unit of the time to keep alive
+	 * @param stripes cells per slot, 0 sizes them to the available processors
+	 * @param arithmetic fixed or decimal
+	 * @param scale number of decimals of a fixed point unit
+	 * @param percentiles whether cells hold a quantile sketch of their amounts
+	 */
+	@Autowired
+	public RingBufferStatisticsRepository(@Value("#{${statistic.time} * 1000}") Long timeToKeepAlive, @Value("${statistic.resolution:1000}") Long resolution,
+			@Value("#{${statistic.retention:${statistic.time}} * 1000}") Long retention, @Value("${statistic.stripes:0}") int stripes,
+			@Value("${statistic.arithmetic:fixed}") String arithmetic, @Value("${statistic.scale:4}") int scale,
+			@Value("${statistic.percentiles:true}") boolean percentiles) {
+		this(timeToKeepAlive, resolution, retention, stripes, arithmetic, scale, percentiles, new AtomicLong(), new AtomicInteger());
+	}
+
+	/**
+	 * @param expiryVersion version of the write sections, of the top level
+	 * @param expiring write sections running, of the top level
+	 */
+	private RingBufferStatisticsRepository(long timeToKeepAlive, long resolution, long retention, int stripes, String arithmetic, int scale,
+			boolean percentiles, AtomicLong expiryVersion, AtomicInteger expiring) {
+		if (resolution <= 0 || resolution > timeToKeepAlive) {
+			throw new IllegalArgumentException("resolution must be between 1 and the time to keep alive: " + resolution);
+		}
+		if (retention < timeToKeepAlive) {
+			throw new IllegalArgumentException("retention must not be shorter than the time to keep alive: " + retention);
+		}
+		this.timeToKeepAlive = timeToKeepAlive;
+		this.resolution = resolution;
+		this.retention = retention;
+		this.window = Math.toIntExact((timeToKeepAlive + resolution - 1) / resolution);
+		this.stripes = stripes > 0 ? stripesFor(stripes)
+				: Math.min(stripesFor(Runtime.getRuntime().availableProcessors()), Math.max(1, Integer.highestOneBit(MAX_AUTO_CELLS / window)));
+		this.fixedPoint = !"decimal".equalsIgnoreCase(arithmetic);
+		this.scale = scale;
+		this.unitsPerAmount = Math.pow(10, scale);
+		this.percentiles = percentiles;
+		this.expiryVersion = expiryVersion;
+		this.expiring = expiring;
+		int cells = window * this.stripes;
+		this.epochs = new long[cells];
+		this.counts = new long[cells];
+		this.sums = new long[cells];
+		this.mins = new long[cells];
+		this.maxs = new long[cells];
+		this.scales = new int[cells];
+		this.exacts = new Statistic[cells];
+		this.sketches = new QuantileSketch[cells];
+		this.busy = new AtomicIntegerArray(cells);
+		this.slotCells = new AtomicIntegerArray(window);
+		this.windowMins = new MonotonicDeque(window, false);
+		this.windowMaxs = new MonotonicDeque(window, true);
+		this.windowSketches = new QuantileSketch[this.stripes];
+		Arrays.fill(epochs, EMPTY_SLOT);
+		Arrays.setAll(windowSketches, stripe -> new QuantileSketch());
+		// rollups are only written by the eviction, a single stripe is enough
+		this.rollup = retention > timeToKeepAlive
+				? new RingBufferStatisticsRepository(Math.min(retention, timeToKeepAlive * ROLLUP_SLOTS), timeToKeepAlive, retention, 1, arithmetic, scale, percentiles,
+						expiryVersion, expiring)
+				: null;
+	}
+
+	@Override
+	public void cleanAllStatistics() {
+		synchronized (expiryLock) {
+			beginExpiry();
+			for (int cell = 0; cell < epochs.length; cell++) {
+				lock(cell);
+				empty(cell);
+			}
+			windowCount.reset();
+			windowSum.reset();
+			windowSumEstimate.reset();
+			windowScale.set(0);
+			windowMins.clear();
+			windowMaxs.clear();
+			synchronized (windowExact) {
+				windowExact.reset();
+			}
+			// replaced while every cell is locked, so no writer holds the previous ones
+			Arrays.setAll(windowSketches, stripe -> new QuantileSketch());
+			for (int cell = 0; cell < epochs.length; cell++) {
+				unlock(cell);
+			}
+			if (!Objects.isNull(rollup)) {
+				rollup.cleanAllStatistics();
+			}
+			endExpiry();
+		}
+	}
+
+	@Override
+	public Map<Long, Statistic> getStatistics() {
+		Map<Long, Statistic> statistics = new HashMap<>();
+		long referenceTime = lastTime.get();
+		for (int slot = 0; slot < window; slot++) {
+			Statistic statistic = foldSlot(slot, referenceTime, window);
+			if (statistic.getCount() > 0) {
+				statistics.put(statistic.getTimestamp(), statistic);
+			}
+		}
+		return statistics;
+	}
+
+	@Override
+	public List<Statistic> getRolledUpStatistics() {
+		List<Statistic> statistics = new ArrayList<>();
+		for (RingBufferStatisticsRepository level = rollup; !Objects.isNull(level); level = level.rollup) {
+			statistics.addAll(level.getStatistics().values());
+		}
+		return statistics;
+	}
+
+	/**
+	 * Count the slots holding a bucket, so a bucket written by several stripes is counted once
+	 */
+	@Override
+	public int size() {
+		return heldSlots.get();
+	}
+
+	/**
+	 * Read the window aggregate without evicting anything: buckets that left the window but were not
+	 * evicted yet are discounted from the running aggregate
+	 */
+	@Override
+	public Statistic getWindowStatistic(Long currentTime) {
+		return getWindowStatistic(currentTime, timeToKeepAlive);
+	}
+
+	/**
+	 * Read the statistic of the given window from this level and the coarser ones it reaches; evictions
+	 * and recycled cells of every level run in write sections shared with this one, so a read that
+	 * overlaps one is retried and a bucket is never seen in two levels. After {@link #OPTIMISTIC_READS}
+	 * attempts the read takes the eviction lock and holds the recycles back, so writers moving to new
+	 * buckets can not starve it
+	 */
+	@Override
+	public Statistic getWindowStatistic(Long currentTime, Long window) {
+		updateLastTime(currentTime);
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+			long version = expiryVersion.get();
+			if (expiring.get() == 0) {
+				Statistic statistic = levelStatistic(currentTime, window);
+				if (version == expiryVersion.get()) {
+					return statistic;
+				}
+			}
+			Thread.yield();
+		}
+		synchronized (expiryLock) {
+			readBlocking = true;
+			try {
+				while (expiring.get() != 0) {
+					Thread.yield();
+				}
+				return levelStatistic(currentTime, window);
+			} finally {
+				readBlocking = false;
+			}
+		}
+	}
+
+	@Override
+	public Long getRetention() {
+		return retention;
+	}
+
+	@Override
+	public void save(Transaction transaction, Long currentTime) {
+		BigDecimal amount = transaction.getAmount();
+		long units = fixedPoint ? FixedPoint.toUnits(amount, scale) : FixedPoint.NOT_REPRESENTABLE;
+		save(transaction.getTimestamp(), units, amount.scale(), transaction, currentTime);
+	}
+
+	@Override
+	public void save(long timestamp, long unscaled, int amountScale, long currentTime) {
+		long units = fixedPoint ? FixedPoint.toUnits(unscaled, amountScale, scale) : FixedPoint.NOT_REPRESENTABLE;
+		if (units == FixedPoint.NOT_REPRESENTABLE) {
+			save(new Transaction(BigDecimal.valueOf(unscaled, amountScale), timestamp, null), currentTime);
+			return;
+		}
+		save(timestamp, units, amountScale, null, currentTime);
+	}
+
+	/**
+	 * Save the units of a transaction
+	 * @param time transaction time
+	 * @param units
+	 * @param amountScale
+	 * @param transaction the transaction itself, required when the units are not representable and built otherwise
+	 * only if the sum of its bucket overflows
+	 * @param currentTime
+	 */
+	private void save(long time, long units, int amountScale, Transaction transaction, long currentTime) {
+		updateLastTime(currentTime);
+		if (currentTime - time >= timeToKeepAlive) {
+			return;
+		}
+		long timestamp = bucketOf(time);
+		int cell = acquireCell(slotOf(timestamp));
+		try {
+			if (timestamp <= expiredThrough) {
+				return;
+			}
+			if (epochs[cell] != timestamp) {
+				if (epochs[cell] > timestamp) {
+					// the cell already belongs to a newer bucket, so this one has left the window
+					return;
+				}
+				recycle(cell, timestamp);
+			}
+			if (percentiles) {
+				double value = units == FixedPoint.NOT_REPRESENTABLE ? transaction.getAmount().doubleValue() : units / unitsPerAmount;
+				sketchOf(cell).add(value);
+				QuantileSketch windowSketch = windowSketchOf(cell);
+				synchronized (windowSketch) {
+					windowSketch.add(value);
+				}
+			}
+			long sum = units == FixedPoint.NOT_REPRESENTABLE ? units : FixedPoint.add(sums[cell], units);
+			if (sum == FixedPoint.NOT_REPRESENTABLE) {
+				Transaction exact = Objects.isNull(transaction) ? new Transaction(FixedPoint.toAmount(units, scale, amountScale), time, null) : transaction;
+				exacts[cell] = updateStatistic(exact, Objects.isNull(exacts[cell]) ? new Statistic() : exacts[cell]);
+				synchronized (windowExact) {
+					windowExact.setSum(windowExact.getSum().add(exact.getAmount()));
+					windowExact.setCount(windowExact.getCount() + 1);
+				}
+				return;
+			}
+			long count = ++counts[cell];
+			sums[cell] = sum;
+			if (count == 1 || units < mins[cell]) {
+				mins[cell] = units;
+				windowMins.offer(timestamp, units);
+			}
+			if (count == 1 || units > maxs[cell]) {
+				maxs[cell] = units;
+				windowMaxs.offer(timestamp, units);
+			}
+			scales[cell] = count == 1 ? amountScale : Math.max(scales[cell], amountScale);
+			windowCount.increment();
+			windowSum.add(units);
+			windowSumEstimate.add(units);
+			if (amountScale > windowScale.get()) {
+				windowScale.accumulateAndGet(amountScale, Math::max);
+			}
+		} finally {
+			unlock(cell);
+		}
+	}
+
+	@Override
+	public void saveBucket(Statistic statistic, Long currentTime) {
+		updateLastTime(currentTime);
+		if (statistic.getCount() == 0) {
+			return;
+		}
+		if (currentTime - statistic.getTimestamp() >= timeToKeepAlive) {
+			if (!Objects.isNull(rollup)) {
+				// a bucket of a coarser level, such as one read from a snapshot
+				rollup.saveBucket(statistic, currentTime);
+			}
+			return;
+		}
+		QuantileSketch sketch = percentiles ? statistic.getSketch() : null;
+		int amountScale = Math.max(statistic.getSum().scale(), Math.max(statistic.getMin().scale(), statistic.getMax().scale()));
+		long sum = fixedPoint ? FixedPoint.toUnits(statistic.getSum(), scale) : FixedPoint.NOT_REPRESENTABLE;
+		long min = fixedPoint ? FixedPoint.toUnits(statistic.getMin(), scale) : FixedPoint.NOT_REPRESENTABLE;
+		long max = fixedPoint ? FixedPoint.toUnits(statistic.getMax(), scale) : FixedPoint.NOT_REPRESENTABLE;
+		if (sum == FixedPoint.NOT_REPRESENTABLE || min == FixedPoint.NOT_REPRESENTABLE || max == FixedPoint.NOT_REPRESENTABLE) {
+			Statistic exact = new Statistic(statistic.getTimestamp(), statistic.getSum(), null, statistic.getMax(), statistic.getMin(), statistic.getCount());
+			absorb(statistic.getTimestamp(), 0L, 0L, 0L, 0L, 0, exact, sketch);
+		} else {
+			absorb(statistic.getTimestamp(), statistic.getCount(), sum, min, max, amountScale, null, sketch);
+		}
+	}
+
+	/**
+	 * Evict every cell whose bucket is out of the window at the given time, subtracting it from the
+	 * window aggregate. Only the buckets elapsed since the previous eviction are visited.
+	 * A bucket written by several stripes is counted once.
+	 */
+	@Override
+	public int cleanOldStatistics(Long currentTime) {
+		long through = updateLastTime(currentTime) - window;
+		if (through <= expiredThrough) {
+			return 0;
+		}
+		synchronized (expiryLock) {
+			long from = expiredThrough;
+			if (through <= from) {
+				return 0;
+			}
+			Set<Long> evicted = new HashSet<>();
+			beginExpiry();
+			try {
+				// published before visiting the cells, so writers holding them afterwards discard these buckets
+				expiredThrough = through;
+				visitCells(from, through, cell -> expireCell(cell, through, evicted));
+				// every writer of the expired seconds is done, none of them can offer an extreme anymore
+				windowMins.expireThrough(through);
+				windowMaxs.expireThrough(through);
+				if (!Objects.isNull(rollup)) {
+					rollup.cleanOldStatistics(currentTime);
+				}
+			} finally {
+				endExpiry();
+			}
+			return evicted.size();
+		}
+	}
+
+	/**
+	 * Lock a cell of the slot, starting at the stripe of the thread probe and moving the probe
+	 * to another stripe every time the cell is taken by another writer
+	 * @param slot
+	 * @return locked cell
+	 */
+	private int acquireCell(int slot) {
+		int[] probe = PROBE.get();
+		int mask = stripes - 1;
+		for (int attempt = 1;; attempt++) {
+			int cell = (probe[0] & mask) * window + slot;
+			if (busy.compareAndSet(cell, 0, 1)) {
+				return cell;
+			}
+			if (attempt % stripes == 0) {
+				// every stripe was taken, give the writers holding them a chance to finish
+				Thread.yield();
+			}
+			probe[0] ^= probe[0] << 13;
+			probe[0] ^= probe[0] >>> 17;
+			probe[0] ^= probe[0] << 5;
+		}
+	}
+
+	private void lock(int cell) {
+		while (!busy.compareAndSet(cell, 0, 1)) {
+			Thread.yield();
+		}
+	}
+
+	private void unlock(int cell) {
+		busy.set(cell, 0);
+	}
+
+	/**
+	 * Visit the cells that may hold a bucket in (from, through]
+	 * @param from newest bucket already visited
+	 * @param through newest bucket to visit
+	 * @param visitor
+	 */
+	private void visitCells(long from, long through, IntConsumer visitor) {
+		if (from == EMPTY_SLOT || through - from >= window) {
+			for (int cell = 0; cell < epochs.length; cell++) {
+				visitor.accept(cell);
+			}
+			return;
+		}
+		for (long epoch = from + 1; epoch <= through; epoch++) {
+			int slot = slotOf(epoch);
+			for (int stripe = 0; stripe < stripes; stripe++) {
+				visitor.accept(stripe * window + slot);
+			}
+		}
+	}
+
+	private void expireCell(int cell, long through, Set<Long> evicted) {
+		lock(cell);
+		try {
+			if (epochs[cell] != EMPTY_SLOT && epochs[cell] <= through) {
+				evicted.add(epochs[cell]);
+				retire(cell);
+			}
+		} finally {
+			unlock(cell);
+		}
+	}
+
+	/**
+	 * Subtract the contribution of a locked cell from the window aggregate, roll it up into the
+	 * coarser level and empty it, inside a write section
+	 * @param cell
+	 */
+	private void retire(int cell) {
+		windowCount.add(-counts[cell]);
+		windowSum.add(-sums[cell]);
+		windowSumEstimate.add(-sums[cell]);
+		if (!Objects.isNull(exacts[cell])) {
+			synchronized (windowExact) {
+				windowExact.setSum(windowExact.getSum().subtract(exacts[cell].getSum()));
+				windowExact.setCount(windowExact.getCount() - exacts[cell].getCount());
+			}
+		}
+		if (!Objects.isNull(sketches[cell])) {
+			QuantileSketch windowSketch = windowSketchOf(cell);
+			synchronized (windowSketch) {
+				windowSketch.subtract(sketches[cell]);
+			}
+		}
+		if (!Objects.isNull(rollup) && (counts[cell] > 0 || !Objects.isNull(exacts[cell]))) {
+			rollup.absorb(epochs[cell] * resolution, counts[cell], sums[cell], mins[cell], maxs[cell], scales[cell], exacts[cell], sketches[cell]);
+		}
+		empty(cell);
+	}
+
+	private void empty(int cell) {
+		if (epochs[cell] != EMPTY_SLOT && slotCells.decrementAndGet(cell % window) == 0) {
+			heldSlots.decrementAndGet();
+		}
+		epochs[cell] = EMPTY_SLOT;
+		counts[cell] = 0L;
+		sums[cell] = 0L;
+		exacts[cell] = null;
+		sketches[cell] = null;
+	}
+
+	private QuantileSketch sketchOf(int cell) {
+		if (Objects.isNull(sketches[cell])) {
+			sketches[cell] = new QuantileSketch();
+		}
+		return sketches[cell];
+	}
+
+	private QuantileSketch windowSketchOf(int cell) {
+		return windowSketches[cell / window];
+	}
+
+	/**
+	 * Move a locked cell to a new bucket, retiring the bucket it holds in a write section of its own,
+	 * since the writers recycle cells outside of the evictions
+	 * @param cell
+	 * @param timestamp
+	 */
+	private void recycle(int cell, long timestamp) {
+		if (epochs[cell] != EMPTY_SLOT) {
+			beginRecycle();
+			try {
+				retire(cell);
+			} finally {
+				endExpiry();
+			}
+		}
+		epochs[cell] = timestamp;
+		if (slotCells.getAndIncrement(cell % window) == 0) {
+			heldSlots.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Start the write section of a recycle, once no blocking read is waiting for the sections to end
+	 */
+	private void beginRecycle() {
+		for (;;) {
+			expiring.incrementAndGet();
+			if (!readBlocking) {
+				break;
+			}
+			expiring.decrementAndGet();
+			while (readBlocking) {
+				Thread.yield();
+			}
+		}
+		expiryVersion.incrementAndGet();
+	}
+
+	/**
+	 * Start a write section, readers overlapping it retry
+	 */
+	private void beginExpiry() {
+		expiring.incrementAndGet();
+		expiryVersion.incrementAndGet();
+	}
+
+	/**
+	 * End a write section, after every change of it
+	 */
+	private void endExpiry() {
+		expiryVersion.incrementAndGet();
+		expiring.decrementAndGet();
+	}
+
+	/**
+	 * Merge the aggregate of a whole bucket, evicted from the level below or saved at once
+	 * @param timestamp start of the bucket
+	 * @param count
+	 * @param sum fixed point sum
+	 * @param min fixed point lowest amount
+	 * @param max fixed point highest amount
+	 * @param amountScale
+	 * @param exact exact decimal statistic of the bucket, may be null
+	 * @param sketch quantile sketch of the bucket, may be null
+	 */
+	private void absorb(long timestamp, long count, long sum, long min, long max, int amountScale, Statistic exact, QuantileSketch sketch) {
+		long bucket = bucketOf(timestamp);
+		int cell = acquireCell(slotOf(bucket));
+		try {
+			if (bucket <= expiredThrough || epochs[cell] > bucket) {
+				// the bucket has already left this level too
+				if (!Objects.isNull(rollup)) {
+					rollup.absorb(timestamp, count, sum, min, max, amountScale, exact, sketch);
+				}
+				return;
+			}
+			if (epochs[cell] != bucket) {
+				recycle(cell, bucket);
+			}
+			long folded = count > 0 ? FixedPoint.add(sums[cell], sum) : sums[cell];
+			if (folded == FixedPoint.NOT_REPRESENTABLE) {
+				Statistic overflow = new Statistic(timestamp, FixedPoint.toAmount(sum, scale, amountScale), null,
+						FixedPoint.toAmount(max, scale, amountScale), FixedPoint.toAmount(min, scale, amountScale), count);
+				exact = Objects.isNull(exact) ? overflow : exact.merge(overflow);
+			} else if (count > 0) {
+				boolean first = counts[cell] == 0;
+				counts[cell] += count;
+				sums[cell] = folded;
+				if (first || min < mins[cell]) {
+					mins[cell] = min;
+					windowMins.offer(bucket, min);
+				}
+				if (first || max > maxs[cell]) {
+					maxs[cell] = max;
+					windowMaxs.offer(bucket, max);
+				}
+				scales[cell] = first ? amountScale : Math.max(scales[cell], amountScale);
+				windowCount.add(count);
+				windowSum.add(sum);
+				windowSumEstimate.add(sum);
+				if (amountScale > windowScale.get()) {
+					windowScale.accumulateAndGet(amountScale, Math::max);
+				}
+			}
+			if (!Objects.isNull(sketch)) {
+				sketches[cell] = Objects.isNull(sketches[cell]) ? sketch : sketches[cell].merge(sketch);
+				QuantileSketch windowSketch = windowSketchOf(cell);
+				synchronized (windowSketch) {
+					windowSketch.merge(sketch);
+				}
+			}
+			if (!Objects.isNull(exact)) {
+				exacts[cell] = Objects.isNull(exacts[cell]) ? exact : exacts[cell].merge(exact);
+				synchronized (windowExact) {
+					windowExact.setSum(windowExact.getSum().add(exact.getSum()));
+					windowExact.setCount(windowExact.getCount() + exact.getCount());
+				}
+			}
+		} finally {
+			unlock(cell);
+		}
+	}
+
+	/**
+	 * Fold the cells of a slot still alive at the reference time
+	 * @param slot
+	 * @param referenceTime bucket of the reference time
+	 * @param buckets number of buckets alive
+	 * @return slot statistic, with a zero count when the slot is empty
+	 */
+	private Statistic foldSlot(int slot, long referenceTime, long buckets) {
+		Statistic statistic = new Statistic();
+		long count = 0L;
+		long sum = 0L;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		int amountScale = 0;
+		BigDecimal overflow = BigDecimal.ZERO;
+		for (int stripe = 0; stripe < stripes; stripe++) {
+			int cell = stripe * window + slot;
+			lock(cell);
+			try {
+				if (!isAlive(epochs[cell], referenceTime, buckets)) {
+					continue;
+				}
+				statistic.setTimestamp(epochs[cell] * resolution);
+				if (!Objects.isNull(sketches[cell])) {
+					statistic.setSketch(Objects.isNull(statistic.getSketch()) ? sketches[cell].copy() : statistic.getSketch().merge(sketches[cell]));
+				}
+				if (!Objects.isNull(exacts[cell])) {
+					statistic.merge(exacts[cell]);
+				}
+				if (counts[cell] > 0) {
+					long folded = FixedPoint.add(sum, sums[cell]);
+					if (folded == FixedPoint.NOT_REPRESENTABLE) {
+						overflow = overflow.add(BigDecimal.valueOf(sums[cell], scale));
+					} else {
+						sum = folded;
+					}
+					count += counts[cell];
+					min = Math.min(min, mins[cell]);
+					max = Math.max(max, maxs[cell]);
+					amountScale = Math.max(amountScale, scales[cell]);
+				}
+			} finally {
+				unlock(cell);
+			}
+		}
+		if (count > 0) {
+			BigDecimal fixedSum = FixedPoint.toAmount(sum, scale, amountScale).add(overflow);
+			statistic.merge(new Statistic(statistic.getTimestamp(), fixedSum, null, FixedPoint.toAmount(max, scale, amountScale),
+					FixedPoint.toAmount(min, scale, amountScale), count));
+		}
+		return statistic;
+	}
+
+	/**
+	 * Statistic of the given window from this level, and from the coarser ones when the window is
+	 * longer than the time to keep alive
+	 * @param currentTime
+	 * @param window
+	 * @return window statistic
+	 */
+	private Statistic levelStatistic(long currentTime, long window) {
+		long bucket = bucketOf(currentTime);
+		if (window > timeToKeepAlive && !Objects.isNull(rollup)) {
+			// the whole level is inside the window, including the buckets still waiting to roll up
+			return runningStatistic(currentTime, EMPTY_SLOT).merge(rollup.levelStatistic(currentTime, window));
+		}
+		if (window >= timeToKeepAlive) {
+			return runningStatistic(currentTime, bucket - this.window);
+		}
+		long buckets = (window + resolution - 1) / resolution;
+		Statistic statistic = new Statistic();
+		for (long epoch = bucket - buckets + 1; epoch <= bucket; epoch++) {
+			statistic.merge(foldSlot(slotOf(epoch), bucket, buckets));
+		}
+		statistic.setTimestamp(currentTime);
+		return statistic;
+	}
+
+	/**
+	 * Window aggregate at the given time, computed from the running aggregate
+	 * @param currentTime
+	 * @param through newest bucket out of the window, {@link #EMPTY_SLOT} to keep every bucket not evicted yet
+	 * @return window statistic
+	 */
+	private Statistic runningStatistic(long currentTime, long through) {
+		long count = windowCount.sum();
+		long sum = windowSum.sum();
+		double sumEstimate = windowSumEstimate.sum();
+		long exactCount;
+		BigDecimal exactSum;
+		synchronized (windowExact) {
+			exactCount = windowExact.getCount();
+			exactSum = windowExact.getSum();
+		}
+		QuantileSketch sketch = percentiles ? windowSketch() : null;
+		long from = expiredThrough;
+		if (through > from) {
+			// buckets that left the window since the last eviction
+			Contribution pending = new Contribution();
+			visitCells(from, through, cell -> pending.add(cell, through));
+			count -= pending.count;
+			sum -= pending.sum;
+			sumEstimate -= pending.sum;
+			exactCount -= pending.exactCount;
+			exactSum = exactSum.subtract(pending.exactSum);
+			if (percentiles) {
+				sketch.subtract(pending.sketch);
+			}
+		}
+		BigDecimal total = Math.abs(sumEstimate) < EXACT_SUM_LIMIT ? FixedPoint.toAmount(sum, scale, windowScale.get()) : foldWindowSum(through);
+		total = total.add(exactSum);
+		count += exactCount;
+		Statistic extremes = windowExtremes(exactCount > 0, through);
+		BigDecimal avg = count > 0 ? total.divide(new BigDecimal(count), 2, RoundingMode.HALF_UP) : BigDecimal.ZERO;
+		Statistic statistic = new Statistic(currentTime, total, avg, extremes.getMax(), extremes.getMin(), count);
+		statistic.setSketch(sketch);
+		return statistic;
+	}
+
+	/**
+	 * Quantile sketch of the cells not evicted yet, merged from the running sketch of every stripe
+	 * @return sketch
+	 */
+	private QuantileSketch windowSketch() {
+		QuantileSketch sketch = new QuantileSketch();
+		for (QuantileSketch windowSketch : windowSketches) {
+			synchronized (windowSketch) {
+				sketch.merge(windowSketch);
+			}
+		}
+		return sketch;
+	}
+
+	/**
+	 * Exact sum of the fixed point part of the window, used when the running long sum may have overflowed
+	 * @param through newest bucket out of the window
+	 * @return sum
+	 */
+	private BigDecimal foldWindowSum(long through) {
+		BigDecimal sum = BigDecimal.ZERO;
+		for (int cell = 0; cell < epochs.length; cell++) {
+			lock(cell);
+			try {
+				if (epochs[cell] != EMPTY_SLOT && epochs[cell] > through && counts[cell] > 0) {
+					sum = sum.add(BigDecimal.valueOf(sums[cell], scale));
+				}
+			} finally {
+				unlock(cell);
+			}
+		}
+		return sum.setScale(windowScale.get());
+	}
+
+	/**
+	 * Highest and lowest amounts of the window
+	 * @param withExacts whether exact decimal cells are alive, which are not tracked by the deques
+	 * @param through newest bucket out of the window
+	 * @return statistic holding only max and min
+	 */
+	private Statistic windowExtremes(boolean withExacts, long through) {
+		Statistic extremes = new Statistic();
+		if (withExacts) {
+			for (int cell = 0; cell < epochs.length; cell++) {
+				lock(cell);
+				try {
+					if (epochs[cell] != EMPTY_SLOT && epochs[cell] > through && !Objects.isNull(exacts[cell])) {
+						extremes.merge(exacts[cell]);
+					}
+				} finally {
+					unlock(cell);
+				}
+			}
+		}
+		int amountScale = windowScale.get();
+		long min = windowMins.peek(through, FixedPoint.NOT_REPRESENTABLE);
+		long max = windowMaxs.peek(through, FixedPoint.NOT_REPRESENTABLE);
+		if (min != FixedPoint.NOT_REPRESENTABLE || max != FixedPoint.NOT_REPRESENTABLE) {
+			extremes.merge(new Statistic(null, BigDecimal.ZERO, null,
+					max == FixedPoint.NOT_REPRESENTABLE ? null : FixedPoint.toAmount(max, scale, amountScale),
+					min == FixedPoint.NOT_REPRESENTABLE ? null : FixedPoint.toAmount(min, scale, amountScale), 0L));
+		}
+		return extremes;
+	}
+
+	private boolean isAlive(long epoch, long referenceTime, long buckets) {
+		return epoch != EMPTY_SLOT && (referenceTime == EMPTY_SLOT || referenceTime - epoch < buckets);
+	}
+
+	private int slotOf(long bucket) {
+		return (int) Math.floorMod(bucket, (long) window);
+	}
+
+	private long bucketOf(long timestamp) {
+		return Math.floorDiv(timestamp, resolution);
+	}
+
+	/**
+	 * Move the last reference time forward
+	 * @param currentTime
+	 * @return bucket of the current time
+	 */
+	private long updateLastTime(long currentTime) {
+		long bucket = bucketOf(currentTime);
+		if (bucket > lastTime.get()) {
+			lastTime.accumulateAndGet(bucket, Math::max);
+		}
+		return bucket;
+	}
+
+	/**
+	 * Contribution of a set of cells to the window aggregate
+	 */
+	private final class Contribution {
+		private long count;
+		private long sum;
+		private long exactCount;
+		private BigDecimal exactSum = BigDecimal.ZERO;
+		private final QuantileSketch sketch = new QuantileSketch();
+
+		private void add(int cell, long through) {
+			lock(cell);
+			try {
+				if (epochs[cell] == EMPTY_SLOT || epochs[cell] > through) {
+					return;
+				}
+				count += counts[cell];
+				sum += sums[cell];
+				if (!Objects.isNull(exacts[cell])) {
+					exactCount += exacts[cell].getCount();
+					exactSum = exactSum.add(exacts[cell].getSum());
+				}
+				if (!Objects.isNull(sketches[cell])) {
+					sketch.merge(sketches[cell]);
+				}
+			} finally {
+				unlock(cell);
+			}
+		}
+	}
+
+	private static int stripesFor(int parallelism) {
+		int stripes = Integer.highestOneBit(Math.max(1, parallelism));
+		return stripes < parallelism ? stripes << 1 : stripes;
+	}
+}
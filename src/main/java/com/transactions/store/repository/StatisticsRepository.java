@@ -1,48 +1,127 @@
-package com.transactions.store.repository;
-
-import java.util.Map;
-
-import com.transactions.store.model.Statistic;
-import com.transactions.store.model.Transaction;
-
-/**
- * Statistic repository interface
- * @author onoriel
- *
- */
-public interface StatisticsRepository {
-	
-	/**
-	 * Statistic repository initialization
-	 */
-	void cleanAllStatistics();
-	
-	/**
-	 * Get statistics
-	 * @return statistics collection
-	 */
-	Map<Long, Statistic> getStatistics();
-	
-	/**
-	 * Save transaction
-	 * @param transaction
-	 * @param newLastTransactionTime
-	 */
-	void save(Transaction transaction, Long newLastTransactionTime);
-		
-	/**
-	 * clean statistics repository from old statistics
-	 * 
-	 * @param reference time 
-	 */
-	void cleanOldStatistics(Long newLastTransactionTime);
-	
-	/**
-	 * Merge statistic with a new transaction
-	 * @param transaction
-	 * @param statistic
-	 * 
-	 */
-	Statistic updateStatistic(Transaction transaction, Statistic statistic);
-
-}
+package com.transactions.store.repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Statistic repository interface
+ * @author onoriel
+ *
+ */
+public interface StatisticsRepository {
+	
+	/**
+	 * Statistic repository initialization
+	 */
+	void cleanAllStatistics();
+	
+	/**
+	 * Get statistics, without the ones expired at the last reference time but not cleaned yet
+	 * @return statistics collection
+	 */
+	Map<Long, Statistic> getStatistics();
+	
+	/**
+	 * Get the number of buckets held, the ones expired but not cleaned yet included, meant to be read
+	 * often, such as by the metrics
+	 * @return number of buckets held
+	 */
+	default int size() {
+		return getStatistics().size();
+	}
+	
+	/**
+	 * Get the buckets kept to serve windows longer than the time to keep alive, the ones of
+	 * {@link #getStatistics()} excluded
+	 * @return rolled up statistics, whose timestamp is the start of their bucket
+	 */
+	default List<Statistic> getRolledUpStatistics() {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Get the statistic of the whole window, ignoring statistics expired but not cleaned yet
+	 * @param currentTime reference time
+	 * @return statistic aggregating every alive statistic
+	 */
+	default Statistic getWindowStatistic(Long currentTime) {
+		return getStatistics().values().stream().reduce(new Statistic(), Statistic::merge);
+	}
+	
+	/**
+	 * Get the statistic of the given time before the reference time
+	 * @param currentTime reference time
+	 * @param window time to aggregate, in the unit of the reference time
+	 * @return statistic aggregating every statistic inside the window
+	 */
+	default Statistic getWindowStatistic(Long currentTime, Long window) {
+		return getStatistics().entrySet().stream().filter(statistic -> currentTime - statistic.getKey() < window)
+				.map(Map.Entry::getValue).reduce(new Statistic(), Statistic::merge);
+	}
+	
+	/**
+	 * Get the longest window served by {@link #getWindowStatistic(Long, Long)}
+	 * @return longest window, in the unit of the reference time
+	 */
+	Long getRetention();
+	
+	/**
+	 * Save transaction
+	 * @param transaction
+	 * @param newLastTransactionTime
+	 */
+	void save(Transaction transaction, Long newLastTransactionTime);
+	
+	/**
+	 * Save a transaction without a key given as primitives, such as one decoded from the binary format,
+	 * so the engines working on fixed point units do not need a {@link Transaction} for it
+	 * @param timestamp transaction time
+	 * @param unscaled amount, as <code>unscaled * 10^-amountScale</code>
+	 * @param amountScale
+	 * @param currentTime reference time
+	 */
+	default void save(long timestamp, long unscaled, int amountScale, long currentTime) {
+		save(new Transaction(BigDecimal.valueOf(unscaled, amountScale), timestamp, null), currentTime);
+	}
+		
+	/**
+	 * Merge the statistic of a whole bucket, such as one read from a snapshot or aggregated from a batch, unless it has expired.
+	 * A bucket older than the time to keep alive is merged into the rolled up ones, when they are kept
+	 * @param statistic bucket statistic, whose timestamp is the start of the bucket
+	 * @param currentTime reference time
+	 */
+	void saveBucket(Statistic statistic, Long currentTime);
+	
+	/**
+	 * clean statistics repository from old statistics
+	 * 
+	 * @param reference time 
+	 * @return number of buckets evicted
+	 */
+	int cleanOldStatistics(Long newLastTransactionTime);
+	
+	/**
+	 * Merge statistic with a new transaction
+	 * @param transaction
+	 * @param statistic
+	 * 
+	 */
+	default Statistic updateStatistic(Transaction transaction, Statistic statistic) {
+		statistic.setTimestamp(transaction.getTimestamp());
+		statistic.setSum(statistic.getSum().add(transaction.getAmount()));
+		statistic.setMax( !Objects.isNull(statistic.getMax()) ?  statistic.getMax().max(transaction.getAmount()) : transaction.getAmount());
+		statistic.setMin( !Objects.isNull(statistic.getMin()) ?  statistic.getMin().min(transaction.getAmount()) : transaction.getAmount());
+		statistic.setCount(statistic.getCount() + 1);
+		statistic.setAvg(statistic.getSum().divide(new BigDecimal(statistic.getCount()),  2, RoundingMode.HALF_UP));
+		
+		return statistic;
+	}
+
+}
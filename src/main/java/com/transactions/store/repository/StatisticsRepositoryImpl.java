@@ -1,68 +1,174 @@
-package com.transactions.store.repository;
-
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Repository;
-
-import com.transactions.store.model.Statistic;
-import com.transactions.store.model.Transaction;
-
-/**
- * Statistics repository implementation
- * @author onoriel
- *
- */
-@Repository
-public class StatisticsRepositoryImpl implements StatisticsRepository{
-	
-	protected Map<Long, Statistic> statistics = new ConcurrentHashMap<>();
-	
-	
-	/**
-	 * Time to keep alive statistic
-	 */
-	private Long timeToKeepAlive;
-	
-	public StatisticsRepositoryImpl(@Value("${statistic.time}") Long timeToKeepAlive) {
-		this.timeToKeepAlive = timeToKeepAlive;
-	}
-	
-	@Override
-	public void cleanAllStatistics() {
-		statistics.clear();
-	}
-	
-	@Override
-	public Map<Long, Statistic>  getStatistics() {
-		return statistics;
-	}
-
-	@Override
-	public void save(Transaction transaction, Long currentTime) {
-		cleanOldStatistics(currentTime);
-		statistics.merge(transaction.getTimestamp(), updateStatistic(transaction, new Statistic()), (statiscticA,statiscticB) -> updateStatistic(transaction, statiscticA));
-	}
-
-	@Override
-	public void cleanOldStatistics(Long currentTime) {
-		statistics.keySet().removeIf(statisticKey ->  currentTime - statisticKey >=	 timeToKeepAlive);
-	}
-
-	@Override
-	public Statistic updateStatistic(Transaction transaction, Statistic statistic) {
-		statistic.setTimestamp(transaction.getTimestamp());
-		statistic.setSum(statistic.getSum().add(transaction.getAmount()));
-		statistic.setMax( !Objects.isNull(statistic.getMax()) ?  statistic.getMax().max(transaction.getAmount()) : transaction.getAmount());
-		statistic.setMin( !Objects.isNull(statistic.getMin()) ?  statistic.getMin().min(transaction.getAmount()) : transaction.getAmount());
-		statistic.setCount(statistic.getCount() + 1);
-		statistic.setAvg(statistic.getSum().divide(new BigDecimal(statistic.getCount()),  2, RoundingMode.HALF_UP));
-		
-		return statistic;
-	}
-	
-}
+package com.transactions.store.repository;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.transactions.store.model.QuantileSketch;
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Statistics repository implementation
+ * @author onoriel
+ *
+ */
+@Repository
+@ConditionalOnProperty(name = "statistic.engine", havingValue = "map")
+public class StatisticsRepositoryImpl implements StatisticsRepository{
+	
+	protected Map<Long, Statistic> statistics = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * Time to keep alive statistic
+	 */
+	private Long timeToKeepAlive;
+	
+	/**
+	 * Time covered by a statistic
+	 */
+	private Long resolution;
+	
+	/**
+	 * Whether statistics hold a quantile sketch of their amounts
+	 */
+	private boolean percentiles;
+	
+	/**
+	 * Last reference time received, used to hide statistics expired but not evicted yet
+	 */
+	private final AtomicLong lastTime = new AtomicLong(Long.MIN_VALUE);
+	
+	public StatisticsRepositoryImpl(Long timeToKeepAlive) {
+		this(timeToKeepAlive, 1L);
+	}
+	
+	public StatisticsRepositoryImpl(Long timeToKeepAlive, Long resolution) {
+		this(timeToKeepAlive, resolution, true);
+	}
+	
+	/**
+	 * @param timeToKeepAlive time to keep alive statistic (milliseconds when wired by Spring)
+	 * @param resolution time covered by a statistic, in the unit of the time to keep alive
+	 * @param percentiles whether statistics hold a quantile sketch of their amounts
+	 */
+	@Autowired
+	public StatisticsRepositoryImpl(@Value("#{${statistic.time} * 1000}") Long timeToKeepAlive, @Value("${statistic.resolution:1000}") Long resolution,
+			@Value("${statistic.percentiles:true}") boolean percentiles) {
+		if (resolution <= 0 || resolution > timeToKeepAlive) {
+			throw new IllegalArgumentException("resolution must be between 1 and the time to keep alive: " + resolution);
+		}
+		this.timeToKeepAlive = timeToKeepAlive;
+		this.resolution = resolution;
+		this.percentiles = percentiles;
+	}
+	
+	@Override
+	public void cleanAllStatistics() {
+		statistics.clear();
+	}
+	
+	@Override
+	public int size() {
+		return statistics.size();
+	}
+	
+	@Override
+	public Map<Long, Statistic>  getStatistics() {
+		long referenceTime = lastTime.get();
+		return statistics.entrySet().stream().filter(statistic -> isAlive(statistic.getKey(), referenceTime))
+				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+	}
+	
+	@Override
+	public Statistic getWindowStatistic(Long currentTime) {
+		updateLastTime(currentTime);
+		return StatisticsRepository.super.getWindowStatistic(currentTime);
+	}
+	
+	@Override
+	public Statistic getWindowStatistic(Long currentTime, Long window) {
+		if (window > timeToKeepAlive) {
+			throw new IllegalArgumentException("the map engine only keeps statistics for the time to keep alive: " + window);
+		}
+		updateLastTime(currentTime);
+		return StatisticsRepository.super.getWindowStatistic(currentTime, window);
+	}
+	
+	/**
+	 * @return the time to keep alive, no statistic is kept longer
+	 */
+	@Override
+	public Long getRetention() {
+		return timeToKeepAlive;
+	}
+
+	@Override
+	public void save(Transaction transaction, Long currentTime) {
+		updateLastTime(currentTime);
+		long bucket = Math.floorDiv(transaction.getTimestamp(), resolution) * resolution;
+		statistics.merge(bucket, updateBucket(transaction, new Statistic(), bucket), (statiscticA,statiscticB) -> updateBucket(transaction, statiscticA, bucket));
+	}
+
+	@Override
+	public void saveBucket(Statistic statistic, Long currentTime) {
+		updateLastTime(currentTime);
+		if (statistic.getCount() == 0 || currentTime - statistic.getTimestamp() >= timeToKeepAlive) {
+			return;
+		}
+		long bucket = Math.floorDiv(statistic.getTimestamp(), resolution) * resolution;
+		statistic.setTimestamp(bucket);
+		if (!percentiles) {
+			statistic.setSketch(null);
+		}
+		statistics.merge(bucket, statistic, Statistic::merge);
+	}
+
+	@Override
+	public int cleanOldStatistics(Long currentTime) {
+		updateLastTime(currentTime);
+		int evicted = 0;
+		for (Iterator<Long> buckets = statistics.keySet().iterator(); buckets.hasNext();) {
+			if (currentTime - buckets.next() >= timeToKeepAlive) {
+				buckets.remove();
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+	
+	/**
+	 * Merge a transaction into the statistic of its bucket
+	 */
+	private Statistic updateBucket(Transaction transaction, Statistic statistic, long bucket) {
+		updateStatistic(transaction, statistic);
+		statistic.setTimestamp(bucket);
+		if (percentiles) {
+			if (Objects.isNull(statistic.getSketch())) {
+				statistic.setSketch(new QuantileSketch());
+			}
+			statistic.getSketch().add(transaction.getAmount().doubleValue());
+		}
+		return statistic;
+	}
+	
+	private boolean isAlive(Long statisticKey, long referenceTime) {
+		return referenceTime == Long.MIN_VALUE || referenceTime - statisticKey < timeToKeepAlive;
+	}
+	
+	private void updateLastTime(long currentTime) {
+		if (currentTime > lastTime.get()) {
+			lastTime.accumulateAndGet(currentTime, Math::max);
+		}
+	}
+	
+}
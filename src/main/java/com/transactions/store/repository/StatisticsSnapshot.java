@@ -0,0 +1,189 @@
+package com.transactions.store.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import com.transactions.store.model.QuantileSketch;
+import com.transactions.store.model.Statistic;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Binary snapshot of the buckets of the statistics, used to carry the window across a restart.
+ *
+ * The snapshot file holds
+ *
+ * <pre>
+ * int    magic, version
+ * long   time it was written
+ * int    number of buckets, followed by the bucket statistics of the window and of its rolled up levels
+ * ...    windows of the keys, see {@link KeyedStatisticsRepository#snapshot(DataOutput)}
+ * long   CRC32 of every byte before
+ * </pre>
+ *
+ * It is written to a temporary file moved over the previous snapshot, so a crash while writing
+ * leaves the previous one untouched. A snapshot with another version or a wrong checksum is ignored,
+ * and the buckets expired while the process was down are skipped when it is restored.
+ *
+ * @author onoriel
+ *
+ */
+@Repository
+@Log4j2
+public class StatisticsSnapshot {
+
+	private static final int MAGIC = 0x54534E50;
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;
+	private static final int TRAILER = 8;
+
+	private final File file;
+
+	/**
+	 * @param file snapshot file
+	 */
+	@Autowired
+	public StatisticsSnapshot(@Value("${statistic.snapshot.file:statistics.snapshot}") String file) {
+		this.file = new File(file);
+	}
+
+	/**
+	 * Write the snapshot of the statistics
+	 * @param statisticsRepository
+	 * @param keyedStatisticsRepository
+	 * @param currentTime
+	 * @return number of buckets written
+	 */
+	public int write(StatisticsRepository statisticsRepository, KeyedStatisticsRepository keyedStatisticsRepository, Long currentTime) {
+		File temporary = new File(file.getPath() + ".tmp");
+		// buckets out of the window are rolled up first, so none of them is left out
+		statisticsRepository.cleanOldStatistics(currentTime);
+		List<Statistic> buckets = new ArrayList<>(statisticsRepository.getStatistics().values());
+		buckets.addAll(statisticsRepository.getRolledUpStatistics());
+		CRC32 crc = new CRC32();
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(temporary), crc), 1 << 16))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(currentTime);
+			output.writeInt(buckets.size());
+			for (Statistic bucket : buckets) {
+				writeStatistic(output, bucket);
+			}
+			keyedStatisticsRepository.snapshot(output);
+			output.flush();
+			output.writeLong(crc.getValue());
+		} catch (IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+		return buckets.size();
+	}
+
+	/**
+	 * Restore the last snapshot written, if any
+	 * @param statisticsRepository
+	 * @param keyedStatisticsRepository
+	 * @param currentTime
+	 * @return whether a snapshot was restored
+	 */
+	public boolean restore(StatisticsRepository statisticsRepository, KeyedStatisticsRepository keyedStatisticsRepository, Long currentTime) {
+		if (!file.isFile()) {
+			return false;
+		}
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"); FileChannel channel = randomAccessFile.getChannel()) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.limit() < HEADER + TRAILER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				log.warn("restore: ignoring snapshot {} of an unknown format", file);
+				return false;
+			}
+			ByteBuffer content = buffer.duplicate();
+			content.limit(buffer.limit() - TRAILER);
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			if (crc.getValue() != buffer.getLong(buffer.limit() - TRAILER)) {
+				log.warn("restore: ignoring snapshot {} with a wrong checksum", file);
+				return false;
+			}
+			buffer.limit(buffer.limit() - TRAILER).position(HEADER);
+			for (int buckets = buffer.getInt(); buckets > 0; buckets--) {
+				statisticsRepository.saveBucket(readStatistic(buffer), currentTime);
+			}
+			keyedStatisticsRepository.restore(buffer, currentTime);
+			return true;
+		} catch (IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	static void writeStatistic(DataOutput output, Statistic statistic) throws IOException {
+		output.writeLong(Objects.isNull(statistic.getTimestamp()) ? 0L : statistic.getTimestamp());
+		output.writeLong(statistic.getCount());
+		writeDecimal(output, statistic.getSum());
+		writeDecimal(output, statistic.getMin());
+		writeDecimal(output, statistic.getMax());
+		output.writeBoolean(!Objects.isNull(statistic.getSketch()));
+		if (!Objects.isNull(statistic.getSketch())) {
+			statistic.getSketch().write(output);
+		}
+	}
+
+	static Statistic readStatistic(ByteBuffer buffer) {
+		long timestamp = buffer.getLong();
+		long count = buffer.getLong();
+		BigDecimal sum = readDecimal(buffer);
+		BigDecimal min = readDecimal(buffer);
+		BigDecimal max = readDecimal(buffer);
+		Statistic statistic = new Statistic(timestamp, BigDecimal.ZERO, BigDecimal.ZERO, null, null, 0L);
+		statistic.merge(new Statistic(timestamp, sum, null, max, min, count));
+		if (buffer.get() != 0) {
+			statistic.setSketch(QuantileSketch.read(buffer));
+		}
+		return statistic;
+	}
+
+	private static void writeDecimal(DataOutput output, BigDecimal amount) throws IOException {
+		if (Objects.isNull(amount)) {
+			output.writeShort(-1);
+			return;
+		}
+		byte[] unscaled = amount.unscaledValue().toByteArray();
+		output.writeShort(unscaled.length);
+		output.write(unscaled);
+		output.writeInt(amount.scale());
+	}
+
+	private static BigDecimal readDecimal(ByteBuffer buffer) {
+		short length = buffer.getShort();
+		if (length < 0) {
+			return null;
+		}
+		byte[] unscaled = new byte[length];
+		buffer.get(unscaled);
+		return new BigDecimal(new BigInteger(unscaled), buffer.getInt());
+	}
+}
@@ -0,0 +1,433 @@
+package com.transactions.store.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.transactions.store.model.Transaction;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Append only write ahead log of the accepted transactions, replayed at startup to rebuild the window.
+ *
+ * The log is a sequence of segment files named after their creation time, each one memory mapped with
+ * a fixed size, holding records of
+ *
+ * <pre>
+ * int    payload length
+ * int    CRC32 of the payload
+ * long   timestamp
+ * int    amount scale
+ * short  amount unscaled value length, followed by its bytes
+ * short  key length (-1 without key), followed by its UTF-8 bytes
+ * </pre>
+ *
+ * A record with a zero length or a wrong checksum ends a segment, so a record torn by a crash is
+ * dropped. A new segment is started when the current one is full or covers a quarter of the window,
+ * and a segment is deleted once its successor was created a whole window ago: every record it holds
+ * has expired.
+ *
+ * The fsync policy (<code>statistic.wal.fsync</code>) trades latency for durability:
+ * <ul>
+ * <li><code>write</code> forces every record to disk before the transaction is accepted.</li>
+ * <li><code>batch</code> group commit: a writer waits for its record to be forced, but one force covers
+ * every record appended meanwhile by the concurrent writers.</li>
+ * <li><code>periodic</code> forces the log every <code>statistic.wal.fsync-period</code> milliseconds
+ * from a background thread, a crash may lose the records of the last period.</li>
+ * </ul>
+ *
+ * @author onoriel
+ *
+ */
+@Repository
+@ConditionalOnProperty(name = "statistic.wal.enabled", havingValue = "true")
+@Log4j2
+public class TransactionLog {
+
+	/**
+	 * Segments started per window, a window and a quarter of records is kept on disk at most
+	 */
+	private static final int SEGMENTS_PER_WINDOW = 4;
+
+	private static final int MAGIC = 0x5457414C;
+	private static final int VERSION = 1;
+	private static final int HEADER = 8;
+	private static final int RECORD_HEADER = 8;
+	private static final String SUFFIX = ".wal";
+
+	private final File directory;
+	private final long timeToKeepAlive;
+	private final long segmentSpan;
+	private final int segmentSize;
+	private final String fsync;
+	private final long fsyncPeriod;
+
+	/**
+	 * Segments older than the current one, oldest first
+	 */
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private Segment current;
+
+	/**
+	 * Bytes appended since the start, across segments
+	 */
+	private long appended;
+
+	/**
+	 * Bytes appended known to be on disk
+	 */
+	private volatile long synced;
+
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final ReentrantLock syncLock = new ReentrantLock();
+
+	private ScheduledExecutorService scheduler;
+
+	public TransactionLog(String directory, Long timeToKeepAlive, String fsync) {
+		this(directory, timeToKeepAlive, fsync, 100L, 1 << 20);
+	}
+
+	/**
+	 * @param directory directory of the segment files, created when missing
+	 * @param timeToKeepAlive time to keep alive statistic (milliseconds when wired by Spring)
+	 * @param fsync fsync policy: write, batch or periodic
+	 * @param fsyncPeriod period of the periodic fsync (milliseconds)
+	 * @param segmentSize size of a segment file (bytes)
+	 */
+	@Autowired
+	public TransactionLog(@Value("${statistic.wal.directory:wal}") String directory, @Value("#{${statistic.time} * 1000}") Long timeToKeepAlive,
+			@Value("${statistic.wal.fsync:batch}") String fsync, @Value("${statistic.wal.fsync-period:100}") Long fsyncPeriod,
+			@Value("${statistic.wal.segment-size:8388608}") int segmentSize) {
+		if (!"write".equalsIgnoreCase(fsync) && !"batch".equalsIgnoreCase(fsync) && !"periodic".equalsIgnoreCase(fsync)) {
+			throw new IllegalArgumentException("fsync policy must be write, batch or periodic: " + fsync);
+		}
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("segment size must be at least 1024 bytes: " + segmentSize);
+		}
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new UncheckedIOException(new IOException("can not create the log directory " + directory));
+		}
+		this.timeToKeepAlive = timeToKeepAlive;
+		this.segmentSpan = Math.max(1L, timeToKeepAlive / SEGMENTS_PER_WINDOW);
+		this.segmentSize = segmentSize;
+		this.fsync = fsync.toLowerCase();
+		this.fsyncPeriod = fsyncPeriod;
+		File[] files = this.directory.listFiles((dir, name) -> name.matches("\\d+\\" + SUFFIX));
+		Arrays.stream(Objects.isNull(files) ? new File[0] : files)
+				.map(file -> new Segment(file, Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()))))
+				.sorted(Comparator.comparingLong(segment -> segment.created))
+				.forEach(segments::add);
+	}
+
+	@PostConstruct
+	public void start() {
+		if ("periodic".equals(fsync)) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "transaction-log-sync");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(this::syncQuietly, fsyncPeriod, fsyncPeriod, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		if (!Objects.isNull(scheduler)) {
+			scheduler.shutdownNow();
+		}
+		appendLock.lock();
+		try {
+			if (!Objects.isNull(current)) {
+				current.buffer.force();
+				synced = appended;
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Read every record of the segments on disk, oldest first
+	 * @param consumer transactions of the records
+	 * @return number of records read
+	 */
+	public long replay(Consumer<Transaction> consumer) {
+		long records = 0;
+		for (Segment segment : segments.toArray(new Segment[0])) {
+			try (RandomAccessFile file = new RandomAccessFile(segment.file, "r"); FileChannel channel = file.getChannel()) {
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					log.warn("replay: skipping segment {} of an unknown format", segment.file);
+					continue;
+				}
+				Transaction transaction;
+				while (!Objects.isNull(transaction = read(buffer))) {
+					consumer.accept(transaction);
+					records++;
+				}
+			} catch (IOException exception) {
+				throw new UncheckedIOException(exception);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Append the record of a transaction, forced to disk as the fsync policy says
+	 * @param transaction
+	 * @param currentTime
+	 */
+	public void append(Transaction transaction, Long currentTime) {
+		byte[] key = Objects.isNull(transaction.getKey()) ? null : transaction.getKey().getBytes(StandardCharsets.UTF_8);
+		append(transaction.getTimestamp(), transaction.getAmount().unscaledValue().toByteArray(), 0L, transaction.getAmount().scale(), key, currentTime);
+	}
+
+	/**
+	 * Append the record of a transaction without a key given as primitives, see
+	 * {@link StatisticsRepository#save(long, long, int, long)}
+	 * @param timestamp
+	 * @param unscaled
+	 * @param scale
+	 * @param currentTime
+	 */
+	public void append(long timestamp, long unscaled, int scale, long currentTime) {
+		append(timestamp, null, unscaled, scale, null, currentTime);
+	}
+
+	/**
+	 * @param unscaled bytes of the unscaled amount, or null to write the compact one as its 8 bytes
+	 * @param compact unscaled amount, when it fits in a long
+	 */
+	private void append(long timestamp, byte[] unscaled, long compact, int scale, byte[] key, long currentTime) {
+		int amountLength = Objects.isNull(unscaled) ? 8 : unscaled.length;
+		int length = 8 + 4 + 2 + amountLength + 2 + (Objects.isNull(key) ? 0 : key.length);
+		if (HEADER + RECORD_HEADER + length > segmentSize) {
+			throw new IllegalArgumentException("transaction record does not fit in a segment: " + length);
+		}
+		long end;
+		appendLock.lock();
+		try {
+			MappedByteBuffer buffer = segmentFor(RECORD_HEADER + length, currentTime);
+			int start = buffer.position();
+			buffer.position(start + RECORD_HEADER);
+			buffer.putLong(timestamp);
+			buffer.putInt(scale);
+			buffer.putShort((short) amountLength);
+			if (Objects.isNull(unscaled)) {
+				buffer.putLong(compact);
+			} else {
+				buffer.put(unscaled);
+			}
+			buffer.putShort((short) (Objects.isNull(key) ? -1 : key.length));
+			if (!Objects.isNull(key)) {
+				buffer.put(key);
+			}
+			// the length goes last, a record is not visible to the replay until it is complete
+			buffer.putInt(start + 4, checksum(buffer, start + RECORD_HEADER, length));
+			buffer.putInt(start, length);
+			appended += RECORD_HEADER + length;
+			end = appended;
+			if ("write".equals(fsync)) {
+				buffer.force();
+				synced = end;
+			}
+		} finally {
+			appendLock.unlock();
+		}
+		if ("batch".equals(fsync)) {
+			sync(end);
+		}
+	}
+
+	/**
+	 * Delete the segments holding expired records only
+	 * @param currentTime
+	 */
+	public void truncate(Long currentTime) {
+		appendLock.lock();
+		try {
+			while (!segments.isEmpty()) {
+				Iterator<Segment> iterator = segments.iterator();
+				iterator.next();
+				Segment next = iterator.hasNext() ? iterator.next() : current;
+				if (Objects.isNull(next) || currentTime - next.created < timeToKeepAlive) {
+					break;
+				}
+				delete(segments.poll());
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Delete every segment
+	 */
+	public void clear() {
+		appendLock.lock();
+		try {
+			while (!segments.isEmpty()) {
+				delete(segments.poll());
+			}
+			if (!Objects.isNull(current)) {
+				delete(current);
+				current = null;
+			}
+			synced = appended;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Force the log until the given position, unless a concurrent writer already did: writers waiting
+	 * on the lock meanwhile are all covered by the next force
+	 * @param position position to reach, {@link Long#MAX_VALUE} for every record appended so far
+	 */
+	private void sync(long position) {
+		if (synced >= position) {
+			return;
+		}
+		syncLock.lock();
+		try {
+			if (synced >= position) {
+				return;
+			}
+			long target;
+			MappedByteBuffer buffer;
+			appendLock.lock();
+			try {
+				target = appended;
+				buffer = Objects.isNull(current) ? null : current.buffer;
+			} finally {
+				appendLock.unlock();
+			}
+			// previous segments were forced when they were closed
+			if (target > synced && !Objects.isNull(buffer)) {
+				buffer.force();
+			}
+			synced = target;
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	private void syncQuietly() {
+		try {
+			sync(Long.MAX_VALUE);
+		} catch (RuntimeException exception) {
+			// an exception would cancel every following execution
+			log.error("sync: transaction log fsync failed", exception);
+		}
+	}
+
+	/**
+	 * Segment with room for a record, started when the current one is full or too old
+	 * @return buffer positioned at the end of the segment
+	 */
+	private MappedByteBuffer segmentFor(int size, long currentTime) {
+		if (!Objects.isNull(current) && current.buffer.remaining() >= size && currentTime - current.created < segmentSpan) {
+			return current.buffer;
+		}
+		if (!Objects.isNull(current)) {
+			current.buffer.force();
+			segments.add(current);
+		}
+		long created = segments.isEmpty() ? currentTime : Math.max(currentTime, segments.peekLast().created + 1);
+		File file = new File(directory, String.format("%019d%s", created, SUFFIX));
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"); FileChannel channel = randomAccessFile.getChannel()) {
+			current = new Segment(file, created);
+			current.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} catch (IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+		current.buffer.putInt(MAGIC);
+		current.buffer.putInt(VERSION);
+		return current.buffer;
+	}
+
+	private void delete(Segment segment) {
+		if (!segment.file.delete()) {
+			log.warn("delete: can not delete log segment {}", segment.file);
+		}
+	}
+
+	/**
+	 * Read the next record of a segment
+	 * @return transaction, null at the end of the segment or at a torn record
+	 */
+	private static Transaction read(ByteBuffer buffer) {
+		if (buffer.remaining() < RECORD_HEADER) {
+			return null;
+		}
+		int start = buffer.position();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if (length <= 0 || length > buffer.remaining() || checksum != checksum(buffer, start + RECORD_HEADER, length)) {
+			return null;
+		}
+		long timestamp = buffer.getLong();
+		int scale = buffer.getInt();
+		byte[] unscaled = new byte[buffer.getShort()];
+		buffer.get(unscaled);
+		short keyLength = buffer.getShort();
+		String key = null;
+		if (keyLength >= 0) {
+			byte[] bytes = new byte[keyLength];
+			buffer.get(bytes);
+			key = new String(bytes, StandardCharsets.UTF_8);
+		}
+		Transaction transaction = new Transaction(new BigDecimal(new BigInteger(unscaled), scale), timestamp, null);
+		transaction.setKey(key);
+		return transaction;
+	}
+
+	private static int checksum(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer payload = buffer.duplicate();
+		payload.limit(offset + length).position(offset);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	private static final class Segment {
+		private final File file;
+		private final long created;
+		private MappedByteBuffer buffer;
+
+		private Segment(File file, long created) {
+			this.file = file;
+			this.created = created;
+		}
+	}
+}
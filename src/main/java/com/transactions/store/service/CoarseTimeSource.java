@@ -0,0 +1,90 @@
+package com.transactions.store.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Time source caching the system clock, updated by a single ticker thread every resolution,
+ * so reading the time is a volatile read and every reader of the same tick sees the same time.
+ *
+ * The resolution is only the usual lag: a ticker descheduled by a pause or a busy machine falls
+ * further behind, so the decisions that must not run ahead of the clock, such as refusing a
+ * transaction from the future, check {@link #exactTimeMillis()} as well.
+ *
+ * @author onoriel
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "statistic.clock", havingValue = "coarse", matchIfMissing = true)
+public class CoarseTimeSource implements TimeSource {
+
+	/**
+	 * Update period (milliseconds)
+	 */
+	private final long resolution;
+
+	private volatile long currentTime = System.currentTimeMillis();
+
+	private ScheduledExecutorService ticker;
+
+	/**
+	 * @param resolution update period (milliseconds)
+	 */
+	@Autowired
+	public CoarseTimeSource(@Value("${statistic.clock-resolution:10}") Long resolution) {
+		this.resolution = resolution;
+	}
+
+	@PostConstruct
+	public void start() {
+		ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "coarse-clock");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ticker.scheduleAtFixedRate(this::tick, resolution, resolution, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		ticker.shutdownNow();
+	}
+
+	/**
+	 * Read the system clock, never moving the time backwards
+	 */
+	void tick() {
+		long now = System.currentTimeMillis();
+		if (now > currentTime) {
+			currentTime = now;
+		}
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return currentTime;
+	}
+
+	@Override
+	public long resolution() {
+		return resolution;
+	}
+
+	/**
+	 * Read the system clock and move the cached time to it
+	 */
+	@Override
+	public long exactTimeMillis() {
+		tick();
+		return currentTime;
+	}
+}
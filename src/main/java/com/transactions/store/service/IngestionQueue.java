@@ -0,0 +1,342 @@
+package com.transactions.store.service;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.transactions.store.model.Transaction;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Bounded queue of the transactions to save, applied to the statistics by a single writer thread,
+ * only when <code>statistic.ingestion.mode</code> is <code>queue</code>.
+ *
+ * The queue is a preallocated ring of entries. A producer claims the next sequences with a single atomic
+ * add, waits for their entries to be free when the ring is full, fills them and publishes every sequence
+ * in the slot of its entry. The writer thread drains the consecutive published sequences in batches and
+ * moves its cursor once per batch, after flushing the batch to the statistics, which frees the entries and
+ * acknowledges the producers waiting for the apply. Once stopped, the queue rejects new transactions.
+ *
+ * <ul>
+ * <li><code>apply</code> acknowledges a transaction once the statistics hold it, as the direct mode.</li>
+ * <li><code>enqueue</code> acknowledges it once queued, the statistics hold it after the drain latency.</li>
+ * </ul>
+ *
+ * @author onoriel
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "statistic.ingestion.mode", havingValue = "queue")
+@Log4j2
+public class IngestionQueue {
+
+	/**
+	 * Pause of the writer when the queue is empty, and of a waiting producer
+	 */
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/**
+	 * Checks of a condition before parking
+	 */
+	private static final int SPINS = 100;
+
+	/**
+	 * Applies the drained transactions, either objects or primitives, a batch at a time
+	 */
+	@FunctionalInterface
+	public interface Writer {
+		/**
+		 * @param transaction transaction, or null when given as primitives
+		 * @param timestamp
+		 * @param unscaled amount, as <code>unscaled * 10^-scale</code>
+		 * @param scale
+		 * @param currentTime time of the enqueue
+		 */
+		void write(Transaction transaction, long timestamp, long unscaled, int scale, long currentTime);
+
+		/**
+		 * End of a batch, before its producers are acknowledged
+		 */
+		default void flush() {
+		}
+	}
+
+	private final Entry[] entries;
+	private final int mask;
+	private final boolean ackOnApply;
+	private final int batchSize;
+
+	/**
+	 * Sequence published in every slot
+	 */
+	private final AtomicLongArray published;
+
+	/**
+	 * Last sequence claimed by the producers
+	 */
+	private final AtomicLong claimed = new AtomicLong(-1L);
+
+	/**
+	 * Last sequence applied by the writer
+	 */
+	private final AtomicLong applied = new AtomicLong(-1L);
+
+	/**
+	 * Time from the enqueue of the first transaction of the last batch to its apply (nanoseconds)
+	 */
+	private volatile long drainLatency;
+
+	private volatile boolean running;
+
+	/**
+	 * Whether the writer thread has exited, so nothing claimed from now on is ever applied
+	 */
+	private volatile boolean drained;
+
+	private Thread drainer;
+
+	/**
+	 * @param capacity entries of the ring, a power of two
+	 * @param ack acknowledge on apply or enqueue
+	 * @param batchSize most transactions drained at once
+	 */
+	@Autowired
+	public IngestionQueue(@Value("${statistic.ingestion.capacity:65536}") int capacity, @Value("${statistic.ingestion.ack:apply}") String ack,
+			@Value("${statistic.ingestion.batch:1024}") int batchSize) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("ingestion capacity must be a power of two: " + capacity);
+		}
+		if (!"apply".equalsIgnoreCase(ack) && !"enqueue".equalsIgnoreCase(ack)) {
+			throw new IllegalArgumentException("ingestion ack must be apply or enqueue: " + ack);
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("ingestion batch must be positive: " + batchSize);
+		}
+		this.entries = new Entry[capacity];
+		for (int index = 0; index < capacity; index++) {
+			entries[index] = new Entry();
+		}
+		this.mask = capacity - 1;
+		this.published = new AtomicLongArray(capacity);
+		for (int index = 0; index < capacity; index++) {
+			published.set(index, -1L);
+		}
+		this.ackOnApply = "apply".equalsIgnoreCase(ack);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Start the writer thread
+	 * @param writer
+	 */
+	public void start(Writer writer) {
+		running = true;
+		drainer = new Thread(() -> drain(writer), "ingestion-writer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Stop the writer thread once every transaction claimed is applied. The transactions queued afterwards
+	 * are rejected
+	 */
+	@PreDestroy
+	public void stop() {
+		running = false;
+		if (!Objects.isNull(drainer)) {
+			try {
+				drainer.join();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Queue a transaction
+	 * @param transaction
+	 * @param currentTime
+	 */
+	public void publish(Transaction transaction, long currentTime) {
+		long sequence = claim(1);
+		publish(sequence, transaction, transaction.getTimestamp(), 0L, 0, currentTime);
+		acknowledge(sequence);
+	}
+
+	/**
+	 * Queue a transaction without a key given as primitives
+	 * @param timestamp
+	 * @param unscaled
+	 * @param scale
+	 * @param currentTime
+	 */
+	public void publish(long timestamp, long unscaled, int scale, long currentTime) {
+		long sequence = claim(1);
+		publish(sequence, null, timestamp, unscaled, scale, currentTime);
+		acknowledge(sequence);
+	}
+
+	/**
+	 * Queue transactions, claiming their sequences at once
+	 * @param transactions
+	 * @param currentTime
+	 */
+	public void publishAll(List<Transaction> transactions, long currentTime) {
+		for (int from = 0; from < transactions.size(); from += entries.length) {
+			int count = Math.min(entries.length, transactions.size() - from);
+			long first = claim(count);
+			for (int index = 0; index < count; index++) {
+				Transaction transaction = transactions.get(from + index);
+				publish(first + index, transaction, transaction.getTimestamp(), 0L, 0, currentTime);
+			}
+			acknowledge(first + count - 1);
+		}
+	}
+
+	/**
+	 * Wait for every transaction claimed so far to be applied
+	 */
+	public void awaitApplied() {
+		await(claimed.get());
+	}
+
+	/**
+	 * @return transactions claimed and not applied yet
+	 */
+	public long depth() {
+		return Math.max(0L, claimed.get() - applied.get());
+	}
+
+	/**
+	 * @return time from the enqueue of the first transaction of the last batch to its apply (nanoseconds)
+	 */
+	public long drainLatency() {
+		return drainLatency;
+	}
+
+	public int capacity() {
+		return entries.length;
+	}
+
+	public boolean isAckOnApply() {
+		return ackOnApply;
+	}
+
+	/**
+	 * Claim the next sequences, waiting for their entries to be applied when the ring is full
+	 * @param count
+	 * @return first sequence
+	 * @throws IllegalStateException when the queue is stopped
+	 */
+	private long claim(int count) {
+		if (!running) {
+			throw new IllegalStateException("ingestion queue is stopped");
+		}
+		long last = claimed.addAndGet(count);
+		await(last - entries.length);
+		return last - count + 1;
+	}
+
+	private void publish(long sequence, Transaction transaction, long timestamp, long unscaled, int scale, long currentTime) {
+		Entry entry = entries[(int) sequence & mask];
+		entry.transaction = transaction;
+		entry.timestamp = timestamp;
+		entry.unscaled = unscaled;
+		entry.scale = scale;
+		entry.currentTime = currentTime;
+		entry.enqueued = System.nanoTime();
+		// ordered after the entry fields, the writer reads them once it sees the sequence
+		published.lazySet((int) sequence & mask, sequence);
+	}
+
+	/**
+	 * Wait for the sequence to be applied, when acknowledged on apply or when the queue is stopping, so a
+	 * transaction claimed after the last drain is rejected instead of lost
+	 * @param sequence
+	 */
+	private void acknowledge(long sequence) {
+		if (ackOnApply || !running) {
+			await(sequence);
+		}
+	}
+
+	/**
+	 * Wait for the sequence to be applied
+	 * @param sequence
+	 * @throws IllegalStateException when the writer thread exited before applying it
+	 */
+	private void await(long sequence) {
+		for (int spins = 0; applied.get() < sequence; spins++) {
+			if (drained && applied.get() < sequence) {
+				throw new IllegalStateException("ingestion queue is stopped");
+			}
+			pause(spins);
+		}
+	}
+
+	private void drain(Writer writer) {
+		long next = applied.get() + 1;
+		for (int spins = 0; running || next <= claimed.get();) {
+			long last = next - 1;
+			while (last - next + 1 < batchSize && published.get((int) (last + 1) & mask) == last + 1) {
+				last++;
+			}
+			if (last < next) {
+				pause(spins++);
+				continue;
+			}
+			spins = 0;
+			long enqueued = entries[(int) next & mask].enqueued;
+			for (long sequence = next; sequence <= last; sequence++) {
+				Entry entry = entries[(int) sequence & mask];
+				try {
+					writer.write(entry.transaction, entry.timestamp, entry.unscaled, entry.scale, entry.currentTime);
+				} catch (RuntimeException exception) {
+					// the writer must keep draining, or every producer would wait forever
+					log.error("drain: transaction not applied", exception);
+				}
+				entry.transaction = null;
+			}
+			try {
+				writer.flush();
+			} catch (RuntimeException exception) {
+				log.error("drain: batch not applied", exception);
+			}
+			drainLatency = System.nanoTime() - enqueued;
+			applied.set(last);
+			next = last + 1;
+		}
+		drained = true;
+	}
+
+	private static void pause(int spins) {
+		if (spins < SPINS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Preallocated entry of the ring, reused by every sequence of its slot
+	 */
+	private static final class Entry {
+		private Transaction transaction;
+		private long timestamp;
+		private long unscaled;
+		private int scale;
+		private long currentTime;
+		private long enqueued;
+	}
+}
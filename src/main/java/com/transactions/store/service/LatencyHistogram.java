@@ -0,0 +1,126 @@
+package com.transactions.store.service;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Latency histogram recorded without locks. Every latency is counted in a bucket of a log-linear scale:
+ * each power of two is split in {@value #SUB_BUCKETS} linear sub-buckets, so a quantile, answered as the
+ * upper bound of its bucket, is at most 12.5% above the latency recorded.
+ *
+ * Recording is two {@link LongAdder} increments, which spread the contended ones over cells instead of
+ * retrying a compare and set. Reading sums the buckets, the latencies recorded meanwhile may be seen or not.
+ *
+ * @author onoriel
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Exponent of the last power of two, 2^40 nanoseconds (18 minutes), whose last bucket counts every longer latency
+	 */
+	private static final int MAX_EXPONENT = 40;
+
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	private final LongAdder[] buckets = Stream.generate(LongAdder::new).limit(BUCKETS).toArray(LongAdder[]::new);
+
+	/**
+	 * Sum of the latencies recorded (nanoseconds)
+	 */
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Record a latency
+	 * @param nanos latency (nanoseconds)
+	 */
+	public void record(long nanos) {
+		buckets[indexOf(nanos)].increment();
+		sum.add(nanos);
+	}
+
+	/**
+	 * Record the latency from the given start to now
+	 * @param startNanos start, read from {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return latencies recorded
+	 */
+	public long count() {
+		long count = 0L;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @return sum of the latencies recorded (nanoseconds)
+	 */
+	public long sum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Quantiles of the latencies recorded, read from a single pass over the buckets
+	 * @param quantiles ascending quantiles, between 0 and 1
+	 * @return upper bound of the bucket of every quantile (nanoseconds), 0 when nothing is recorded
+	 */
+	public long[] quantiles(double... quantiles) {
+		long[] counts = new long[BUCKETS];
+		long total = 0L;
+		for (int index = 0; index < BUCKETS; index++) {
+			counts[index] = buckets[index].sum();
+			total += counts[index];
+		}
+		long[] values = new long[quantiles.length];
+		if (total == 0L) {
+			return values;
+		}
+		long seen = 0L;
+		for (int index = 0, quantile = 0; index < BUCKETS && quantile < quantiles.length; index++) {
+			seen += counts[index];
+			for (; quantile < quantiles.length && seen >= Math.max(1L, (long) Math.ceil(quantiles[quantile] * total)); quantile++) {
+				values[quantile] = upperBoundOf(index);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @param nanos
+	 * @return bucket of the latency
+	 */
+	static int indexOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) Math.max(nanos, 0L);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @param index
+	 * @return greatest latency of the bucket (nanoseconds)
+	 */
+	static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		long width = 1L << (exponent - SUB_BITS);
+		return (SUB_BUCKETS + index % SUB_BUCKETS) * width + width - 1;
+	}
+}
@@ -0,0 +1,40 @@
+package com.transactions.store.service;
+
+/**
+ * Time source only moved by its owner, for deterministic tests and benchmarks of the window sliding
+ *
+ * @author onoriel
+ *
+ */
+public class ManualTimeSource implements TimeSource {
+
+	private volatile long currentTime;
+
+	/**
+	 * @param currentTime initial time (epoch milliseconds)
+	 */
+	public ManualTimeSource(long currentTime) {
+		this.currentTime = currentTime;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return currentTime;
+	}
+
+	/**
+	 * @param currentTime new time (epoch milliseconds)
+	 */
+	public void set(long currentTime) {
+		this.currentTime = currentTime;
+	}
+
+	/**
+	 * @param millis time to move forward (milliseconds)
+	 * @return new time
+	 */
+	public long advance(long millis) {
+		currentTime += millis;
+		return currentTime;
+	}
+}
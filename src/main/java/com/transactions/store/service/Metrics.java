@@ -0,0 +1,125 @@
+package com.transactions.store.service;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Counters and latency histograms of the ingestion and query paths, recorded without locks so they stay
+ * on in production: a save pays for a {@link System#nanoTime()} pair and a few {@link LongAdder} increments.
+ *
+ * @author onoriel
+ *
+ */
+@Component
+public class Metrics {
+
+	/**
+	 * HTTP end points timed by the controllers
+	 */
+	public enum Endpoint {
+		SAVE, BATCH, STATISTICS, KEY_STATISTICS;
+
+		/**
+		 * @return label of the end point
+		 */
+		public String label() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * Transactions saved, single or in batches
+	 */
+	private final LongAdder saved = new LongAdder();
+
+	private final LatencyHistogram saveLatency = new LatencyHistogram();
+
+	private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+	/**
+	 * Buckets evicted from the window
+	 */
+	private final LongAdder evicted = new LongAdder();
+
+	private final LatencyHistogram evictionLatency = new LatencyHistogram();
+
+	private final LatencyHistogram[] requestLatencies = Stream.generate(LatencyHistogram::new).limit(Endpoint.values().length)
+			.toArray(LatencyHistogram[]::new);
+
+	/**
+	 * Record the save of a transaction
+	 * @param startNanos start of the save, read from {@link System#nanoTime()}
+	 */
+	public void recordSave(long startNanos) {
+		saveLatency.recordSince(startNanos);
+		saved.increment();
+	}
+
+	/**
+	 * Record the save of a batch of transactions, which are not timed one by one
+	 * @param transactions
+	 */
+	public void recordSaves(int transactions) {
+		saved.add(transactions);
+	}
+
+	/**
+	 * Record a query of the statistics
+	 * @param startNanos start of the query, read from {@link System#nanoTime()}
+	 */
+	public void recordQuery(long startNanos) {
+		queryLatency.recordSince(startNanos);
+	}
+
+	/**
+	 * Record an eviction of the expired statistics
+	 * @param startNanos start of the eviction, read from {@link System#nanoTime()}
+	 * @param buckets buckets evicted
+	 */
+	public void recordEviction(long startNanos, int buckets) {
+		evictionLatency.recordSince(startNanos);
+		evicted.add(buckets);
+	}
+
+	/**
+	 * Record a request answered by an end point
+	 * @param endpoint
+	 * @param startNanos start of the request, read from {@link System#nanoTime()}
+	 */
+	public void recordRequest(Endpoint endpoint, long startNanos) {
+		requestLatencies[endpoint.ordinal()].recordSince(startNanos);
+	}
+
+	/**
+	 * @return transactions saved since the start
+	 */
+	public long saved() {
+		return saved.sum();
+	}
+
+	/**
+	 * @return buckets evicted since the start
+	 */
+	public long evicted() {
+		return evicted.sum();
+	}
+
+	public LatencyHistogram getSaveLatency() {
+		return saveLatency;
+	}
+
+	public LatencyHistogram getQueryLatency() {
+		return queryLatency;
+	}
+
+	public LatencyHistogram getEvictionLatency() {
+		return evictionLatency;
+	}
+
+	public LatencyHistogram getRequestLatency(Endpoint endpoint) {
+		return requestLatencies[endpoint.ordinal()];
+	}
+}
@@ -0,0 +1,98 @@
+package com.transactions.store.service;
+
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.transactions.store.repository.KeyedStatisticsRepository;
+import com.transactions.store.repository.StatisticsRepository;
+import com.transactions.store.repository.TransactionLog;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Evicts expired statistics from a dedicated thread, ticking on bucket boundaries every eviction
+ * period, a multiple of the bucket resolution, so neither saving a transaction nor reading statistics
+ * pays for the cleanup.
+ * 
+ * @author onoriel
+ *
+ */
+@Component
+@Log4j2
+public class StatisticsEvictionScheduler {
+
+	@Autowired
+	private StatisticsRepository statisticsRepository;
+
+	@Autowired
+	private KeyedStatisticsRepository keyedStatisticsRepository;
+
+	@Autowired(required = false)
+	private TransactionLog transactionLog;
+
+	@Autowired
+	private TimeSource timeSource;
+
+	@Autowired
+	private Metrics metrics;
+
+	/**
+	 * Bucket resolution (milliseconds)
+	 */
+	@Value("${statistic.resolution:1000}")
+	private Long resolution;
+
+	/**
+	 * Eviction period (milliseconds), the bucket resolution by default. A multiple of it keeps every tick on a bucket boundary
+	 */
+	@Value("${statistic.eviction-period:${statistic.resolution:1000}}")
+	private Long evictionPeriod;
+
+	private ScheduledExecutorService scheduler;
+
+	@PostConstruct
+	public void start() {
+		if (evictionPeriod <= 0 || evictionPeriod % resolution != 0) {
+			throw new IllegalArgumentException("eviction period must be a multiple of the resolution: " + evictionPeriod);
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "statistics-eviction");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long initialDelay = evictionPeriod - timeSource.currentTimeMillis() % evictionPeriod;
+		scheduler.scheduleAtFixedRate(this::evict, initialDelay, evictionPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Evict the statistics out of the window, and the log segments of expired transactions
+	 */
+	public void evict() {
+		try {
+			long start = System.nanoTime();
+			long currentTime = timeSource.currentTimeMillis();
+			metrics.recordEviction(start, statisticsRepository.cleanOldStatistics(currentTime));
+			keyedStatisticsRepository.cleanOldStatistics(currentTime);
+			if (!Objects.isNull(transactionLog)) {
+				transactionLog.truncate(currentTime);
+			}
+		} catch (RuntimeException exception) {
+			// an exception would cancel every following execution
+			log.error("evict: statistics eviction failed", exception);
+		}
+	}
+}
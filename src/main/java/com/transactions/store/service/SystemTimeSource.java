@@ -0,0 +1,20 @@
+package com.transactions.store.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Time source reading the system clock on every call
+ *
+ * @author onoriel
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "statistic.clock", havingValue = "system")
+public class SystemTimeSource implements TimeSource {
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
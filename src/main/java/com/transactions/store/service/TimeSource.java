@@ -0,0 +1,31 @@
+package com.transactions.store.service;
+
+/**
+ * Source of the current time, read by every component of the service as a primitive so
+ * the time can be cached, and controlled by the tests and benchmarks
+ *
+ * @author onoriel
+ *
+ */
+public interface TimeSource {
+
+	/**
+	 * @return current time (epoch milliseconds)
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * @return longest lag of the current time behind the system clock (milliseconds)
+	 */
+	default long resolution() {
+		return 0L;
+	}
+
+	/**
+	 * Read the time from the clock itself, for the rare decisions a lagging time would get wrong
+	 * @return current time (epoch milliseconds), never behind {@link #currentTimeMillis()}
+	 */
+	default long exactTimeMillis() {
+		return currentTimeMillis();
+	}
+}
@@ -1,61 +1,378 @@
-package com.transactions.store.service;
-
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.Instant;
-import java.time.ZoneOffset;
-import java.util.Objects;
-
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
-
-import com.transactions.store.model.Statistic;
-import com.transactions.store.model.Transaction;
-import com.transactions.store.repository.StatisticsRepository;
-
-/**
- * Transactions service
- * 
- * @author onoriel
- *
- */
-@Service
-public class TransactionService {
-	
-	@Autowired
-	private StatisticsRepository statisticsRepository;
-	
-	/**
-	 * Time to keep statistics alive
-	 */
-	@Value("${statistic.time:60}") 
-	private Long timeToKeepAlive;
-	
-	
-	public void save(Transaction transaction) { 
-		statisticsRepository.save(transaction, Instant.now().getEpochSecond());
-	}
-	
-	public Statistic getStatistics() { 
-		statisticsRepository.cleanOldStatistics(Instant.now().atZone(ZoneOffset.UTC).toEpochSecond());
-		Statistic statistic = statisticsRepository.getStatistics().values().stream().reduce(new Statistic(), (statisticA, statisticB) -> {
-			statisticA.setSum(statisticA.getSum().add(statisticB.getSum()));
-			statisticA.setCount(Long.sum(statisticA.getCount(), statisticB.getCount()));
-			statisticA.setMax(Objects.isNull(statisticA.getMax()) ? statisticB.getMax() : 
-				  Objects.isNull(statisticB.getMax()) ? statisticA.getMax() :
-					  		   statisticA.getMax().max(statisticB.getMax()));
-			statisticA.setMin(Objects.isNull(statisticA.getMin()) ? statisticB.getMin() : 
-							  Objects.isNull(statisticB.getMin()) ? statisticA.getMin() :
-								  		   statisticA.getMin().min(statisticB.getMin()));
-			statisticA.setAvg(statisticA.getCount() > 0 ? statisticA.getSum().divide(new BigDecimal( statisticA.getCount()),  2, RoundingMode.HALF_UP) : BigDecimal.ZERO);
-			return statisticA;
-		});
-		return statistic;
-	}
-	
-	public void deleteStatistics() {
-		statisticsRepository.cleanAllStatistics();
-	}
-
-}
+package com.transactions.store.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.transactions.store.model.QuantileSketch;
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.KeyedStatisticsRepository;
+import com.transactions.store.repository.StatisticsRepository;
+import com.transactions.store.repository.StatisticsSnapshot;
+import com.transactions.store.repository.TransactionLog;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Transactions service
+ * 
+ * @author onoriel
+ *
+ */
+@Service
+@Log4j2
+public class TransactionService {
+	
+	@Autowired
+	private StatisticsRepository statisticsRepository;
+	
+	@Autowired
+	private KeyedStatisticsRepository keyedStatisticsRepository;
+	
+	/**
+	 * Write ahead log, only when <code>statistic.wal.enabled</code>
+	 */
+	@Autowired(required = false)
+	private TransactionLog transactionLog;
+	
+	@Autowired
+	private StatisticsSnapshot statisticsSnapshot;
+	
+	/**
+	 * Queue applied by a single writer thread, only when <code>statistic.ingestion.mode</code> is <code>queue</code>.
+	 * The writer folds every drained batch into buckets of its own, without any lock, and publishes each of them
+	 * to the statistics repository once per batch
+	 */
+	@Autowired(required = false)
+	private IngestionQueue ingestionQueue;
+	
+	@Autowired
+	private TimeSource timeSource;
+	
+	@Autowired
+	private Metrics metrics;
+	
+	/**
+	 * Whether the statistics are snapshot on shutdown and restored at startup
+	 */
+	@Value("${statistic.snapshot.enabled:false}")
+	private boolean snapshotEnabled;
+	
+	/**
+	 * Bucket resolution (milliseconds)
+	 */
+	@Value("${statistic.resolution:1000}") 
+	private Long resolution;
+	
+	/**
+	 * Writes applied to the statistics, counted once each is applied. The counter is striped, so the
+	 * writers do not contend on it
+	 */
+	private final LongAdder writes = new LongAdder();
+	
+	/**
+	 * Rebuild the window at startup, before the HTTP port is open: from the write ahead log when it is
+	 * enabled, which already holds every transaction of the snapshot, or else from the last snapshot.
+	 * The ingestion queue starts applying transactions afterwards
+	 */
+	@PostConstruct
+	public void recover() {
+		long currentTime = timeSource.currentTimeMillis();
+		if (!Objects.isNull(transactionLog)) {
+			long records = transactionLog.replay(transaction -> apply(transaction, currentTime));
+			log.info("recover: {} logged transactions replayed", records);
+		} else if (snapshotEnabled && statisticsSnapshot.restore(statisticsRepository, keyedStatisticsRepository, currentTime)) {
+			log.info("recover: statistics restored from the snapshot in {} ms", timeSource.currentTimeMillis() - currentTime);
+		}
+		if (!Objects.isNull(ingestionQueue)) {
+			ingestionQueue.start(new BatchWriter());
+		}
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		if (!Objects.isNull(ingestionQueue)) {
+			// every queued transaction is applied before the snapshot
+			ingestionQueue.stop();
+		}
+		if (snapshotEnabled) {
+			snapshot();
+		}
+	}
+	
+	/**
+	 * Write a snapshot of the statistics
+	 * @return number of buckets written
+	 */
+	public int snapshot() {
+		return statisticsSnapshot.write(statisticsRepository, keyedStatisticsRepository, timeSource.currentTimeMillis());
+	}
+	
+	/**
+	 * Save a transaction. A queued one is logged once the queue accepted it, so a transaction rejected
+	 * by a stopped queue is not replayed on the next start
+	 * @param transaction
+	 */
+	public void save(Transaction transaction) { 
+		long start = System.nanoTime();
+		long currentTime = timeSource.currentTimeMillis();
+		if (!Objects.isNull(ingestionQueue)) {
+			ingestionQueue.publish(transaction, currentTime);
+			if (!Objects.isNull(transactionLog)) {
+				transactionLog.append(transaction, currentTime);
+			}
+		} else {
+			if (!Objects.isNull(transactionLog)) {
+				transactionLog.append(transaction, currentTime);
+			}
+			apply(transaction, currentTime);
+			written();
+		}
+		metrics.recordSave(start);
+	}
+
+	/**
+	 * Save a transaction decoded from the binary format, without building it when it has no key
+	 * @param timestamp transaction time (milliseconds)
+	 * @param unscaled amount, as <code>unscaled * 10^-scale</code>
+	 * @param scale
+	 * @param key transaction key, or null
+	 */
+	public void save(long timestamp, long unscaled, int scale, String key) {
+		if (!Objects.isNull(key)) {
+			save(new Transaction(BigDecimal.valueOf(unscaled, scale), timestamp, key));
+			return;
+		}
+		long start = System.nanoTime();
+		long currentTime = timeSource.currentTimeMillis();
+		if (!Objects.isNull(ingestionQueue)) {
+			ingestionQueue.publish(timestamp, unscaled, scale, currentTime);
+			if (!Objects.isNull(transactionLog)) {
+				transactionLog.append(timestamp, unscaled, scale, currentTime);
+			}
+		} else {
+			if (!Objects.isNull(transactionLog)) {
+				transactionLog.append(timestamp, unscaled, scale, currentTime);
+			}
+			statisticsRepository.save(timestamp, unscaled, scale, currentTime);
+			written();
+		}
+		metrics.recordSave(start);
+	}
+
+	/**
+	 * Save a batch of transactions, aggregating the ones of the same bucket first so the statistics
+	 * repository is updated once per bucket instead of once per transaction, or claiming their entries
+	 * of the ingestion queue at once
+	 * @param transactions
+	 */
+	public void saveAll(List<Transaction> transactions) {
+		long currentTime = timeSource.currentTimeMillis();
+		metrics.recordSaves(transactions.size());
+		if (!Objects.isNull(ingestionQueue)) {
+			ingestionQueue.publishAll(transactions, currentTime);
+			if (!Objects.isNull(transactionLog)) {
+				transactions.forEach(transaction -> transactionLog.append(transaction, currentTime));
+			}
+			return;
+		}
+		Map<Long, Statistic> buckets = new HashMap<>();
+		for (Transaction transaction : transactions) {
+			if (!Objects.isNull(transactionLog)) {
+				transactionLog.append(transaction, currentTime);
+			}
+			if (!Objects.isNull(transaction.getKey())) {
+				keyedStatisticsRepository.save(transaction.getKey(), transaction, currentTime);
+			}
+			aggregate(buckets, transaction.getTimestamp(), transaction.getAmount());
+		}
+		saveBuckets(buckets, currentTime);
+		written();
+	}
+	
+	/**
+	 * Add an amount to the statistic of its bucket
+	 * @param buckets statistics by bucket
+	 * @param timestamp transaction time (milliseconds)
+	 * @param amount
+	 */
+	private void aggregate(Map<Long, Statistic> buckets, long timestamp, BigDecimal amount) {
+		long bucket = Math.floorDiv(timestamp, resolution) * resolution;
+		Statistic statistic = buckets.computeIfAbsent(bucket, time -> {
+			Statistic empty = new Statistic(time, BigDecimal.ZERO, BigDecimal.ZERO, null, null, 0L);
+			empty.setSketch(new QuantileSketch());
+			return empty;
+		});
+		statistic.setSum(statistic.getSum().add(amount));
+		statistic.setMax(Objects.isNull(statistic.getMax()) ? amount : statistic.getMax().max(amount));
+		statistic.setMin(Objects.isNull(statistic.getMin()) ? amount : statistic.getMin().min(amount));
+		statistic.setCount(statistic.getCount() + 1);
+		statistic.getSketch().add(amount.doubleValue());
+	}
+	
+	/**
+	 * Save the aggregated statistics, once per bucket
+	 * @param buckets statistics by bucket
+	 * @param currentTime
+	 */
+	private void saveBuckets(Map<Long, Statistic> buckets, long currentTime) {
+		for (Statistic statistic : buckets.values()) {
+			statistic.setAvg(statistic.getSum().divide(new BigDecimal(statistic.getCount()), 2, RoundingMode.HALF_UP));
+			statisticsRepository.saveBucket(statistic, currentTime);
+		}
+	}
+	
+	private void apply(Transaction transaction, long currentTime) {
+		statisticsRepository.save(transaction, currentTime);
+		if (!Objects.isNull(transaction.getKey())) {
+			keyedStatisticsRepository.save(transaction.getKey(), transaction, currentTime);
+		}
+	}
+	
+	public Statistic getStatistics() { 
+		long start = System.nanoTime();
+		Statistic statistic = statisticsRepository.getWindowStatistic(timeSource.currentTimeMillis());
+		metrics.recordQuery(start);
+		return statistic;
+	}
+	
+	/**
+	 * Statistics of the given window
+	 * @param window window (milliseconds)
+	 * @return statistic
+	 */
+	public Statistic getStatistics(Long window) { 
+		long start = System.nanoTime();
+		Statistic statistic = statisticsRepository.getWindowStatistic(timeSource.currentTimeMillis(), window);
+		metrics.recordQuery(start);
+		return statistic;
+	}
+	
+	/**
+	 * Statistics of the transactions of a key
+	 * @param key
+	 * @return statistic
+	 */
+	public Statistic getStatistics(String key) { 
+		long start = System.nanoTime();
+		Statistic statistic = keyedStatisticsRepository.getWindowStatistic(key, timeSource.currentTimeMillis());
+		metrics.recordQuery(start);
+		return statistic;
+	}
+	
+	/**
+	 * @return longest window served by {@link #getStatistics(Long)} (milliseconds)
+	 */
+	public long retention() {
+		return statisticsRepository.getRetention();
+	}
+	
+	public void deleteStatistics() {
+		if (!Objects.isNull(ingestionQueue)) {
+			// the transactions queued before the removal are not applied after it
+			ingestionQueue.awaitApplied();
+		}
+		statisticsRepository.cleanAllStatistics();
+		keyedStatisticsRepository.cleanAllStatistics();
+		if (!Objects.isNull(transactionLog)) {
+			transactionLog.clear();
+		}
+		written();
+	}
+	
+	/**
+	 * @return buckets held by the statistics, the ones expired but not evicted yet included
+	 */
+	public int liveBuckets() {
+		return statisticsRepository.size();
+	}
+	
+	/**
+	 * @return keys holding statistics
+	 */
+	public int liveKeys() {
+		return keyedStatisticsRepository.size();
+	}
+	
+	/**
+	 * @return counters and latencies of the saves and queries
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return queue applied by a single writer thread, or null when the transactions are applied by the request threads
+	 */
+	public IngestionQueue getIngestionQueue() {
+		return ingestionQueue;
+	}
+	
+	/**
+	 * Generation of the statistics: it is moved by every save or removal of the statistics, so anything
+	 * derived from the statistics of a generation stays valid while the generation and the bucket are the same
+	 * @return generation
+	 */
+	public long generation() {
+		return writes.sum();
+	}
+	
+	/**
+	 * Count a write of the statistics, after it is applied, so a response rendered after reading the
+	 * generation holds every write counted in it
+	 */
+	private void written() {
+		writes.increment();
+	}
+	
+	/**
+	 * Writer of the ingestion queue: the buckets of a batch are only touched by the writer thread, and are
+	 * published at once at the end of the batch, when the generation moves
+	 */
+	private class BatchWriter implements IngestionQueue.Writer {
+		
+		private final Map<Long, Statistic> buckets = new HashMap<>();
+		
+		/**
+		 * Earliest time of the enqueues of the batch, so no bucket alive on its enqueue is expired on its save
+		 */
+		private long currentTime = Long.MAX_VALUE;
+		
+		@Override
+		public void write(Transaction transaction, long timestamp, long unscaled, int scale, long currentTime) {
+			if (Objects.isNull(transaction)) {
+				aggregate(buckets, timestamp, BigDecimal.valueOf(unscaled, scale));
+			} else {
+				if (!Objects.isNull(transaction.getKey())) {
+					keyedStatisticsRepository.save(transaction.getKey(), transaction, currentTime);
+				}
+				aggregate(buckets, transaction.getTimestamp(), transaction.getAmount());
+			}
+			this.currentTime = Math.min(this.currentTime, currentTime);
+		}
+		
+		@Override
+		public void flush() {
+			try {
+				saveBuckets(buckets, currentTime);
+			} finally {
+				buckets.clear();
+				currentTime = Long.MAX_VALUE;
+				written();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.transactions;
+
+import org.springframework.boot.context.event.ApplicationStartingEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * Starts the application in a plain environment when the reactive profile is asked for, on the command
+ * line or the system properties. Spring Boot would otherwise create a servlet environment before the
+ * profile is read, and that turns the servlet auto configuration on next to the reactive one. The web
+ * application type itself is set by the profile properties
+ *
+ * @author onoriel
+ *
+ */
+public class ReactiveEnvironmentListener implements ApplicationListener<ApplicationStartingEvent> {
+
+	private static final String PROFILE = "reactive";
+
+	@Override
+	public void onApplicationEvent(ApplicationStartingEvent event) {
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addFirst(new SimpleCommandLinePropertySource(event.getArgs()));
+		if (environment.acceptsProfiles(PROFILE)) {
+			event.getSpringApplication().setEnvironment(new StandardEnvironment());
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.transactions.store.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reactor Netty server of the reactive front end, chosen over the Tomcat the servlet starter
+ * also leaves on the classpath
+ *
+ * @author onoriel
+ *
+ */
+@Component
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class NettyWebServerFactory extends NettyReactiveWebServerFactory {
+
+}
@@ -0,0 +1,344 @@
+package com.transactions.store.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.transactions.store.controller.exception.UnsupportedWindowException;
+import com.transactions.store.controller.util.BatchReader;
+import com.transactions.store.controller.util.BinaryTransactionFormat;
+import com.transactions.store.controller.util.ConverterUtils;
+import com.transactions.store.controller.util.JsonCodec;
+import com.transactions.store.controller.util.PrometheusExporter;
+import com.transactions.store.controller.util.StatisticsCache;
+import com.transactions.store.controller.util.Validation;
+import com.transactions.store.dto.BatchResultDTO;
+import com.transactions.store.dto.IngestionDTO;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.service.Metrics;
+import com.transactions.store.service.Metrics.Endpoint;
+import com.transactions.store.service.TransactionService;
+
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Transaction Controller of the reactive stack, with the same contract than the {@link TransactionController}
+ * of the servlet stack.
+ *
+ * The end points run on the event loop, as the statistics are kept in memory. Only the writes leave it, to an
+ * elastic scheduler, when the write ahead log or the ingestion queue is enabled, since they may wait for its
+ * fsync or for room in the queue and its writer, and the batches, read there as their body streams in.
+ *
+ * @author onoriel
+ *
+ */
+@RestController
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+@Log4j2
+public class ReactiveTransactionController {
+
+	@Autowired
+	private TransactionService transactionService;
+
+	@Autowired
+	private ConverterUtils converterUtils;
+
+	@Autowired
+	private BatchReader batchReader;
+
+	@Autowired
+	private StatisticsCache statisticsCache;
+
+	@Autowired
+	private PrometheusExporter prometheusExporter;
+
+	@Autowired
+	private Metrics metrics;
+
+	/**
+	 * Whether the writes may block on the write ahead log
+	 */
+	@Value("${statistic.wal.enabled:false}")
+	private boolean walEnabled;
+
+	/**
+	 * Publishing period of the statistics stream (milliseconds), the highest rate of the events
+	 */
+	@Value("${statistic.stream.period:1000}")
+	private Long streamPeriod;
+
+	/**
+	 * Chunks of a batch body received ahead of its reader
+	 */
+	private static final int BATCH_PREFETCH = 4;
+
+	/**
+	 * Statistics read every period, shared by every subscriber
+	 */
+	private Flux<StatisticsCache.Response> statisticsStream;
+
+	@PostConstruct
+	public void init() {
+		statisticsStream = Flux.interval(Duration.ofMillis(streamPeriod), Duration.ofMillis(streamPeriod)).onBackpressureDrop()
+				.map(tick -> statisticsCache.get(null)).retry().publish().refCount();
+	}
+
+	/**
+	 * Save transaction end point, read by the {@link JsonCodec} and answered with the {@link Validation} of the transaction
+	 * @param transaction
+	 * @return HTTP Code Status
+	 */
+	@PostMapping(value = "/transactions", consumes = { MediaType.APPLICATION_JSON_VALUE, "application/*+json" })
+	public Mono<ResponseEntity<Void>> saveTransaction(@RequestBody byte[] transaction) {
+		long start = System.nanoTime();
+		Transaction entity = new Transaction();
+		Validation validation = converterUtils.validate(transaction, 0, transaction.length, entity);
+		if (validation != Validation.ACCEPTED) {
+			metrics.recordRequest(Endpoint.SAVE, start);
+			return Mono.just(validation.getResponse());
+		}
+		log.debug("saveTransaction: new transaction to save [{}]", entity);
+		return timed(Endpoint.SAVE, start, write(() -> {
+			transactionService.save(entity);
+			return validation.getResponse();
+		}));
+	}
+
+	/**
+	 * Save transaction end point for a record of the {@link BinaryTransactionFormat}
+	 * @param transaction
+	 * @return HTTP Code Status
+	 */
+	@PostMapping(value = "/transactions", consumes = BinaryTransactionFormat.MEDIA_TYPE)
+	public Mono<ResponseEntity<Void>> saveBinaryTransaction(@RequestBody byte[] transaction) {
+		long start = System.nanoTime();
+		ByteBuffer buffer = ByteBuffer.wrap(transaction);
+		if (BinaryTransactionFormat.length(buffer) != transaction.length) {
+			throw new HttpMessageNotReadableException("saveBinaryTransaction: not a single binary transaction record");
+		}
+		return timed(Endpoint.SAVE, start, write(() -> batchReader.saveRecord(buffer).getResponse()));
+	}
+
+	/**
+	 * Batch save end point: one JSON transaction per line, gzip compressed when the request says so.
+	 * The body is read as it is received, on the elastic scheduler, never held whole in memory.
+	 * @param batch
+	 * @param encoding content encoding of the body
+	 * @return number of lines accepted, older and rejected
+	 */
+	@PostMapping(value = "/transactions/batch")
+	public Mono<ResponseEntity<BatchResultDTO>> saveTransactions(@RequestBody(required = false) Flux<DataBuffer> batch,
+			@RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String encoding) {
+		long start = System.nanoTime();
+		return timed(Endpoint.BATCH, start, read(() -> {
+			try (Stream<DataBuffer> buffers = batch.toStream(BATCH_PREFETCH); InputStream input = bodyOf(buffers.iterator(), encoding)) {
+				BatchResultDTO result = batchReader.readLines(input);
+				log.debug("saveTransactions: batch saved [{}]", result);
+				return new ResponseEntity<BatchResultDTO>(result, HttpStatus.OK);
+			}
+		}));
+	}
+
+	/**
+	 * Batch save end point for records of the {@link BinaryTransactionFormat}, gzip compressed when the request says so.
+	 * The body is read as it is received, on the elastic scheduler, never held whole in memory.
+	 * @param batch
+	 * @param encoding content encoding of the body
+	 * @return number of records accepted, older and rejected
+	 */
+	@PostMapping(value = "/transactions/batch", consumes = BinaryTransactionFormat.MEDIA_TYPE)
+	public Mono<ResponseEntity<BatchResultDTO>> saveBinaryTransactions(@RequestBody(required = false) Flux<DataBuffer> batch,
+			@RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String encoding) {
+		long start = System.nanoTime();
+		return timed(Endpoint.BATCH, start, read(() -> {
+			try (Stream<DataBuffer> buffers = batch.toStream(BATCH_PREFETCH);
+					ReadableByteChannel channel = Channels.newChannel(bodyOf(buffers.iterator(), encoding))) {
+				BatchResultDTO result = batchReader.readRecords(channel);
+				log.debug("saveBinaryTransactions: batch saved [{}]", result);
+				return new ResponseEntity<BatchResultDTO>(result, HttpStatus.OK);
+			}
+		}));
+	}
+
+	/**
+	 * Ingestion state end point: mode, and depth and drain latency of the queue when the transactions are queued
+	 * @return ingestion state
+	 */
+	@GetMapping(value = "/transactions/ingestion")
+	public ResponseEntity<IngestionDTO> ingestion() {
+		return new ResponseEntity<IngestionDTO>(converterUtils.asIngestionDTO(transactionService.getIngestionQueue()), HttpStatus.OK);
+	}
+
+	/**
+	 * Statistics generation end point, answered from the {@link StatisticsCache}. A request whose
+	 * <code>If-None-Match</code> holds the entity tag of the statistics gets a 304 without body
+	 * @param window optional window such as 5m, 1h or 24h, the time to keep alive by default
+	 * @param exchange
+	 * @return statistics information
+	 * @throws UnsupportedWindowException
+	 */
+	@GetMapping(value = "/statistics")
+	public ResponseEntity<byte[]> generateStatistics(@RequestParam(value = "window", required = false) String window, ServerWebExchange exchange) {
+		long start = System.nanoTime();
+		StatisticsCache.Response response = statisticsCache.get(Objects.isNull(window) ? null : converterUtils.asWindow(window, transactionService.retention()));
+		metrics.recordRequest(Endpoint.STATISTICS, start);
+		if (exchange.checkNotModified(response.getETag())) {
+			return null;
+		}
+		return ResponseEntity.ok().eTag(response.getETag()).contentType(MediaType.APPLICATION_JSON_UTF8).body(response.getBody());
+	}
+
+	/**
+	 * Statistics stream end point: a Server-Sent Event with the statistics on subscription and whenever
+	 * they change, at most once every <code>statistic.stream.period</code>. The first event is read when the
+	 * subscription starts, and a slow subscriber only keeps the last event it has not received
+	 * @return stream of statistics information
+	 */
+	@GetMapping(value = "/statistics/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<String>> streamStatistics() {
+		return Mono.fromCallable(() -> statisticsCache.get(null)).concatWith(statisticsStream).distinctUntilChanged(StatisticsCache.Response::getETag)
+				.map(response -> ServerSentEvent.builder(new String(response.getBody(), StandardCharsets.UTF_8)).id(response.getETag()).build())
+				.onBackpressureLatest();
+	}
+
+	/**
+	 * Statistics of a key end point, under its own path so no key is taken for another statistics end point
+	 * @param key transaction key, such as a merchant or a card BIN
+	 * @return statistics information of the key
+	 */
+	@GetMapping(value = "/statistics/keys/{key}")
+	public ResponseEntity<byte[]> generateKeyStatistics(@PathVariable("key") String key) {
+		long start = System.nanoTime();
+		byte[] body = JsonCodec.writeStatistic(transactionService.getStatistics(key));
+		metrics.recordRequest(Endpoint.KEY_STATISTICS, start);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+	}
+
+	/**
+	 * Metrics end point, in the Prometheus text format
+	 * @return counters, gauges and latency summaries
+	 */
+	@GetMapping(value = "/metrics", produces = PrometheusExporter.CONTENT_TYPE)
+	public ResponseEntity<String> metrics() {
+		return new ResponseEntity<String>(prometheusExporter.scrape(), HttpStatus.OK);
+	}
+
+	/**
+	 * Statistics snapshot end point, written to <code>statistic.snapshot.file</code>
+	 * @return HTTP Code Status
+	 */
+	@PostMapping(value = "/statistics/snapshot")
+	public Mono<ResponseEntity<Void>> snapshotStatistics() {
+		return Mono.fromCallable(() -> {
+			int buckets = transactionService.snapshot();
+			log.debug("snapshotStatistics: {} buckets written", buckets);
+			return new ResponseEntity<Void>(HttpStatus.CREATED);
+		}).subscribeOn(Schedulers.elastic());
+	}
+
+	/**
+	 * Statistics removal end point
+	 * @return
+	 */
+	@DeleteMapping(value = "/transactions")
+	public Mono<ResponseEntity<Void>> deleteTransactions() {
+		return write(() -> {
+			transactionService.deleteStatistics();
+			return new ResponseEntity<Void>(HttpStatus.NO_CONTENT);
+		});
+	}
+
+	/**
+	 * @param write
+	 * @return write run on the event loop, or on the elastic scheduler when it may block on the write ahead log
+	 * or the ingestion queue
+	 */
+	private <T> Mono<T> write(Callable<T> write) {
+		Mono<T> mono = Mono.fromCallable(write);
+		return walEnabled || !Objects.isNull(transactionService.getIngestionQueue()) ? mono.subscribeOn(Schedulers.elastic()) : mono;
+	}
+
+	/**
+	 * @param read
+	 * @return read of a request body, run on the elastic scheduler as it waits for the body
+	 */
+	private <T> Mono<T> read(Callable<T> read) {
+		return Mono.fromCallable(read).subscribeOn(Schedulers.elastic());
+	}
+
+	/**
+	 * @param endpoint
+	 * @param start start of the request, read from {@link System#nanoTime()}
+	 * @param answer
+	 * @return answer, recording the latency of the end point once it is written
+	 */
+	private <T> Mono<T> timed(Endpoint endpoint, long start, Mono<T> answer) {
+		return answer.doOnSuccess(result -> metrics.recordRequest(endpoint, start));
+	}
+
+	/**
+	 * @param body chunks of the body, waited for as they are read
+	 * @param encoding
+	 * @return body, each chunk released once read, gunzipped when the encoding says so
+	 * @throws IOException
+	 */
+	private InputStream bodyOf(Iterator<DataBuffer> body, String encoding) throws IOException {
+		InputStream input = new SequenceInputStream(new Enumeration<InputStream>() {
+			@Override
+			public boolean hasMoreElements() {
+				return body.hasNext();
+			}
+
+			@Override
+			public InputStream nextElement() {
+				return body.next().asInputStream(true);
+			}
+		});
+		return "gzip".equalsIgnoreCase(encoding) ? new GZIPInputStream(input) : input;
+	}
+
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	@ExceptionHandler({HttpMessageNotReadableException.class, UnsupportedWindowException.class})
+	public void argumentExceptionHandler(Exception exception) {
+
+	}
+}
@@ -0,0 +1,108 @@
+package com.transactions.store.controller;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.transactions.store.dto.BatchResultDTO;
+
+/**
+ * Reactive transaction controller tests, run with the reactive maven profile
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@ActiveProfiles("reactive")
+@AutoConfigureWebTestClient
+public class ReactiveTransactionControllerTest {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Before
+	public void init() {
+		client.delete().uri("/transactions").exchange().expectStatus().isNoContent();
+	}
+
+	/**
+	 * A transaction is answered with the status of its validation
+	 */
+	@Test
+	public void whenTransactionIsSavedItIsAnsweredByItsValidation() {
+		save(transaction("12.50", Instant.now())).expectStatus().isCreated();
+		save(transaction("12.50", Instant.now().minusSeconds(3600))).expectStatus().isNoContent();
+		save(transaction("12.50", Instant.now().plusSeconds(3600))).expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+		save(transaction("12FF50", Instant.now())).expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+		save("{}").expectStatus().isBadRequest();
+	}
+
+	/**
+	 * The lines of a batch, plain or gzip compressed, are counted as the single transaction end point answers them
+	 */
+	@Test
+	public void whenBatchIsSavedEveryLineIsCounted() throws Exception {
+		String batch = transaction("1", Instant.now()) + "\n" + transaction("2", Instant.now().minusSeconds(3600)) + "\n{}\n"
+				+ transaction("3", Instant.now());
+		BatchResultDTO plain = client.post().uri("/transactions/batch").contentType(MediaType.TEXT_PLAIN).syncBody(batch).exchange()
+				.expectStatus().isOk().expectBody(BatchResultDTO.class).returnResult().getResponseBody();
+		assertTrue(Objects.equals(plain, new BatchResultDTO(2L, 1L, 1L)));
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+			output.write(batch.getBytes(StandardCharsets.UTF_8));
+		}
+		BatchResultDTO gzip = client.post().uri("/transactions/batch").contentType(MediaType.TEXT_PLAIN).header(HttpHeaders.CONTENT_ENCODING, "gzip")
+				.syncBody(compressed.toByteArray()).exchange().expectStatus().isOk().expectBody(BatchResultDTO.class).returnResult().getResponseBody();
+		assertTrue(Objects.equals(gzip, plain));
+		client.get().uri("/statistics").exchange().expectStatus().isOk().expectBody().jsonPath("$.count").isEqualTo(4).jsonPath("$.sum")
+				.isEqualTo("8.00");
+	}
+
+	/**
+	 * The statistics carry an entity tag, and a request holding it gets a 304 until they change
+	 */
+	@Test
+	public void whenStatisticsAreUnchangedTheyAreNotModified() {
+		save(transaction("12.50", Instant.now())).expectStatus().isCreated();
+		String eTag = client.get().uri("/statistics").exchange().expectStatus().isOk().expectHeader().valueMatches(HttpHeaders.ETAG, "\".+\"")
+				.expectBody().jsonPath("$.count").isEqualTo(1).returnResult().getResponseHeaders().getETag();
+		client.get().uri("/statistics").header(HttpHeaders.IF_NONE_MATCH, eTag).exchange().expectStatus().isNotModified().expectBody().isEmpty();
+		save(transaction("7.50", Instant.now())).expectStatus().isCreated();
+		client.get().uri("/statistics").header(HttpHeaders.IF_NONE_MATCH, eTag).exchange().expectStatus().isOk().expectBody().jsonPath("$.count")
+				.isEqualTo(2);
+	}
+
+	/**
+	 * An unsupported window is a bad request
+	 */
+	@Test
+	public void whenWindowIsUnsupportedStatisticsAreABadRequest() {
+		client.get().uri("/statistics?window=1y").exchange().expectStatus().isBadRequest();
+	}
+
+	private WebTestClient.ResponseSpec save(String transaction) {
+		return client.post().uri("/transactions").contentType(MediaType.APPLICATION_JSON).syncBody(transaction).exchange();
+	}
+
+	private static String transaction(String amount, Instant timestamp) {
+		return "{\"amount\":\"" + amount + "\",\"timestamp\":\"" + timestamp + "\"}";
+	}
+}
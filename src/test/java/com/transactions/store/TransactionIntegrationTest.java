@@ -1,206 +1,302 @@
-package com.transactions.store;
-
-import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertTrue;
-import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
-
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.http.MediaType;
-import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
-import org.springframework.test.web.servlet.MockMvc;
-import org.springframework.test.web.servlet.MvcResult;
-import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
-import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
-import org.springframework.web.context.support.GenericWebApplicationContext;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.transactions.store.dto.TransactionDTO;
-
-@RunWith(SpringJUnit4ClassRunner.class)
-@SpringBootTest
-public class TransactionIntegrationTest {
-	
-	/**
-	 * Mock Mvc
-	 */
-	private MockMvc endpoint;
-
-	/**
-	 * Object Mapper
-	 */
-	private ObjectMapper objectMapper = new ObjectMapper();
-	
-	@Autowired
-    private GenericWebApplicationContext webApplicationContext;
-	
-	/**
-	 * Save transaction endpoint
-	 */
-	private static final String SAVE_TRANSACTION_ENDPOINT = "/transactions";
-
-	/**
-	 * Save transaction endpoint
-	 */
-	private static final String STATISTICS_ENDPOINT = "/statistics";
-	
-	/**
-	 * Delete transactions endpoint
-	 */
-	private static final String DELETE_STATISTICS_ENDPOINT = "/transactions";
-
-	@Before
-	public void init() {
-		endpoint = webAppContextSetup(webApplicationContext).build();
-        assertNotNull(endpoint);
-	}
-	
-	/**
-	 * Testing controller always returns a 201 HTTP Code when a transaction is
-	 * created
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testSaveTransactionCreated() throws Exception {
-		
-		String transactionContent = objectMapper.writeValueAsString(getTransaction());
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isCreated());
-	}
-	/**
-	 * Testing controller always returns a 204 HTTP Code when a transaction time stamp is expired
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testSaveTransactionOldTimeStamp() throws Exception {
-		String transactionContent = objectMapper.writeValueAsString(getOldTransactionDTO(getTransaction()));
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isNoContent());
-	}
-	
-	/**
-	 * Testing controller always returns a 422 HTTP Code when the transaction date is in the future
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testSaveTransactionFutureTimeStamp() throws Exception {
-		String transactionContent = objectMapper.writeValueAsString(getFutureTransactionDTO(getTransaction()));
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
-	}
-	
-	/**
-	 * A 404 HTTP Code is returned when a not content is sent
-	 * stamp is expired
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testBadRequestNoContentSent() throws Exception {
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content("{}"))
-				.andExpect(MockMvcResultMatchers.status().isBadRequest());
-	}
-	/**
-	 * A 404 HTTP Code is returned when a not valid transaction is sent
-	 * stamp is expired
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testBadRequestInvalidTransactionSent() throws Exception {
-		String transactionContent = objectMapper.writeValueAsString(getTransaction());
-		transactionContent = transactionContent.replaceFirst("100.00", "");
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isBadRequest());
-	}
-	/**
-	 * A 422 HTTP Code is returned if the amount value is not parsable
-	 * 
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testBadParseableAmountTransactionInformation() throws Exception {
-		TransactionDTO transaction = getTransaction();
-		transaction.setAmount("100FFF00");
-		String transactionContent = objectMapper.writeValueAsString(transaction);
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
-	}
-	/**
-	 * A 422 HTTP Code is returned if the timestamp value is not parsable
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testBadParseableTimeStampTransactionInformation() throws Exception {
-		TransactionDTO transaction = getTransaction();
-		transaction.setTimestamp("HHHHHH");
-		String transactionContent = objectMapper.writeValueAsString(transaction);
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
-	}
-
-	/**
-	 * Testing an new empty statistic is returned when no transaction saved before
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testStatisticsCeroValuesWhenNoTransactionSavedBefore() throws Exception {
-		endpoint.perform(MockMvcRequestBuilders.delete(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON));
-		MvcResult result = endpoint
-				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
-				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
-		String response = result.getResponse().getContentAsString();
-		assertTrue(response.contains("\"count\":0"));
-	}
-	
-	/**
-	 * Testing a statistic is returned when one transaction is in memory
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testStatisticsOneTransactionSaved() throws Exception {
-		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
-				.andExpect(MockMvcResultMatchers.status().isNoContent());
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(getTransaction())))
-				.andExpect(MockMvcResultMatchers.status().isCreated());
-		MvcResult result = endpoint
-				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
-				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
-		String response = result.getResponse().getContentAsString();
-		assertTrue(response.contains("\"count\":1"));
-	}
-
-	private TransactionDTO getTransaction() {
-		ZonedDateTime timstamp = ZonedDateTime.now(ZoneOffset.UTC);
-		return new TransactionDTO("100.00", timstamp.toString()); 
-	}
-	private TransactionDTO getOldTransactionDTO(TransactionDTO transaction) {
-		transaction.setTimestamp(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(61).toString());
-		return transaction;
-	}
-	private TransactionDTO getFutureTransactionDTO(TransactionDTO transaction) {
-		transaction.setTimestamp(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(61).toString());
-		return transaction; 
-	}
-}
+package com.transactions.store;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest
+public class TransactionIntegrationTest {
+	
+	/**
+	 * Mock Mvc
+	 */
+	private MockMvc endpoint;
+
+	@Autowired
+    private GenericWebApplicationContext webApplicationContext;
+	
+	/**
+	 * Save transaction endpoint
+	 */
+	private static final String SAVE_TRANSACTION_ENDPOINT = "/transactions";
+
+	/**
+	 * Save transaction endpoint
+	 */
+	private static final String STATISTICS_ENDPOINT = "/statistics";
+	
+	/**
+	 * Delete transactions endpoint
+	 */
+	private static final String DELETE_STATISTICS_ENDPOINT = "/transactions";
+
+	@Before
+	public void init() {
+		endpoint = webAppContextSetup(webApplicationContext).build();
+        assertNotNull(endpoint);
+	}
+	
+	/**
+	 * Testing controller always returns a 201 HTTP Code when a transaction is
+	 * created
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionCreated() throws Exception {
+		
+		String transactionContent = getTransaction();
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+	}
+	/**
+	 * Testing controller always returns a 204 HTTP Code when a transaction time stamp is expired
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionOldTimeStamp() throws Exception {
+		String transactionContent = getOldTransaction();
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+	}
+	
+	/**
+	 * Testing controller always returns a 422 HTTP Code when the transaction date is in the future
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionFutureTimeStamp() throws Exception {
+		String transactionContent = getFutureTransaction();
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+	}
+	
+	/**
+	 * A 404 HTTP Code is returned when a not content is sent
+	 * stamp is expired
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBadRequestNoContentSent() throws Exception {
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content("{}"))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+	/**
+	 * A 404 HTTP Code is returned when a not valid transaction is sent
+	 * stamp is expired
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBadRequestInvalidTransactionSent() throws Exception {
+		String transactionContent = getTransaction();
+		transactionContent = transactionContent.replaceFirst("100.00", "");
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+	/**
+	 * A 422 HTTP Code is returned if the amount value is not parsable
+	 * 
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBadParseableAmountTransactionInformation() throws Exception {
+		String transactionContent = getTransaction("100FFF00", ZonedDateTime.now(ZoneOffset.UTC).toString(), null);
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+	}
+	/**
+	 * A 422 HTTP Code is returned if the timestamp value is not parsable
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBadParseableTimeStampTransactionInformation() throws Exception {
+		String transactionContent = getTransaction("100.00", "HHHHHH", null);
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+	}
+
+	/**
+	 * Testing an new empty statistic is returned when no transaction saved before
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsCeroValuesWhenNoTransactionSavedBefore() throws Exception {
+		endpoint.perform(MockMvcRequestBuilders.delete(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON));
+		MvcResult result = endpoint
+				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		String response = result.getResponse().getContentAsString();
+		assertTrue(response.contains("\"count\":0"));
+	}
+	
+	/**
+	 * Testing a statistic is returned when one transaction is in memory
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsOneTransactionSaved() throws Exception {
+		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(getTransaction()))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		MvcResult result = endpoint
+				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		String response = result.getResponse().getContentAsString();
+		assertTrue(response.contains("\"count\":1"));
+	}
+
+	/**
+	 * Longer windows are served from the same transactions, unsupported ones are a bad request
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsOfLongerWindow() throws Exception {
+		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(getTransaction()))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		MvcResult result = endpoint
+				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).param("window", "5m").contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().contains("\"count\":1"));
+		endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).param("window", "5y").contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	/**
+	 * Statistics of a key only hold the transactions of that key
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsOfKey() throws Exception {
+		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		String transaction = getTransaction("100.00", ZonedDateTime.now(ZoneOffset.UTC).toString(), "merchant");
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transaction))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(getTransaction()))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		MvcResult result = endpoint
+				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT + "/keys/merchant").contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().contains("\"count\":1"));
+		result = endpoint.perform(MockMvcRequestBuilders.get("/metrics")).andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().contains("http_request_seconds_count{endpoint=\"key_statistics\"} "));
+	}
+
+	/**
+	 * A gzip compressed batch saves its valid lines and counts the others as the single end point answers them
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveCompressedBatch() throws Exception {
+		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		String keyed = getTransaction("100.00", ZonedDateTime.now(ZoneOffset.UTC).toString(), "merchant");
+		String batch = String.join("\n", getTransaction(), keyed,
+				getOldTransaction(), getFutureTransaction(),
+				"{\"amount\":", "{\"timestamp\":\"" + ZonedDateTime.now(ZoneOffset.UTC) + "\"}", "");
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+			output.write(batch.getBytes(StandardCharsets.UTF_8));
+		}
+		MvcResult result = endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT + "/batch").header(HttpHeaders.CONTENT_ENCODING, "gzip")
+				.contentType("application/x-ndjson").content(compressed.toByteArray()))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().equals("{\"accepted\":2,\"older\":1,\"rejected\":3}"));
+		result = endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().contains("\"count\":2"));
+		result = endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT + "/keys/merchant").contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().contains("\"count\":1"));
+		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+	}
+
+	/**
+	 * Statistics carry an entity tag answered with a 304 while neither a save nor a removal changes them
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsNotModifiedUntilWritten() throws Exception {
+		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		String eTag = endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(MockMvcResultMatchers.status().isNotModified());
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(getTransaction()))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		MvcResult result = endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().contains("\"count\":1"));
+		endpoint.perform(MockMvcRequestBuilders.delete(DELETE_STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		result = endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).header(HttpHeaders.IF_NONE_MATCH, result.getResponse().getHeader(HttpHeaders.ETAG)))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().contains("\"count\":0"));
+		assertTrue(eTag.equals(result.getResponse().getHeader(HttpHeaders.ETAG)));
+	}
+
+	private String getTransaction() {
+		return getTransaction("100.00", ZonedDateTime.now(ZoneOffset.UTC).toString(), null);
+	}
+	private String getOldTransaction() {
+		return getTransaction("100.00", ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(61).toString(), null);
+	}
+	private String getFutureTransaction() {
+		return getTransaction("100.00", ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(61).toString(), null);
+	}
+	private String getTransaction(String amount, String timestamp, String key) {
+		return "{\"amount\":\"" + amount + "\",\"timestamp\":\"" + timestamp + "\"" + (Objects.isNull(key) ? "" : ",\"key\":\"" + key + "\"") + "}";
+	}
+}
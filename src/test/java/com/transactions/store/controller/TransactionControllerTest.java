@@ -1,242 +1,452 @@
-package com.transactions.store.controller;
-
-import static org.junit.Assert.assertTrue;
-
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.mockito.Mockito;
-import org.mockito.MockitoAnnotations;
-import org.mockito.junit.MockitoJUnitRunner;
-import org.springframework.http.MediaType;
-import org.springframework.test.web.servlet.MockMvc;
-import org.springframework.test.web.servlet.MvcResult;
-import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
-import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
-import org.springframework.test.web.servlet.setup.MockMvcBuilders;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.transactions.store.controller.TransactionController;
-import com.transactions.store.controller.exception.FutureTransactionException;
-import com.transactions.store.controller.exception.OlderTransactionException;
-import com.transactions.store.controller.exception.ParseableTransactionException;
-import com.transactions.store.controller.util.ConverterUtils;
-import com.transactions.store.dto.StatisticDTO;
-import com.transactions.store.dto.TransactionDTO;
-import com.transactions.store.model.Statistic;
-import com.transactions.store.model.Transaction;
-import com.transactions.store.service.TransactionService;
-
-@RunWith(MockitoJUnitRunner.class)
-public class TransactionControllerTest {
-
-	@Mock
-	private TransactionService transactionService;
-
-	@InjectMocks
-	private TransactionController transactionController;
-
-	/**
-	 * Mock Mvc
-	 */
-	private MockMvc endpoint;
-
-	/**
-	 * Object Mapper utility
-	 */
-	private ObjectMapper objectMapper = new ObjectMapper();
-	
-	@Mock
-	private ConverterUtils converterUtils;
-	
-	private static final String SAVE_TRANSACTION_ENDPOINT = "/transactions";
-	private static final String STATISTICS_ENDPOINT = "/statistics";
-
-	@Before
-	public void init() {
-		// Process mock annotations
-		MockitoAnnotations.initMocks(this);
-		endpoint = MockMvcBuilders.standaloneSetup(transactionController).build();
-	}
-
-	/**
-	 * Testing controller always returns a 201 HTTP Code when a transaction is
-	 * created
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testSaveTransactionCreated() throws Exception {
-		Mockito.doNothing().when(transactionService).save(Mockito.any(Transaction.class));
-		Mockito.doReturn(new Transaction()).when(converterUtils).asTrasanctionEntity(Mockito.any());
-		String transactionContent = objectMapper.writeValueAsString(getTransactionDTO());
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isCreated());
-	}
-
-	/**
-	 * Testing controller always returns a 204 HTTP Code when a transaction time
-	 * stamp is expired
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testSaveTransactionOldTimeStamp() throws Exception {
-		Mockito.doThrow(new OlderTransactionException()).when(converterUtils).asTrasanctionEntity(Mockito.any());
-		String transactionContent = objectMapper.writeValueAsString(getTransactionDTOOlder());
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isNoContent());
-	}
-	/**
-	 * Testing controller always returns a 422 HTTP Code when a transaction time
-	 * stamp is in the future
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testSaveTransactionFutureTimeStamp() throws Exception {
-		Mockito.doThrow(new FutureTransactionException()).when(converterUtils).asTrasanctionEntity(Mockito.any());
-		String transactionContent = objectMapper.writeValueAsString(getTransactionDTOOlder());
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
-	}
-	/** 422 HTTP Code error when unparsable amount
-	 * @throws Exception
-	 */
-	@Test
-	public void testUnparseableAmountTransaction() throws Exception {
-		Mockito.doThrow(new ParseableTransactionException()).when(converterUtils).asTrasanctionEntity(Mockito.any());
-		TransactionDTO transaction = getTransactionDTO();
-		transaction.setAmount("100FFF00");
-		String transactionContent = objectMapper.writeValueAsString(transaction);
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
-	}
-	
-	/** 422 HTTP Code error when unparsable timestamp
-	 * @throws Exception
-	 */
-	@Test
-	public void testUnparseableTimeStampTransaction() throws Exception {
-		Mockito.doThrow(new ParseableTransactionException()).when(converterUtils).asTrasanctionEntity(Mockito.any());
-		TransactionDTO transaction = getTransactionDTO();
-		transaction.setTimestamp("HHHHHH");
-		String transactionContent = objectMapper.writeValueAsString(transaction);
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
-	}
-	
-	/**
-	 * A 400 HTTP Code is returned when a not content is sent
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testBadRequestNoContentSent() throws Exception {
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content("{}"))
-				.andExpect(MockMvcResultMatchers.status().isBadRequest());
-	}
-	/**
-	 * A 404 HTTP Code is returned when a not valid transaction is sent
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testBadRequestWhenInvalidIsTransactionSent() throws Exception {
-		String transactionContent = objectMapper.writeValueAsString(getTransactionDTO());
-		transactionContent = transactionContent.replaceFirst("100.00", "");
-		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
-				.andExpect(MockMvcResultMatchers.status().isBadRequest());
-	}
-
-	/**
-	 * Testing an new empty statistic is returned when no transaction saved before
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testStatisticsCeroValuesWhenNoTransactionSavedBefore() throws Exception {
-		Mockito.doReturn(new Statistic()).when(transactionService).getStatistics();
-		Mockito.doReturn(new StatisticDTO()).when(converterUtils).asStatisticDTO(Mockito.any());
-		MvcResult result = endpoint
-				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
-				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
-		String response = result.getResponse().getContentAsString();
-		assertTrue(response.equals(objectMapper.writeValueAsString(new StatisticDTO())));
-	}
-	
-	/**
-	 * Testing a statistic is returned when one transaction is in memory
-	 * 
-	 * @throws Exception
-	 */
-	@Test
-	public void testStatisticsOneTransactionSaved() throws Exception {
-		Statistic statistic = getStatistic(getTransaction());
-		Mockito.doReturn(statistic).when(transactionService).getStatistics();
-		Mockito.doReturn(asStatisticDTO(statistic)).when(converterUtils).asStatisticDTO(Mockito.any());
-		MvcResult result = endpoint
-				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
-				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
-		String response = result.getResponse().getContentAsString();
-		assertTrue(response.contains("\"count\":1"));
-	}
-
-	/**
-	 * Build a transaction
-	 * @return
-	 */
-	private Transaction getTransaction() {
-		return new Transaction(new BigDecimal(100), ZonedDateTime.now(ZoneOffset.UTC).toEpochSecond()); 
-	}
-	/**
-	 * Build a transaction
-	 * @return
-	 */
-	private TransactionDTO getTransactionDTO() {
-		ZonedDateTime timstamp = ZonedDateTime.now(ZoneOffset.UTC);
-		return new TransactionDTO("100.00", timstamp.toString()); 
-	}
-	private TransactionDTO getTransactionDTOOlder() {
-		ZonedDateTime timstamp = ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(61);
-		return new TransactionDTO("100.00", timstamp.toString()); 
-	}
-	/**
-	 * Build a new statistic object from a transaction
-	 * @param t
-	 * @return
-	 */
-	private Statistic getStatistic(Transaction t) {
-		Statistic statistic = new Statistic();
-		statistic.setAvg(BigDecimal.ONE);
-		statistic.setCount(1L);
-		statistic.setSum(t.getAmount());
-		statistic.setMax(t.getAmount());
-		statistic.setMin(t.getAmount());
-		statistic.setTimestamp(t.getTimestamp());
-		return statistic;
-	}
-	public StatisticDTO asStatisticDTO(Statistic statistic) {
-		StatisticDTO statisticDTO = new StatisticDTO();
-		statisticDTO.setAvg(statistic.getAvg().setScale(2, RoundingMode.HALF_UP).toString());
-		statisticDTO.setMax(statistic.getMax().setScale(2, RoundingMode.HALF_UP).toString());
-		statisticDTO.setMin(statistic.getMin().setScale(2, RoundingMode.HALF_UP).toString());
-		statisticDTO.setSum(statistic.getSum().setScale(2, RoundingMode.HALF_UP).toString());
-		statisticDTO.setCount(statistic.getCount());
-		return statisticDTO;
-	}
-}
+package com.transactions.store.controller;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.transactions.store.controller.TransactionController;
+import com.transactions.store.controller.util.BatchReader;
+import com.transactions.store.controller.util.BinaryTransactionFormat;
+import com.transactions.store.controller.util.ConverterUtils;
+import com.transactions.store.controller.util.JsonCodec;
+import com.transactions.store.controller.util.PrometheusExporter;
+import com.transactions.store.controller.util.StatisticsCache;
+import com.transactions.store.controller.util.StatisticsStream;
+import com.transactions.store.controller.util.Validation;
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.StatisticsRepositoryImpl;
+import com.transactions.store.service.Metrics;
+import com.transactions.store.service.TransactionService;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TransactionControllerTest {
+
+	@Mock
+	private TransactionService transactionService;
+
+	@InjectMocks
+	private TransactionController transactionController;
+
+	/**
+	 * Mock Mvc
+	 */
+	private MockMvc endpoint;
+
+	@Mock
+	private ConverterUtils converterUtils;
+	
+	/**
+	 * Statistics stream, published by the tests instead of its thread
+	 */
+	private StatisticsStream statisticsStream;
+	
+	private Metrics metrics = new Metrics();
+	
+	private static final String SAVE_TRANSACTION_ENDPOINT = "/transactions";
+	private static final String STATISTICS_ENDPOINT = "/statistics";
+	private static final String EMPTY_STATISTIC_JSON = "{\"sum\":\"0.00\",\"avg\":\"0.00\",\"max\":\"0.00\",\"min\":\"0.00\",\"count\":0}";
+
+	@Before
+	public void init() {
+		// Process mock annotations
+		MockitoAnnotations.initMocks(this);
+		// the time is frozen, so the cached statistics only change with the generation
+		long now = System.currentTimeMillis();
+		StatisticsCache statisticsCache = new StatisticsCache(transactionService, () -> now, 1000L);
+		statisticsStream = new StatisticsStream(statisticsCache, 1000L, 0L, 10000L);
+		ReflectionTestUtils.setField(transactionController, "batchReader", new BatchReader(transactionService, converterUtils));
+		ReflectionTestUtils.setField(transactionController, "statisticsCache", statisticsCache);
+		ReflectionTestUtils.setField(transactionController, "statisticsStream", statisticsStream);
+		ReflectionTestUtils.setField(transactionController, "metrics", metrics);
+		ReflectionTestUtils.setField(transactionController, "prometheusExporter", new PrometheusExporter(transactionService, converterUtils));
+		endpoint = MockMvcBuilders.standaloneSetup(transactionController).build();
+	}
+
+	/**
+	 * Testing controller always returns a 201 HTTP Code when a transaction is
+	 * created
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionCreated() throws Exception {
+		Mockito.doNothing().when(transactionService).save(Mockito.any(Transaction.class));
+		Mockito.doReturn(Validation.ACCEPTED).when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		String transactionContent = getTransactionJson();
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+	}
+
+	/**
+	 * Testing controller always returns a 204 HTTP Code when a transaction time
+	 * stamp is expired
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionOldTimeStamp() throws Exception {
+		Mockito.doReturn(Validation.OLDER).when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		String transactionContent = getTransactionJsonOlder();
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+	}
+	/**
+	 * Testing controller always returns a 422 HTTP Code when a transaction time
+	 * stamp is in the future
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionFutureTimeStamp() throws Exception {
+		Mockito.doReturn(Validation.FUTURE).when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		String transactionContent = getTransactionJsonOlder();
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+	}
+	/** 422 HTTP Code error when unparsable amount
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnparseableAmountTransaction() throws Exception {
+		Mockito.doReturn(Validation.UNPARSEABLE).when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		String transactionContent = getTransactionJson("100FFF00", ZonedDateTime.now(ZoneOffset.UTC).toString());
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+	}
+	
+	/** 422 HTTP Code error when unparsable timestamp
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnparseableTimeStampTransaction() throws Exception {
+		Mockito.doReturn(Validation.UNPARSEABLE).when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		String transactionContent = getTransactionJson("100.00", "HHHHHH");
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+	}
+	
+	/**
+	 * A 400 HTTP Code is returned when a not content is sent
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBadRequestNoContentSent() throws Exception {
+		Mockito.doCallRealMethod().when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content("{}"))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+	/**
+	 * A 404 HTTP Code is returned when a not valid transaction is sent
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBadRequestWhenInvalidIsTransactionSent() throws Exception {
+		Mockito.doCallRealMethod().when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		String transactionContent = getTransactionJson();
+		transactionContent = transactionContent.replaceFirst("100.00", "");
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON).content(transactionContent))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+
+	/**
+	 * Testing an new empty statistic is returned when no transaction saved before
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsCeroValuesWhenNoTransactionSavedBefore() throws Exception {
+		Mockito.doReturn(new Statistic()).when(transactionService).getStatistics();
+		MvcResult result = endpoint
+				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		String response = result.getResponse().getContentAsString();
+		assertTrue(response.equals(EMPTY_STATISTIC_JSON));
+	}
+	
+	/**
+	 * Testing a statistic is returned when one transaction is in memory
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsOneTransactionSaved() throws Exception {
+		Statistic statistic = getStatistic(getTransaction());
+		Mockito.doReturn(statistic).when(transactionService).getStatistics();
+		MvcResult result = endpoint
+				.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).contentType(MediaType.APPLICATION_JSON))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		String response = result.getResponse().getContentAsString();
+		assertTrue(response.contains("\"count\":1"));
+		assertTrue(response.equals(getStatisticJson(statistic)));
+	}
+	
+	/**
+	 * Testing the statistics are rendered once per generation and a matching entity tag gets a 304
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsNotModifiedWhenETagMatches() throws Exception {
+		Mockito.doReturn(getStatistic(getTransaction())).when(transactionService).getStatistics();
+		String eTag = endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(MockMvcResultMatchers.status().isNotModified());
+		Mockito.verify(transactionService, Mockito.times(1)).getStatistics();
+		Mockito.doReturn(1L).when(transactionService).generation();
+		endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(MockMvcResultMatchers.status().isNotModified());
+		Mockito.verify(transactionService, Mockito.times(2)).getStatistics();
+	}
+	
+	/**
+	 * Testing a window longer than the statistics engine keeps, such as 5m with the map engine, gets a 400 HTTP Code
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsWindowLongerThanRetentionBadRequest() throws Exception {
+		Mockito.doCallRealMethod().when(converterUtils).asWindow(Mockito.any(), Mockito.anyLong());
+		Mockito.doReturn(new StatisticsRepositoryImpl(TimeUnit.SECONDS.toMillis(60)).getRetention()).when(transactionService).retention();
+		Mockito.doReturn(new Statistic()).when(transactionService).getStatistics(Mockito.anyLong());
+		endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).param("window", "1m"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+		endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT).param("window", "5m"))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+		Mockito.verify(transactionService).getStatistics(TimeUnit.MINUTES.toMillis(1));
+		Mockito.verify(transactionService, Mockito.never()).getStatistics(TimeUnit.MINUTES.toMillis(5));
+	}
+	
+	/**
+	 * Testing the statistics stream sends the statistics on subscription and once on every change
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsStreamSendsChanges() throws Exception {
+		Mockito.doReturn(new Statistic()).when(transactionService).getStatistics();
+		MvcResult result = endpoint.perform(MockMvcRequestBuilders.get(STATISTICS_ENDPOINT + "/stream").accept(MediaType.TEXT_EVENT_STREAM))
+				.andExpect(MockMvcResultMatchers.request().asyncStarted()).andReturn();
+		String empty = EMPTY_STATISTIC_JSON;
+		assertTrue(result.getResponse().getContentType().startsWith(MediaType.TEXT_EVENT_STREAM_VALUE));
+		assertTrue(awaitEvents(result, 1)[0].matches("id:\"\\p{XDigit}+\"\ndata:\\Q" + empty + "\\E"));
+		statisticsStream.publish();
+		Statistic statistic = getStatistic(getTransaction());
+		Mockito.doReturn(statistic).when(transactionService).getStatistics();
+		Mockito.doReturn(1L).when(transactionService).generation();
+		statisticsStream.publish();
+		statisticsStream.publish();
+		String[] events = awaitEvents(result, 2);
+		assertTrue(events.length == 2);
+		assertTrue(events[1].endsWith("data:" + getStatisticJson(statistic)));
+		assertTrue(statisticsStream.subscribers() == 1);
+	}
+	
+	/**
+	 * Wait for the sender threads to write the events of the stream
+	 * @return events written, at least the given number unless the wait timed out
+	 */
+	private String[] awaitEvents(MvcResult result, int events) throws Exception {
+		for (int attempt = 0; attempt < 500 && result.getResponse().getContentAsString().split("\n\n", -1).length <= events; attempt++) {
+			Thread.sleep(10);
+		}
+		// let an unexpected event arrive too
+		Thread.sleep(50);
+		return result.getResponse().getContentAsString().split("\n\n");
+	}
+	
+	/**
+	 * Testing the batch end point counts every line as the single transaction end point would answer it
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveBatchCountsLines() throws Exception {
+		String transaction = getTransactionJson();
+		String older = getTransactionJsonOlder();
+		Mockito.doAnswer(invocation -> {
+			String line = new String(invocation.<byte[]> getArgument(0), invocation.<Integer> getArgument(1),
+					invocation.<Integer> getArgument(2) - invocation.<Integer> getArgument(1), StandardCharsets.UTF_8);
+			if (line.equals(transaction)) {
+				return Validation.ACCEPTED;
+			}
+			if (line.equals(older)) {
+				return Validation.OLDER;
+			}
+			return JsonCodec.readTransaction(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2), (text, from, to) -> 0L,
+					invocation.getArgument(3));
+		}).when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		String batch = transaction + "\r\n\n" + older + "\nnot json\n{\"amount\":\"1\"}";
+		MvcResult result = endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT + "/batch").content(batch))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().equals("{\"accepted\":1,\"older\":1,\"rejected\":2}"));
+		Mockito.verify(transactionService).saveAll(Mockito.argThat(transactions -> transactions.size() == 1));
+	}
+	
+	/**
+	 * Testing the binary end point saves the decoded record with the same answers than the JSON one
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveBinaryTransaction() throws Exception {
+		long now = System.currentTimeMillis();
+		ByteBuffer buffer = ByteBuffer.allocate(BinaryTransactionFormat.MAX_LENGTH);
+		BinaryTransactionFormat.write(buffer, now, new BigDecimal("100.25"), null);
+		byte[] transaction = Arrays.copyOf(buffer.array(), buffer.position());
+		Mockito.doReturn(Validation.ACCEPTED).when(converterUtils).validateTimestamp(now);
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(BinaryTransactionFormat.MEDIA_TYPE).content(transaction))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		Mockito.verify(transactionService).save(now, 10025L, 2, null);
+		Mockito.doReturn(Validation.OLDER).when(converterUtils).validateTimestamp(now);
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(BinaryTransactionFormat.MEDIA_TYPE).content(transaction))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(BinaryTransactionFormat.MEDIA_TYPE)
+				.content(Arrays.copyOf(transaction, transaction.length - 1)))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+	}
+	
+	/**
+	 * Testing the binary batch end point counts every record as the single transaction end point would answer it
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveBinaryBatchCountsRecords() throws Exception {
+		long now = System.currentTimeMillis();
+		ByteBuffer buffer = ByteBuffer.allocate(4 * BinaryTransactionFormat.MAX_LENGTH);
+		BinaryTransactionFormat.write(buffer, now, new BigDecimal("1.5"), "merchant");
+		BinaryTransactionFormat.write(buffer, now - 61000, BigDecimal.ONE, null);
+		BinaryTransactionFormat.write(buffer, now, BigDecimal.ONE, StringUtils.repeat("k", 65));
+		BinaryTransactionFormat.write(buffer, now, BigDecimal.TEN, null);
+		Mockito.doReturn(Validation.ACCEPTED).when(converterUtils).validateTimestamp(now);
+		Mockito.doReturn(Validation.OLDER).when(converterUtils).validateTimestamp(now - 61000);
+		Mockito.doAnswer(invocation -> invocation.getArgument(0)).when(converterUtils).count(Mockito.any());
+		MvcResult result = endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT + "/batch").contentType(BinaryTransactionFormat.MEDIA_TYPE)
+				.content(Arrays.copyOf(buffer.array(), buffer.position() - 1)))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		assertTrue(result.getResponse().getContentAsString().equals("{\"accepted\":1,\"older\":1,\"rejected\":2}"));
+		Mockito.verify(transactionService).save(now, 15L, 1, "merchant");
+		Mockito.verify(transactionService, Mockito.times(1)).save(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyInt(), Mockito.any());
+	}
+	
+	/**
+	 * Testing the metrics end point writes the rejections and the latencies of the end points in the Prometheus text format
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testMetricsInPrometheusFormat() throws Exception {
+		Mockito.doReturn(Validation.ACCEPTED).when(converterUtils).validate(Mockito.any(), Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+		Mockito.doAnswer(invocation -> invocation.getArgument(0) == Validation.OLDER ? 3L : 0L).when(converterUtils).rejections(Mockito.any());
+		Mockito.doReturn(metrics).when(transactionService).getMetrics();
+		endpoint.perform(MockMvcRequestBuilders.post(SAVE_TRANSACTION_ENDPOINT).contentType(MediaType.APPLICATION_JSON)
+				.content(getTransactionJson()))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		MvcResult result = endpoint.perform(MockMvcRequestBuilders.get("/metrics"))
+				.andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
+		String metrics = result.getResponse().getContentAsString();
+		assertTrue(result.getResponse().getContentType().startsWith("text/plain"));
+		assertTrue(metrics.contains("transactions_rejected_total{reason=\"older\"} 3\n"));
+		assertTrue(metrics.contains("transactions_rejected_total{reason=\"future\"} 0\n"));
+		assertTrue(metrics.contains("# TYPE http_request_seconds summary\n"));
+		assertTrue(metrics.contains("http_request_seconds_count{endpoint=\"save\"} 1\n"));
+		assertTrue(metrics.contains("http_request_seconds_count{endpoint=\"batch\"} 0\n"));
+		assertTrue(metrics.contains("http_request_seconds{endpoint=\"save\",quantile=\"0.999\"} "));
+		assertTrue(!metrics.contains("ingestion_queue_depth"));
+	}
+	
+	/**
+	 * Testing controller returns a 201 HTTP Code when a snapshot is written
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSnapshotCreated() throws Exception {
+		Mockito.doReturn(1).when(transactionService).snapshot();
+		endpoint.perform(MockMvcRequestBuilders.post(STATISTICS_ENDPOINT + "/snapshot"))
+				.andExpect(MockMvcResultMatchers.status().isCreated());
+		Mockito.verify(transactionService).snapshot();
+	}
+
+	/**
+	 * Build a transaction
+	 * @return
+	 */
+	private Transaction getTransaction() {
+		return new Transaction(new BigDecimal(100), ZonedDateTime.now(ZoneOffset.UTC).toEpochSecond(), null); 
+	}
+	/**
+	 * Build a transaction
+	 * @return
+	 */
+	private String getTransactionJson() {
+		return getTransactionJson("100.00", ZonedDateTime.now(ZoneOffset.UTC).toString());
+	}
+	private String getTransactionJsonOlder() {
+		return getTransactionJson("100.00", ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(61).toString());
+	}
+	private String getTransactionJson(String amount, String timestamp) {
+		return "{\"amount\":\"" + amount + "\",\"timestamp\":\"" + timestamp + "\"}";
+	}
+	/**
+	 * Build a new statistic object from a transaction
+	 * @param t
+	 * @return
+	 */
+	private Statistic getStatistic(Transaction t) {
+		Statistic statistic = new Statistic();
+		statistic.setAvg(BigDecimal.ONE);
+		statistic.setCount(1L);
+		statistic.setSum(t.getAmount());
+		statistic.setMax(t.getAmount());
+		statistic.setMin(t.getAmount());
+		statistic.setTimestamp(t.getTimestamp());
+		return statistic;
+	}
+	/**
+	 * Render a statistic without percentiles as the statistics end point answers it
+	 * @param statistic
+	 * @return
+	 */
+	private String getStatisticJson(Statistic statistic) {
+		return "{\"sum\":\"" + statistic.getSum().setScale(2, RoundingMode.HALF_UP) + "\",\"avg\":\"" + statistic.getAvg().setScale(2, RoundingMode.HALF_UP)
+				+ "\",\"max\":\"" + statistic.getMax().setScale(2, RoundingMode.HALF_UP) + "\",\"min\":\"" + statistic.getMin().setScale(2, RoundingMode.HALF_UP)
+				+ "\",\"count\":" + statistic.getCount() + "}";
+	}
+}
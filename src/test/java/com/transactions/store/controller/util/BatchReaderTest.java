@@ -0,0 +1,90 @@
+package com.transactions.store.controller.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.transactions.store.dto.BatchResultDTO;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.service.SystemTimeSource;
+import com.transactions.store.service.TransactionService;
+
+/**
+ * Batch reader tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BatchReaderTest {
+
+	@Mock
+	TransactionService transactionService;
+
+	BatchReader batchReader;
+
+	/**
+	 * Transactions handed to the service
+	 */
+	List<Transaction> saved = new ArrayList<>();
+
+	@Before
+	public void init() {
+		ConverterUtils converterUtils = new ConverterUtils();
+		ReflectionTestUtils.setField(converterUtils, "timeToKeepAlive", 60L);
+		ReflectionTestUtils.setField(converterUtils, "timeSource", new SystemTimeSource());
+		Mockito.doAnswer(invocation -> saved.addAll(invocation.getArgument(0))).when(transactionService).saveAll(ArgumentMatchers.anyList());
+		batchReader = new BatchReader(transactionService, converterUtils);
+	}
+
+	/**
+	 * Lines ended by CRLF and a last line without a newline are read as any other line
+	 */
+	@Test
+	public void whenLinesEndWithCrlfOrWithoutNewlineTheyAreAccepted() throws Exception {
+		BatchResultDTO result = read(line("1.5") + "\r\n" + line("2.5") + "\r\n\r\n" + line("3"));
+		assertTrue(Objects.equals(result, new BatchResultDTO(3L, 0L, 0L)));
+		assertTrue(Objects.equals(saved.size(), 3));
+		assertTrue(saved.get(2).getAmount().compareTo(new BigDecimal(3)) == 0);
+	}
+
+	/**
+	 * A line longer than any transaction is rejected once and skipped up to its newline, even when it
+	 * is longer than the buffer, and the next lines are still read
+	 */
+	@Test
+	public void whenLineIsTooLongItIsRejectedAndSkipped() throws Exception {
+		StringBuilder padding = new StringBuilder();
+		for (int i = 0; i < 1 << 17; i++) {
+			padding.append(' ');
+		}
+		String longAmount = line("1" + padding.substring(0, 5000).replace(' ', '0'));
+		BatchResultDTO result = read(line("1") + "\n{" + padding + line("2").substring(1) + "\n" + longAmount + "\n" + line("4"));
+		assertTrue(Objects.equals(result, new BatchResultDTO(2L, 0L, 2L)));
+		assertTrue(Objects.equals(saved.size(), 2));
+		assertTrue(saved.get(1).getAmount().compareTo(new BigDecimal(4)) == 0);
+	}
+
+	private BatchResultDTO read(String body) throws Exception {
+		return batchReader.readLines(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String line(String amount) {
+		return "{\"amount\":\"" + amount + "\",\"timestamp\":\"" + Instant.now() + "\"}";
+	}
+}
@@ -1,109 +1,127 @@
-package com.transactions.store.controller.util;
-
-import static org.junit.Assert.assertTrue;
-
-import java.math.BigDecimal;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.util.Objects;
-
-import org.apache.commons.lang3.math.NumberUtils;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.junit.MockitoJUnitRunner;
-import org.springframework.test.util.ReflectionTestUtils;
-
-import com.transactions.store.controller.exception.FutureTransactionException;
-import com.transactions.store.controller.exception.OlderTransactionException;
-import com.transactions.store.controller.exception.ParseableTransactionException;
-import com.transactions.store.controller.util.ConverterUtils;
-import com.transactions.store.dto.StatisticDTO;
-import com.transactions.store.dto.TransactionDTO;
-import com.transactions.store.model.Statistic;
-import com.transactions.store.model.Transaction;
-
-/**
- * Transactions service tests
- * 
- * @author onoriel
- *
- */
-@RunWith(MockitoJUnitRunner.class)
-public class ConverterUtilTest {
-
-	
-	ConverterUtils converterUtils;
-	
-	Long timeToKeepAlive = 60L;
-	
-	@Before
-	public void init() {
-		converterUtils = new ConverterUtils();
-		ReflectionTestUtils.setField(converterUtils, "timeToKeepAlive", timeToKeepAlive);
-	}
-	
-	
-	@Test
-	public void testEmptyStatisticDTOGeneration() throws Exception {
-		StatisticDTO statisticDTO = converterUtils.asStatisticDTO(new Statistic());
-		assertTrue(!Objects.isNull(statisticDTO));
-		assertTrue(Objects.equals(statisticDTO.getCount(), NumberUtils.LONG_ZERO));
-		assertTrue(Objects.equals(statisticDTO.getSum(), "0.00"));
-	}
-	
-	@Test
-	public void testTransactionGeneration() throws Exception {
-		Transaction transaction = converterUtils.asTrasanctionEntity(getTransactionDTO());
-		assertTrue(!Objects.isNull(transaction));
-		assertTrue(transaction.getAmount().compareTo(new BigDecimal(100.00)) == 0);
-		assertTrue(Objects.equals(transaction.getTimestamp(), ZonedDateTime.now(ZoneOffset.UTC).toEpochSecond()));
-	}
-	
-	@Test(expected=NullPointerException.class)
-	public void testTransactionGenerationWhenNullObject() throws Exception {
-		converterUtils.asTrasanctionEntity(null);
-	}
-	
-	@Test(expected=NullPointerException.class)
-	public void testTransactionDTOGenerationWhenNullObject() throws Exception {
-		converterUtils.asStatisticDTO(null);
-	}
-	
-	@Test(expected=ParseableTransactionException.class)
-	public void testParseableAmountValidationForTransactionModel() throws Exception {
-		TransactionDTO transaction = getTransactionDTO();
-		transaction.setAmount("100FFF00");
-		converterUtils.asTrasanctionEntity(transaction);
-		
-	}
-	@Test(expected=ParseableTransactionException.class)
-	public void testParseableTimeStampValidationForTransactionModel() throws Exception {
-		TransactionDTO transaction = getTransactionDTO();
-		transaction.setTimestamp("HHHHHH");
-		converterUtils.asTrasanctionEntity(transaction);
-		
-	}
-	@Test(expected=FutureTransactionException.class)
-	public void testFutureTimeStampValidationForTransactionModel() throws Exception {
-		converterUtils.asTrasanctionEntity(getFutureTransactionDTO(getTransactionDTO()));
-	}
-	@Test(expected=OlderTransactionException.class)
-	public void testOldTimeStampValidationForTransactionModel() throws Exception {
-		converterUtils.asTrasanctionEntity(getOldTransactionDTO(getTransactionDTO()));
-	}
-	
-	private TransactionDTO getTransactionDTO() {
-		ZonedDateTime timstamp = ZonedDateTime.now(ZoneOffset.UTC);
-		return new TransactionDTO("100.00", timstamp.toString()); 
-	}
-	private TransactionDTO getOldTransactionDTO(TransactionDTO transaction) {
-		transaction.setTimestamp(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(61).toString());
-		return transaction;
-	}
-	private TransactionDTO getFutureTransactionDTO(TransactionDTO transaction) {
-		transaction.setTimestamp(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(61).toString());
-		return transaction; 
-	}	
-
-}
+package com.transactions.store.controller.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.transactions.store.controller.exception.UnsupportedWindowException;
+import com.transactions.store.controller.util.ConverterUtils;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.OffHeapStatisticsRepository;
+import com.transactions.store.service.CoarseTimeSource;
+import com.transactions.store.service.SystemTimeSource;
+
+/**
+ * Transactions service tests
+ * 
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ConverterUtilTest {
+
+	
+	ConverterUtils converterUtils;
+	
+	Long timeToKeepAlive = 60L;
+	
+	/**
+	 * Longest window served, one day (milliseconds)
+	 */
+	static final long RETENTION = 86400000L;
+	
+	@Before
+	public void init() {
+		converterUtils = new ConverterUtils();
+		ReflectionTestUtils.setField(converterUtils, "timeToKeepAlive", timeToKeepAlive);
+		ReflectionTestUtils.setField(converterUtils, "timeSource", new SystemTimeSource());
+	}
+	
+	
+	@Test
+	public void testTransactionGeneration() throws Exception {
+		String timestamp = ZonedDateTime.now(ZoneOffset.UTC).toString();
+		Transaction transaction = new Transaction();
+		assertTrue(validate(getTransactionJson("100.00", timestamp), transaction) == Validation.ACCEPTED);
+		assertTrue(transaction.getAmount().compareTo(new BigDecimal(100.00)) == 0);
+		assertTrue(Objects.equals(transaction.getTimestamp(), ZonedDateTime.parse(timestamp).toInstant().toEpochMilli()));
+	}
+	
+	@Test
+	public void testParseableTimeStampValidationForTransactionModel() throws Exception {
+		assertTrue(validate(getTransactionJson("100.00", "HHHHHH"), new Transaction()) == Validation.UNPARSEABLE);
+	}
+	
+	@Test
+	public void testValidationWithoutExceptionsCountsRejections() throws Exception {
+		String now = ZonedDateTime.now(ZoneOffset.UTC).toString();
+		Transaction transaction = new Transaction();
+		assertTrue(validate(getTransactionJson("100.00", now), transaction) == Validation.ACCEPTED);
+		assertTrue(transaction.getAmount().compareTo(new BigDecimal("100.00")) == 0);
+		assertTrue(validate(getTransactionJson("100.00", ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(61).toString()), new Transaction()) == Validation.OLDER);
+		assertTrue(validate(getTransactionJson("100.00", ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(61).toString()), new Transaction()) == Validation.FUTURE);
+		assertTrue(validate(getTransactionJson("100FFF00", now), new Transaction()) == Validation.UNPARSEABLE);
+		assertTrue(validate(getTransactionJson("100.00", "2018-07-17T09:59:51.312Zulu"), new Transaction()) == Validation.UNPARSEABLE);
+		assertTrue(Validation.UNPARSEABLE.getResponse().getStatusCodeValue() == 422);
+		try {
+			converterUtils.validate("{}".getBytes(StandardCharsets.UTF_8), 0, 2, new Transaction());
+		} catch (HttpMessageNotReadableException exception) {
+			// malformed bodies are still thrown, and counted
+		}
+		assertTrue(converterUtils.rejections(Validation.UNREADABLE) == 1);
+		assertTrue(converterUtils.rejections(Validation.OLDER) == 1);
+		assertTrue(converterUtils.rejections(Validation.FUTURE) == 1);
+		assertTrue(converterUtils.rejections(Validation.UNPARSEABLE) == 2);
+		assertTrue(converterUtils.rejections(Validation.ACCEPTED) == 0);
+	}
+	
+	@Test
+	public void testCurrentTransactionAcceptedWhenClockLags() throws Exception {
+		CoarseTimeSource timeSource = new CoarseTimeSource(10L);
+		// the ticker is not started, the cached time stays a second behind the system clock
+		ReflectionTestUtils.setField(timeSource, "currentTime", System.currentTimeMillis() - 1000L);
+		ReflectionTestUtils.setField(converterUtils, "timeSource", timeSource);
+		assertTrue(converterUtils.validateTimestamp(System.currentTimeMillis()) == Validation.ACCEPTED);
+		assertTrue(converterUtils.validateTimestamp(System.currentTimeMillis() + 60000L) == Validation.FUTURE);
+	}
+	
+	@Test
+	public void testWindowGeneration() throws Exception {
+		assertTrue(Objects.equals(converterUtils.asWindow("5m", RETENTION), 300000L));
+		assertTrue(Objects.equals(converterUtils.asWindow("24h", RETENTION), 86400000L));
+		assertTrue(Objects.equals(converterUtils.asWindow("500ms", RETENTION), 500L));
+	}
+	@Test(expected=UnsupportedWindowException.class)
+	public void testUnparseableWindowValidation() throws Exception {
+		converterUtils.asWindow("5 minutes", RETENTION);
+	}
+	@Test(expected=UnsupportedWindowException.class)
+	public void testWindowLongerThanRetentionValidation() throws Exception {
+		converterUtils.asWindow("2d", RETENTION);
+	}
+	@Test(expected=UnsupportedWindowException.class)
+	public void testWindowLongerThanOffHeapEngineValidation() throws Exception {
+		converterUtils.asWindow("5m", new OffHeapStatisticsRepository(TimeUnit.SECONDS.toMillis(timeToKeepAlive), 1000L, 4).getRetention());
+	}
+	
+	private Validation validate(String transactionJson, Transaction transaction) throws Exception {
+		byte[] json = transactionJson.getBytes(StandardCharsets.UTF_8);
+		return converterUtils.validate(json, 0, json.length, transaction);
+	}
+	private String getTransactionJson(String amount, String timestamp) {
+		return "{\"amount\":\"" + amount + "\",\"timestamp\":\"" + timestamp + "\"}";
+	}
+
+}
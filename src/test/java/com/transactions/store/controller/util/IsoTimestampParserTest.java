@@ -0,0 +1,57 @@
+package com.transactions.store.controller.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * ISO-8601 timestamp parser tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class IsoTimestampParserTest {
+
+	/**
+	 * The forms read by the parser give the same epoch milliseconds than the full parser
+	 */
+	@Test
+	public void whenTimestampIsReadItIsTheSameThanTheFullParser() {
+		for (String timestamp : new String[] { "2018-07-17T09:59:51.312Z", "2018-07-17T09:59:51Z", "2018-07-17T09:59:51.3Z",
+				"2018-07-17T09:59:51.312999999Z", "2018-07-17T09:59:51.312+02:00", "2018-07-17T00:00:00-05:30", "2016-02-29T23:59:59.999Z",
+				"1969-12-31T23:59:59.999Z", "0001-01-01T00:00:00Z", "9999-12-31T23:59:59.999+18:00" }) {
+			assertTrue(timestamp, Objects.equals(parse(timestamp), ZonedDateTime.parse(timestamp).toInstant().toEpochMilli()));
+		}
+		Random random = new Random(17);
+		for (int sample = 0; sample < 10000; sample++) {
+			String timestamp = ZonedDateTime.now().minusSeconds(random.nextInt(Integer.MAX_VALUE)).minusNanos(random.nextInt(1000000000))
+					.toOffsetDateTime().toString();
+			assertTrue(timestamp, Objects.equals(parse(timestamp), ZonedDateTime.parse(timestamp).toInstant().toEpochMilli()));
+		}
+	}
+
+	/**
+	 * Other forms and invalid fields are left to the full parser
+	 */
+	@Test
+	public void whenTimestampIsNotReadItIsLeftToTheFullParser() {
+		for (String timestamp : new String[] { "2018-07-17T09:59:51.312Z[UTC]", "2018-07-17T09:59Z", "2018-07-17t09:59:51Z", "+12018-07-17T09:59:51Z",
+				"2018-07-17T09:59:51.1234567890Z", "2018-07-17T09:59:51.Z", "2018-07-17T09:59:51+0200", "2018-02-29T09:59:51Z", "2018-13-17T09:59:51Z",
+				"2018-07-17T24:00:00Z", "2018-07-17T09:59:60Z", "2018-07-17T09:59:51+18:01", "HHHHHHHHHHHHHHHHHHHHHH", "" }) {
+			assertTrue(timestamp, Objects.equals(parse(timestamp), IsoTimestampParser.NOT_PARSED));
+		}
+	}
+
+	private long parse(String timestamp) {
+		byte[] text = ("[" + timestamp + "]").getBytes(StandardCharsets.UTF_8);
+		return IsoTimestampParser.parse(text, 1, text.length - 1);
+	}
+}
@@ -0,0 +1,103 @@
+package com.transactions.store.controller.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.transactions.store.model.QuantileSketch;
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * JSON codec tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JsonCodecTest {
+
+	/**
+	 * Fields are read in any order, ignoring the unknown ones, and scalar values are taken as their text
+	 */
+	@Test
+	public void whenTransactionIsReadFieldsAreParsed() {
+		Transaction transaction = read("{ \"extra\": {\"nested\": [1, \"}\", null]}, \"key\": \"m\\u00e9rchant\\\"1\","
+				+ " \"timestamp\": \"2018-07-17T09:59:51.312Z\", \"amount\": \"-12.3400\" }");
+		assertTrue(Objects.equals(transaction.getAmount(), new BigDecimal("-12.3400")));
+		assertTrue(Objects.equals(transaction.getTimestamp(), 1531821591312L));
+		assertTrue(Objects.equals(transaction.getKey(), "mérchant\"1"));
+		assertTrue(Objects.equals(read("{\"amount\":1.5e2,\"timestamp\":\"2018-07-17T09:59:51.312Z\",\"key\":null}").getAmount(), new BigDecimal("1.5e2")));
+		assertTrue(Objects.equals(read("{\"amount\":\"1234567890123456789.5\",\"timestamp\":\"2018-07-17T09:59:51.312Z\"}").getAmount(),
+				new BigDecimal("1234567890123456789.5")));
+	}
+
+	/**
+	 * Malformed bodies, missing fields and invalid keys are not readable, as the Jackson binding answered them
+	 */
+	@Test
+	public void whenTransactionIsNotValidItIsNotReadable() {
+		String timestamp = ",\"timestamp\":\"2018-07-17T09:59:51.312Z\"";
+		for (String json : new String[] { "", "{}", "[]", "{\"amount\":\"1\"", "{\"amount\":\"\"" + timestamp + "}", "{\"amount\":null" + timestamp + "}",
+				"{\"amount\":[1]" + timestamp + "}", "{\"amount\":tru" + timestamp + "}", "{\"amount\":\"1\",\"timestamp\":\"\"}",
+				"{\"amount\":\"1\"" + timestamp + ",\"key\":\"\"}", "{\"amount\":\"1\"" + timestamp + ",\"key\":\"" + StringUtils.repeat("k", 65) + "\"}" }) {
+			try {
+				read(json);
+				assertTrue(json, false);
+			} catch (HttpMessageNotReadableException exception) {
+				assertTrue(!Objects.isNull(exception.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * An amount that is not a number can not be parsed
+	 */
+	@Test
+	public void whenAmountIsNotANumberItIsNotParseable() {
+		byte[] bytes = "{\"amount\":\"100FFF00\",\"timestamp\":\"2018-07-17T09:59:51.312Z\"}".getBytes(StandardCharsets.UTF_8);
+		assertTrue(JsonCodec.readTransaction(bytes, 0, bytes.length, (text, from, to) -> 0L, new Transaction()) == Validation.UNPARSEABLE);
+	}
+
+	/**
+	 * A written statistic renders the amounts rounded to cents, and the percentiles only when it holds a sketch
+	 */
+	@Test
+	public void whenStatisticIsWrittenFieldsAreRendered() {
+		QuantileSketch sketch = new QuantileSketch();
+		IntStream.rangeClosed(1, 100).forEach(sketch::add);
+		Statistic statistic = new Statistic(0L, new BigDecimal("12345678901234567890.125"), new BigDecimal("-0.005"), new BigDecimal("7.5"),
+				new BigDecimal("-3.14159"), 42L);
+		statistic.setSketch(sketch);
+		assertTrue(write(new Statistic()).equals("{\"sum\":\"0.00\",\"avg\":\"0.00\",\"max\":\"0.00\",\"min\":\"0.00\",\"count\":0}"));
+		assertTrue(write(statistic).equals("{\"sum\":\"12345678901234567890.13\",\"avg\":\"-0.01\",\"max\":\"7.50\",\"min\":\"-3.14\",\"count\":42,"
+				+ "\"p50\":\"49.90\",\"p95\":\"94.64\",\"p99\":\"98.50\"}"));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void whenStatisticIsNullItIsNotWritten() {
+		JsonCodec.writeStatistic(null);
+	}
+
+	private String write(Statistic statistic) {
+		return new String(JsonCodec.writeStatistic(statistic), StandardCharsets.UTF_8);
+	}
+
+	private Transaction read(String json) {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		Transaction transaction = new Transaction();
+		JsonCodec.readTransaction(bytes, 0, bytes.length, (text, from, to) -> Instant.parse(new String(text, from, to - from, StandardCharsets.UTF_8)).toEpochMilli(),
+				transaction);
+		return transaction;
+	}
+}
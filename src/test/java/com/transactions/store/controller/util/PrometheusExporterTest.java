@@ -0,0 +1,97 @@
+package com.transactions.store.controller.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.transactions.store.service.Metrics;
+import com.transactions.store.service.SystemTimeSource;
+import com.transactions.store.service.TransactionService;
+
+/**
+ * Prometheus exporter tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PrometheusExporterTest {
+
+	/**
+	 * Comment line of the text format
+	 */
+	private static final Pattern COMMENT = Pattern.compile("# (HELP|TYPE) ([a-zA-Z_:][a-zA-Z0-9_:]*) (.+)");
+
+	/**
+	 * Sample line of the text format, labels quoted and values as Go floats
+	 */
+	private static final Pattern SAMPLE = Pattern.compile(
+			"([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"\\\\\\n]*\"(,[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"\\\\\\n]*\")*\\})? (-?[0-9.]+(E-?[0-9]+)?|NaN)");
+
+	@Mock
+	TransactionService transactionService;
+
+	PrometheusExporter prometheusExporter;
+
+	@Before
+	public void init() {
+		ConverterUtils converterUtils = new ConverterUtils();
+		ReflectionTestUtils.setField(converterUtils, "timeToKeepAlive", 60L);
+		ReflectionTestUtils.setField(converterUtils, "timeSource", new SystemTimeSource());
+		converterUtils.count(Validation.OLDER);
+		Metrics metrics = new Metrics();
+		metrics.recordSave(System.nanoTime() - 1500);
+		Mockito.doReturn(metrics).when(transactionService).getMetrics();
+		Mockito.doReturn(3).when(transactionService).liveBuckets();
+		prometheusExporter = new PrometheusExporter(transactionService, converterUtils);
+	}
+
+	/**
+	 * Every line is a comment or a sample of the text format, and every sample belongs to a family typed before it
+	 */
+	@Test
+	public void whenScrapedEveryLineIsInTheTextFormat() {
+		String text = prometheusExporter.scrape();
+		assertTrue(text.endsWith("\n"));
+		Set<String> typed = new HashSet<>();
+		for (String line : text.split("\n")) {
+			Matcher comment = COMMENT.matcher(line);
+			if (comment.matches()) {
+				if (comment.group(1).equals("TYPE")) {
+					assertTrue(comment.group(3).matches("counter|gauge|summary"));
+					assertTrue(typed.add(comment.group(2)));
+				}
+				continue;
+			}
+			Matcher sample = SAMPLE.matcher(line);
+			assertTrue(line, sample.matches());
+			String family = sample.group(1).replaceFirst("_(sum|count)$", "");
+			assertTrue(line, typed.contains(sample.group(1)) || typed.contains(family));
+		}
+	}
+
+	/**
+	 * Counters and gauges are read from the service and the validation
+	 */
+	@Test
+	public void whenScrapedValuesAreTheCurrentOnes() {
+		String text = prometheusExporter.scrape();
+		assertTrue(text.contains("\ntransactions_saved_total 1\n"));
+		assertTrue(text.contains("\ntransactions_rejected_total{reason=\"older\"} 1\n"));
+		assertTrue(text.contains("\nstatistics_buckets 3\n"));
+		assertTrue(text.contains("\ntransactions_save_seconds_count 1\n"));
+		assertTrue(!text.contains("ingestion_queue"));
+		Mockito.verify(transactionService, Mockito.never()).getStatistics();
+	}
+}
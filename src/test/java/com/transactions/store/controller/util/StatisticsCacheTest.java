@@ -0,0 +1,125 @@
+package com.transactions.store.controller.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.StatisticsRepositoryImpl;
+import com.transactions.store.service.ManualTimeSource;
+import com.transactions.store.service.Metrics;
+import com.transactions.store.service.TransactionService;
+
+/**
+ * Statistics cache tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StatisticsCacheTest {
+
+	@Mock
+	private TransactionService transactionService;
+
+	private ManualTimeSource timeSource = new ManualTimeSource(0L);
+
+	private StatisticsCache statisticsCache;
+
+	@Before
+	public void init() {
+		statisticsCache = new StatisticsCache(transactionService, timeSource, 1000L);
+	}
+
+	/**
+	 * A response is rendered again on a new generation or a new bucket only
+	 */
+	@Test
+	public void whenGenerationOrBucketMovesResponseIsRenderedAgain() {
+		Mockito.doReturn(new Statistic()).when(transactionService).getStatistics();
+		StatisticsCache.Response response = statisticsCache.get(null);
+		timeSource.advance(999L);
+		assertTrue(statisticsCache.get(null) == response);
+		Mockito.verify(transactionService, Mockito.times(1)).getStatistics();
+		timeSource.advance(1L);
+		assertTrue(statisticsCache.get(null) != response);
+		Mockito.doReturn(1L).when(transactionService).generation();
+		statisticsCache.get(null);
+		Mockito.verify(transactionService, Mockito.times(3)).getStatistics();
+		assertTrue(statisticsCache.get(null).getETag().equals(response.getETag()));
+	}
+
+	/**
+	 * Requests concurrent with the saves always end up rendering the last save, however the saves
+	 * interleave with the reads of the generation
+	 */
+	@Test
+	public void whenSavesAreConcurrentLastSaveIsRendered() throws Exception {
+		TransactionService service = new TransactionService();
+		ReflectionTestUtils.setField(service, "statisticsRepository", new StatisticsRepositoryImpl(60000L, 1000L));
+		ReflectionTestUtils.setField(service, "timeSource", timeSource);
+		ReflectionTestUtils.setField(service, "metrics", new Metrics());
+		StatisticsCache cache = new StatisticsCache(service, timeSource, 1000L);
+		timeSource.set(60000L);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (int round = 1; round <= 500; round++) {
+				int saves = round;
+				Future<?> saver = executor.submit(() -> service.save(new Transaction(BigDecimal.ONE, 59000L + saves, null)));
+				Future<?> reader = executor.submit(() -> {
+					while (!saver.isDone()) {
+						cache.get(null);
+					}
+				});
+				saver.get();
+				reader.get();
+				String body = new String(cache.get(null).getBody(), "UTF-8");
+				assertTrue(body, body.contains("\"count\":" + saves + ","));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Concurrent requests missing the cache wait for a single rendering
+	 */
+	@Test
+	public void whenRequestsAreConcurrentResponseIsRenderedOnce() throws Exception {
+		CountDownLatch rendering = new CountDownLatch(1);
+		Mockito.doAnswer(invocation -> {
+			rendering.await();
+			return new Statistic();
+		}).when(transactionService).getStatistics();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<StatisticsCache.Response>> responses = new ArrayList<>();
+			for (int request = 0; request < 8; request++) {
+				responses.add(executor.submit(() -> statisticsCache.get(null)));
+			}
+			Thread.sleep(100);
+			rendering.countDown();
+			for (Future<StatisticsCache.Response> response : responses) {
+				assertTrue(response.get() == responses.get(0).get());
+			}
+			Mockito.verify(transactionService, Mockito.times(1)).getStatistics();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.transactions.store.model;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Quantile sketch tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class QuantileSketchTest {
+
+	/**
+	 * Estimated quantiles are within the relative accuracy of the exact ones
+	 */
+	@Test
+	public void whenAmountsAreAddedQuantilesAreWithinAccuracy() {
+		QuantileSketch sketch = new QuantileSketch();
+		IntStream.rangeClosed(1, 10000).forEach(sketch::add);
+		assertTrue(sketch.getCount() == 10000L);
+		assertTrue(isWithinAccuracy(sketch.quantile(0.50), 5000));
+		assertTrue(isWithinAccuracy(sketch.quantile(0.95), 9500));
+		assertTrue(isWithinAccuracy(sketch.quantile(0.99), 9900));
+		assertTrue(isWithinAccuracy(sketch.quantile(1.0), 10000));
+	}
+
+	/**
+	 * Merging sketches gives the same quantiles as one sketch of every amount
+	 */
+	@Test
+	public void whenSketchesAreMergedQuantilesAreTheSameAsOneSketch() {
+		QuantileSketch whole = new QuantileSketch();
+		QuantileSketch low = new QuantileSketch();
+		QuantileSketch high = new QuantileSketch();
+		IntStream.rangeClosed(1, 1000).forEach(amount -> {
+			whole.add(amount * 0.37);
+			(amount % 2 == 0 ? low : high).add(amount * 0.37);
+		});
+		QuantileSketch merged = low.copy().merge(high);
+		assertTrue(merged.getCount() == 1000L);
+		assertTrue(low.getCount() == 500L);
+		for (double quantile : new double[] { 0.0, 0.25, 0.5, 0.95, 0.99, 1.0 }) {
+			assertTrue(merged.quantile(quantile) == whole.quantile(quantile));
+		}
+	}
+
+	/**
+	 * Subtracting a sketch merged before gives the quantiles of the other amounts again
+	 */
+	@Test
+	public void whenMergedSketchIsSubtractedQuantilesAreTheSameAsBefore() {
+		QuantileSketch kept = new QuantileSketch();
+		QuantileSketch removed = new QuantileSketch();
+		IntStream.rangeClosed(1, 1000).forEach(amount -> {
+			kept.add(amount * 0.37);
+			removed.add(-amount * 50.0);
+		});
+		removed.add(0);
+		QuantileSketch sketch = kept.copy().merge(removed).subtract(removed);
+		assertTrue(sketch.getCount() == 1000L);
+		for (double quantile : new double[] { 0.0, 0.25, 0.5, 0.95, 0.99, 1.0 }) {
+			assertTrue(sketch.quantile(quantile) == kept.quantile(quantile));
+		}
+	}
+
+	/**
+	 * Negative amounts come before zeros and positive amounts
+	 */
+	@Test
+	public void whenAmountsAreNegativeTheyAreTheLowestQuantiles() {
+		QuantileSketch sketch = new QuantileSketch();
+		sketch.add(-50);
+		sketch.add(-10);
+		sketch.add(0);
+		sketch.add(10);
+		sketch.add(50);
+		assertTrue(isWithinAccuracy(sketch.quantile(0.0), -50));
+		assertTrue(isWithinAccuracy(sketch.quantile(0.25), -10));
+		assertTrue(sketch.quantile(0.5) == 0d);
+		assertTrue(isWithinAccuracy(sketch.quantile(1.0), 50));
+		assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5)));
+	}
+
+	/**
+	 * A sketch never holds more bins than the bound, the highest quantiles keep their accuracy
+	 */
+	@Test
+	public void whenAmountsSpanManyMagnitudesHighQuantilesKeepAccuracy() {
+		QuantileSketch sketch = new QuantileSketch();
+		for (double amount = 1e-9; amount < 1e200; amount *= 1.5) {
+			sketch.add(amount);
+		}
+		sketch.add(1e250);
+		assertTrue(isWithinAccuracy(sketch.quantile(1.0), 1e250));
+	}
+
+	private boolean isWithinAccuracy(double estimate, double amount) {
+		return Math.abs(estimate - amount) <= Math.abs(amount) * QuantileSketch.ACCURACY;
+	}
+}
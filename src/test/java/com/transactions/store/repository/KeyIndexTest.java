@@ -0,0 +1,64 @@
+package com.transactions.store.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Key index tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class KeyIndexTest {
+
+	/**
+	 * A key is indexed once, later lookups return the same value
+	 */
+	@Test
+	public void whenKeyIsIndexedLookupsReturnItsValue() {
+		KeyIndex<String> index = new KeyIndex<>(16);
+		assertTrue(Objects.isNull(index.get("merchant", 0L)));
+		assertTrue(Objects.equals(index.computeIfAbsent("merchant", 0L, key -> key + "-value"), "merchant-value"));
+		assertTrue(Objects.equals(index.computeIfAbsent("merchant", 1L, key -> "other"), "merchant-value"));
+		assertTrue(Objects.equals(index.get("merchant", 2L), "merchant-value"));
+		assertTrue(Objects.equals(index.size(), 1));
+	}
+
+	/**
+	 * A full index makes room for a new key evicting an old one
+	 */
+	@Test
+	public void whenIndexIsFullOldKeysAreEvicted() {
+		KeyIndex<Integer> index = new KeyIndex<>(100);
+		IntStream.range(0, 1000).forEach(key -> index.computeIfAbsent("key" + key, key, indexed -> key));
+		assertTrue(Objects.equals(index.size(), 100));
+		assertTrue(Objects.equals(index.get("key999", 1000L), 999));
+		KeyIndex<Integer> single = new KeyIndex<>(1);
+		single.computeIfAbsent("old", 0L, key -> 0);
+		single.computeIfAbsent("new", 1L, key -> 1);
+		assertTrue(Objects.isNull(single.get("old", 2L)));
+		assertTrue(Objects.equals(single.get("new", 2L), 1));
+	}
+
+	/**
+	 * Removing idle keys keeps every other key reachable
+	 */
+	@Test
+	public void whenIdleKeysAreRemovedOtherKeysRemainReachable() {
+		KeyIndex<Integer> index = new KeyIndex<>(1000);
+		IntStream.range(0, 1000).forEach(key -> index.computeIfAbsent("key" + key, key % 2, indexed -> key));
+		assertTrue(Objects.equals(index.removeIdle(0L), 500));
+		assertTrue(Objects.equals(index.size(), 500));
+		IntStream.range(0, 1000).forEach(key -> assertTrue(Objects.equals(index.get("key" + key, 2L), key % 2 == 1 ? key : null)));
+		index.clear();
+		assertTrue(Objects.equals(index.size(), 0));
+		assertTrue(Objects.isNull(index.get("key1", 3L)));
+	}
+}
@@ -0,0 +1,83 @@
+package com.transactions.store.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Objects;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Keyed statistics repository tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class KeyedStatisticsRepositoryTest {
+
+	KeyedStatisticsRepository statisticsRepository;
+
+	/**
+	 * Time to keep statistics alive
+	 */
+	Long timeToKeepAlive = 60L;
+
+	@Before
+	public void setUp() {
+		statisticsRepository = new KeyedStatisticsRepository(timeToKeepAlive, 1000, 12);
+	}
+
+	/**
+	 * Every key gets its own statistics
+	 */
+	@Test
+	public void whenTransactionsHaveDifferentKeysStatisticsAreSeparated() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save("merchant", new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save("merchant", new Transaction(new BigDecimal("0.0000001"), now - 10, null), now);
+		statisticsRepository.save("bin", new Transaction(new BigDecimal(7), now, null), now);
+		Statistic statistic = statisticsRepository.getWindowStatistic("merchant", now);
+		assertTrue(Objects.equals(statistic.getCount(), 2L));
+		assertTrue(statistic.getSum().compareTo(new BigDecimal("100.0000001")) == 0);
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal("0.0000001")));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(100)));
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic("bin", now).getCount(), 1L));
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic("unknown", now).getCount(), 0L));
+	}
+
+	/**
+	 * Key windows slide slot by slot
+	 */
+	@Test
+	public void whenKeySlotsExpireTheyLeaveTheWindow() {
+		long now = Instant.now().getEpochSecond() / 5 * 5;
+		statisticsRepository.save("merchant", new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save("merchant", new Transaction(new BigDecimal(7), now + 30, null), now + 30);
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic("merchant", now + 59).getCount(), 2L));
+		Statistic statistic = statisticsRepository.getWindowStatistic("merchant", now + 60);
+		assertTrue(Objects.equals(statistic.getCount(), 1L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(7)));
+	}
+
+	/**
+	 * Keys idle for a whole window are removed
+	 */
+	@Test
+	public void whenKeyIsIdleForAWindowItIsRemoved() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save("merchant", new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save("bin", new Transaction(new BigDecimal(7), now + 30, null), now + 30);
+		statisticsRepository.cleanOldStatistics(now + 60);
+		assertTrue(Objects.equals(statisticsRepository.size(), 1));
+		statisticsRepository.cleanAllStatistics();
+		assertTrue(Objects.equals(statisticsRepository.size(), 0));
+	}
+}
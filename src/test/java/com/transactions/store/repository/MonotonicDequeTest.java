@@ -0,0 +1,92 @@
+package com.transactions.store.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Monotonic deque tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MonotonicDequeTest {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	/**
+	 * The lowest value is kept until its bucket leaves the window
+	 */
+	@Test
+	public void whenWindowSlidesMinimumIsUpdated() {
+		MonotonicDeque minimums = new MonotonicDeque(3, false);
+		minimums.offer(1, 5);
+		minimums.offer(2, 8);
+		minimums.offer(3, 7);
+		assertTrue(minimums.peek(Long.MIN_VALUE, EMPTY) == 5);
+		minimums.expireThrough(1);
+		assertTrue(minimums.peek(Long.MIN_VALUE, EMPTY) == 7);
+		minimums.expireThrough(3);
+		assertTrue(minimums.peek(Long.MIN_VALUE, EMPTY) == EMPTY);
+	}
+
+	/**
+	 * Values of older buckets still inside the window are taken into account
+	 */
+	@Test
+	public void whenValueArrivesForOlderBucketItIsInserted() {
+		MonotonicDeque maximums = new MonotonicDeque(10, true);
+		maximums.offer(5, 10);
+		maximums.offer(2, 20);
+		maximums.offer(3, 1);
+		assertTrue(maximums.peek(Long.MIN_VALUE, EMPTY) == 20);
+		maximums.expireThrough(2);
+		assertTrue(maximums.peek(Long.MIN_VALUE, EMPTY) == 10);
+		maximums.offer(5, 12);
+		assertTrue(maximums.peek(Long.MIN_VALUE, EMPTY) == 12);
+	}
+
+	/**
+	 * Buckets out of the window are skipped before they are expired
+	 */
+	@Test
+	public void whenBucketsAreNotExpiredYetPeekSkipsThem() {
+		MonotonicDeque minimums = new MonotonicDeque(3, false);
+		minimums.offer(1, 5);
+		minimums.offer(2, 8);
+		assertTrue(minimums.peek(1, EMPTY) == 8);
+		assertTrue(minimums.peek(2, EMPTY) == EMPTY);
+		assertTrue(minimums.peek(0, EMPTY) == 5);
+	}
+
+	/**
+	 * The deque returns the same extreme as a scan of the window for random traffic
+	 */
+	@Test
+	public void whenRandomTrafficMinimumMatchesScan() {
+		int buckets = 60;
+		MonotonicDeque minimums = new MonotonicDeque(buckets, false);
+		long[] bucketMins = new long[1000];
+		Random random = new Random(7);
+		for (int now = 0; now < bucketMins.length; now++) {
+			bucketMins[now] = Long.MAX_VALUE;
+			for (int i = 0; i < 5; i++) {
+				int epoch = Math.max(0, now - random.nextInt(buckets));
+				long value = random.nextInt(10000) - 5000;
+				bucketMins[epoch] = Math.min(bucketMins[epoch], value);
+				minimums.offer(epoch, value);
+			}
+			minimums.expireThrough(now - buckets);
+			long expected = Long.MAX_VALUE;
+			for (int epoch = Math.max(0, now - buckets + 1); epoch <= now; epoch++) {
+				expected = Math.min(expected, bucketMins[epoch]);
+			}
+			assertTrue(minimums.peek(Long.MIN_VALUE, EMPTY) == expected);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.transactions.store.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Off heap statistics repository tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class OffHeapStatisticsRepositoryTest {
+
+	StatisticsRepository statisticsRepository;
+
+	/**
+	 * Time to keep statistics alive
+	 */
+	Long timeToKeepAlive = 60L;
+
+	@Before
+	public void setUp() {
+		statisticsRepository = new OffHeapStatisticsRepository(timeToKeepAlive);
+	}
+
+	/**
+	 * Transactions of the same second are merged in the same record
+	 */
+	@Test
+	public void whenSaveTwoTransactionsSameSecondOneRecordIsUsed() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal("10.25"), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal("0.5"), now, null), now);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		Statistic statistic = statistics.get(now);
+		assertTrue(Objects.equals(statistics.size(), 1));
+		assertTrue(Objects.equals(statistic.getCount(), 2L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal("10.75")));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal("10.25")));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal("0.50")));
+		assertTrue(Objects.equals(statistic.getAvg(), new BigDecimal("5.38")));
+	}
+
+	/**
+	 * A record is recycled when a transaction of the next window lands on it, and older ones are ignored
+	 */
+	@Test
+	public void whenRecordIsReusedOldValuesAreDiscarded() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal(7), now + timeToKeepAlive, null), now + timeToKeepAlive);
+		statisticsRepository.save(new Transaction(new BigDecimal(5), now, null), now);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		assertTrue(Objects.equals(statistics.size(), 1));
+		assertTrue(Objects.equals(statistics.get(now + timeToKeepAlive).getSum(), new BigDecimal(7)));
+		assertTrue(Objects.equals(statistics.get(now + timeToKeepAlive).getCount(), 1L));
+	}
+
+	/**
+	 * Only records inside the window remain after cleaning
+	 */
+	@Test
+	public void onlyRemainsRecordsInsideValidRangeExpirationTime() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + i, null), now + i));
+		int evicted = statisticsRepository.cleanOldStatistics(now + 65L);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		BigDecimal sum = statistics.values().stream().map(Statistic::getSum).reduce(BigDecimal.ZERO, BigDecimal::add);
+		assertTrue(evicted == 6);
+		assertTrue(Objects.equals(statistics.size(), 4));
+		assertTrue(Objects.equals(statisticsRepository.size(), 4));
+		assertTrue(Objects.equals(sum, new BigDecimal(30)));
+	}
+
+	/**
+	 * Parallel saves on the same record keep all values
+	 */
+	@Test
+	public void whenParallelTransactionStatsStoreAllValues() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(-1, 9999).parallel().forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i % 100), now, null), now));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now);
+		assertTrue(Objects.equals(statistic.getCount(), 10000L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(494900)));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(-1)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(99)));
+	}
+
+	/**
+	 * Transactions saved as primitives, including the ones out of the fixed point range, have the same statistics
+	 */
+	@Test
+	public void whenSavedAsPrimitivesStatisticsAreTheSame() {
+		long now = Instant.now().getEpochSecond();
+		StatisticsRepository expectedRepository = new OffHeapStatisticsRepository(timeToKeepAlive);
+		long[][] amounts = { { 1025L, 2 }, { 5L, 1 }, { 1L, 6 }, { 900000000000000L, 0 }, { 900000000000000L, 0 } };
+		for (long[] amount : amounts) {
+			statisticsRepository.save(now, amount[0], (int) amount[1], now);
+			expectedRepository.save(new Transaction(BigDecimal.valueOf(amount[0], (int) amount[1]), now, null), now);
+		}
+		Statistic statistic = statisticsRepository.getWindowStatistic(now);
+		Statistic expected = expectedRepository.getWindowStatistic(now);
+		assertTrue(Objects.equals(statistic.getCount(), 5L));
+		assertTrue(Objects.equals(statistic.getSum(), expected.getSum()));
+		assertTrue(statistic.getSum().compareTo(new BigDecimal("1800000000000010.750001")) == 0);
+		assertTrue(Objects.equals(statistic.getMin(), expected.getMin()));
+		assertTrue(statistic.getMax().compareTo(expected.getMax()) == 0);
+	}
+
+	/**
+	 * Amounts out of the fixed point range fall back to exact decimals
+	 */
+	@Test
+	public void whenAmountIsNotRepresentableExactDecimalIsUsed() {
+		long now = Instant.now().getEpochSecond();
+		BigDecimal precise = new BigDecimal("0.000001");
+		BigDecimal huge = new BigDecimal("900000000000000");
+		statisticsRepository.save(new Transaction(precise, now, null), now);
+		statisticsRepository.save(new Transaction(huge, now, null), now);
+		statisticsRepository.save(new Transaction(BigDecimal.ONE, now, null), now);
+		Statistic statistic = statisticsRepository.getWindowStatistic(now);
+		assertTrue(Objects.equals(statistic.getCount(), 3L));
+		assertTrue(statistic.getSum().compareTo(huge.add(precise).add(BigDecimal.ONE)) == 0);
+		assertTrue(Objects.equals(statistic.getMin(), precise));
+		assertTrue(statistic.getMax().compareTo(huge) == 0);
+	}
+
+	/**
+	 * The window statistic only folds the records of the requested window
+	 */
+	@Test
+	public void whenWindowSlidesExpiredSecondsAreNotFolded() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + i, null), now + i));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 65);
+		assertTrue(Objects.equals(statistic.getCount(), 4L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(30)));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(6)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(9)));
+		statistic = statisticsRepository.getWindowStatistic(now + 9, 3L);
+		assertTrue(Objects.equals(statistic.getCount(), 3L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(24)));
+		statistic = statisticsRepository.getWindowStatistic(now + 200);
+		assertTrue(Objects.equals(statistic.getCount(), 0L));
+		assertTrue(Objects.equals(statistic.getSum(), BigDecimal.ZERO));
+	}
+
+	/**
+	 * The longest window served is the time to keep alive, the whole window of the records
+	 */
+	@Test
+	public void whenWindowIsTheRetentionEveryRecordIsFolded() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + i, null), now + i));
+		assertTrue(Objects.equals(statisticsRepository.getRetention(), timeToKeepAlive));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 9, statisticsRepository.getRetention());
+		assertTrue(Objects.equals(statistic.getCount(), 10L));
+		assertTrue(Objects.equals(statistic.getSum(), statisticsRepository.getWindowStatistic(now + 9).getSum()));
+	}
+
+	/**
+	 * Sub-second resolution groups the transactions by bucket of milliseconds
+	 */
+	@Test
+	public void whenResolutionIsSubSecondRecordsHoldOneBucket() {
+		statisticsRepository = new OffHeapStatisticsRepository(60000L, 100L, 4);
+		long now = Instant.now().toEpochMilli() / 100 * 100;
+		statisticsRepository.save(new Transaction(new BigDecimal(1), now, null), now + 150);
+		statisticsRepository.save(new Transaction(new BigDecimal(2), now + 99, null), now + 150);
+		statisticsRepository.save(new Transaction(new BigDecimal(4), now + 100, null), now + 150);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		assertTrue(Objects.equals(statistics.size(), 2));
+		assertTrue(Objects.equals(statistics.get(now).getSum(), new BigDecimal(3)));
+		assertTrue(Objects.equals(statistics.get(now + 100).getSum(), new BigDecimal(4)));
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 60050).getSum(), new BigDecimal(4)));
+	}
+
+	/**
+	 * Cleaning all the statistics empties every record
+	 */
+	@Test
+	public void whenCleanAllStatisticsNoRecordRemains() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + i, null), now + i));
+		statisticsRepository.cleanAllStatistics();
+		assertTrue(Objects.equals(statisticsRepository.size(), 0));
+		statisticsRepository.save(new Transaction(new BigDecimal(3), now + 9, null), now + 9);
+		assertTrue(Objects.equals(statisticsRepository.getStatistics().size(), 1));
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 9).getCount(), 1L));
+	}
+}
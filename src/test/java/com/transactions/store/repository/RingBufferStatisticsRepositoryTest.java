@@ -0,0 +1,475 @@
+package com.transactions.store.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Ring buffer statistics repository tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class RingBufferStatisticsRepositoryTest {
+
+	StatisticsRepository statisticsRepository;
+
+	/**
+	 * Time to keep statistics alive
+	 */
+	Long timeToKeepAlive = 60L;
+
+	@Before
+	public void setUp() {
+		statisticsRepository = new RingBufferStatisticsRepository(timeToKeepAlive);
+	}
+
+	/**
+	 * Transactions of the same second are merged in the same slot
+	 */
+	@Test
+	public void whenSaveTwoTransactionsSameSecondOneSlotIsUsed() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal(50), now, null), now);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		Statistic statistic = statistics.get(now);
+		assertTrue(Objects.equals(statistics.size(), 1));
+		assertTrue(Objects.equals(statistic.getCount(), 2L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(150)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(100)));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(50)));
+	}
+
+	/**
+	 * A slot is recycled when a transaction of the next window lands on it
+	 */
+	@Test
+	public void whenSlotIsReusedOldValuesAreDiscarded() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal(7), now + timeToKeepAlive, null), now + timeToKeepAlive);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		assertTrue(Objects.equals(statistics.size(), 1));
+		assertTrue(Objects.equals(statistics.get(now + timeToKeepAlive).getSum(), new BigDecimal(7)));
+		assertTrue(Objects.equals(statistics.get(now + timeToKeepAlive).getCount(), 1L));
+	}
+
+	/**
+	 * Transactions already out of the window are ignored
+	 */
+	@Test
+	public void whenTransactionIsExpiredItIsNotStored() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(10), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now - timeToKeepAlive, null), now);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		assertTrue(Objects.equals(statistics.size(), 1));
+		assertTrue(Objects.equals(statistics.get(now).getSum(), new BigDecimal(10)));
+	}
+
+	/**
+	 * Only slots inside the window remain after cleaning
+	 */
+	@Test
+	public void onlyRemainsSlotsInsideValidRangeExpirationTime() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + i, null), now + i));
+		int evicted = statisticsRepository.cleanOldStatistics(now + 65L);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		BigDecimal sum = statistics.values().stream().map(Statistic::getSum).reduce(BigDecimal.ZERO, BigDecimal::add);
+		assertTrue(evicted == 6);
+		assertTrue(Objects.equals(statistics.size(), 4));
+		assertTrue(Objects.equals(statisticsRepository.size(), 4));
+		assertTrue(Objects.equals(sum, new BigDecimal(30)));
+	}
+
+	/**
+	 * Parallel saves on the same slot keep all values
+	 */
+	@Test
+	public void whenParallelTransactionStatsStoreAllValues() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(-1, 99).parallel().forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now, null), now));
+		Statistic statistic = statisticsRepository.getStatistics().get(now);
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(4850)));
+		assertTrue(Objects.equals(statistic.getCount(), 100L));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(-1)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(98)));
+	}
+
+	/**
+	 * Parallel saves spread over striped cells are folded when the slot is read
+	 */
+	@Test
+	public void whenParallelTransactionsUseStripedCellsAllValuesAreFolded() {
+		statisticsRepository = new RingBufferStatisticsRepository(timeToKeepAlive, 8);
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10000).parallel().forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i % 100), now, null), now));
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		Statistic statistic = statistics.get(now);
+		assertTrue(Objects.equals(statistics.size(), 1));
+		assertTrue(Objects.equals(statisticsRepository.size(), 1));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(495000)));
+		assertTrue(Objects.equals(statistic.getCount(), 10000L));
+		assertTrue(Objects.equals(statistic.getMin(), BigDecimal.ZERO));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(99)));
+	}
+
+	/**
+	 * Fixed point units are turned back to the scale of the saved amounts
+	 */
+	@Test
+	public void whenFixedPointArithmeticAmountsKeepTheirScale() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal("10.25"), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal("0.5"), now, null), now);
+		Statistic statistic = statisticsRepository.getStatistics().get(now);
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal("10.75")));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal("10.25")));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal("0.50")));
+		assertTrue(Objects.equals(statistic.getAvg(), new BigDecimal("5.38")));
+	}
+
+	/**
+	 * Transactions saved as primitives, including the ones out of the fixed point range, have the same statistics
+	 */
+	@Test
+	public void whenSavedAsPrimitivesStatisticsAreTheSame() {
+		long now = Instant.now().getEpochSecond();
+		StatisticsRepository expectedRepository = new RingBufferStatisticsRepository(timeToKeepAlive);
+		long[][] amounts = { { 1025L, 2 }, { 5L, 1 }, { 1L, 6 }, { 900000000000000L, 0 }, { 900000000000000L, 0 } };
+		for (long[] amount : amounts) {
+			statisticsRepository.save(now, amount[0], (int) amount[1], now);
+			expectedRepository.save(new Transaction(BigDecimal.valueOf(amount[0], (int) amount[1]), now, null), now);
+		}
+		Statistic statistic = statisticsRepository.getStatistics().get(now);
+		Statistic expected = expectedRepository.getStatistics().get(now);
+		assertTrue(Objects.equals(statistic.getCount(), 5L));
+		assertTrue(Objects.equals(statistic.getSum(), expected.getSum()));
+		assertTrue(statistic.getSum().compareTo(new BigDecimal("1800000000000010.750001")) == 0);
+		assertTrue(Objects.equals(statistic.getMin(), expected.getMin()));
+		assertTrue(statistic.getMax().compareTo(expected.getMax()) == 0);
+	}
+
+	/**
+	 * Amounts out of the fixed point range fall back to exact decimals
+	 */
+	@Test
+	public void whenAmountIsNotRepresentableExactDecimalIsUsed() {
+		long now = Instant.now().getEpochSecond();
+		BigDecimal precise = new BigDecimal("0.000001");
+		BigDecimal huge = new BigDecimal("900000000000000");
+		statisticsRepository.save(new Transaction(precise, now, null), now);
+		statisticsRepository.save(new Transaction(huge, now, null), now);
+		statisticsRepository.save(new Transaction(huge, now, null), now);
+		statisticsRepository.save(new Transaction(BigDecimal.ONE, now, null), now);
+		Statistic statistic = statisticsRepository.getStatistics().get(now);
+		assertTrue(Objects.equals(statistic.getCount(), 4L));
+		assertTrue(statistic.getSum().compareTo(huge.add(huge).add(precise).add(BigDecimal.ONE)) == 0);
+		assertTrue(Objects.equals(statistic.getMin(), precise));
+		assertTrue(statistic.getMax().compareTo(huge) == 0);
+	}
+
+	/**
+	 * Decimal arithmetic keeps the same statistics than fixed point
+	 */
+	@Test
+	public void whenDecimalArithmeticStatisticsAreExact() {
+		statisticsRepository = new RingBufferStatisticsRepository(timeToKeepAlive, 2, "decimal", 4);
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(-1, 99).parallel().forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now, null), now));
+		Statistic statistic = statisticsRepository.getStatistics().get(now);
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(4850)));
+		assertTrue(Objects.equals(statistic.getCount(), 100L));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(-1)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(98)));
+	}
+
+	/**
+	 * The window statistic adds every save and subtracts the seconds leaving the window
+	 */
+	@Test
+	public void whenWindowSlidesExpiredSecondsAreSubtracted() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + i, null), now + i));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 9);
+		assertTrue(Objects.equals(statistic.getCount(), 10L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(45)));
+		statistic = statisticsRepository.getWindowStatistic(now + 65);
+		assertTrue(Objects.equals(statistic.getCount(), 4L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(30)));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(6)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(9)));
+		assertTrue(Objects.equals(statistic.getAvg(), new BigDecimal("7.50")));
+		statistic = statisticsRepository.getWindowStatistic(now + 200);
+		assertTrue(Objects.equals(statistic.getCount(), 0L));
+		assertTrue(Objects.equals(statistic.getSum(), BigDecimal.ZERO));
+	}
+
+	/**
+	 * Evicting the expired seconds does not change the window statistic already discounting them
+	 */
+	@Test
+	public void whenExpiredSecondsAreEvictedWindowStatisticIsTheSame() {
+		long now = Instant.now().getEpochSecond();
+		IntStream.range(0, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + i, null), now + i));
+		Statistic beforeEviction = statisticsRepository.getWindowStatistic(now + 65);
+		statisticsRepository.cleanOldStatistics(now + 65);
+		Statistic afterEviction = statisticsRepository.getWindowStatistic(now + 65);
+		assertTrue(Objects.equals(beforeEviction, afterEviction));
+		assertTrue(Objects.equals(afterEviction.getCount(), 4L));
+	}
+
+	/**
+	 * Lowest and highest amounts slide with the window
+	 */
+	@Test
+	public void whenWindowSlidesExtremesAreUpdated() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(1), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal(500), now + 10, null), now + 10);
+		statisticsRepository.save(new Transaction(new BigDecimal(50), now + 30, null), now + 30);
+		statisticsRepository.save(new Transaction(new BigDecimal(2), now + 5, null), now + 30);
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 30);
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(1)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(500)));
+		statistic = statisticsRepository.getWindowStatistic(now + 62);
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(2)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(500)));
+		statistic = statisticsRepository.getWindowStatistic(now + 70);
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal(50)));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(50)));
+	}
+
+	/**
+	 * A recycled slot subtracts the second it held from the window statistic
+	 */
+	@Test
+	public void whenSlotIsRecycledWindowStatisticIsUpdated() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal("0.0000001"), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal(7), now + timeToKeepAlive, null), now + timeToKeepAlive);
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + timeToKeepAlive);
+		assertTrue(Objects.equals(statistic.getCount(), 1L));
+		assertTrue(statistic.getSum().compareTo(new BigDecimal(7)) == 0);
+	}
+
+	/**
+	 * Cleaning all statistics empties every slot
+	 */
+	@Test
+	public void whenCleanAllStatisticsNoSlotRemains() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.cleanAllStatistics();
+		assertTrue(statisticsRepository.getStatistics().isEmpty());
+		assertTrue(Objects.equals(statisticsRepository.size(), 0));
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now).getCount(), 0L));
+	}
+
+	/**
+	 * Sub-second buckets keep transactions of the same second apart and slide the window bucket by bucket
+	 */
+	@Test
+	public void whenResolutionIsSubSecondWindowEdgeIsAccurateToOneBucket() {
+		long resolution = 10L;
+		statisticsRepository = new RingBufferStatisticsRepository(60000L, resolution, 0, "fixed", 4);
+		long now = Instant.now().toEpochMilli() / resolution * resolution;
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now + 5);
+		statisticsRepository.save(new Transaction(new BigDecimal(50), now + 5, null), now + 5);
+		statisticsRepository.save(new Transaction(new BigDecimal(7), now + 15, null), now + 15);
+		Map<Long, Statistic> statistics = statisticsRepository.getStatistics();
+		assertTrue(Objects.equals(statistics.size(), 2));
+		assertTrue(Objects.equals(statistics.get(now).getCount(), 2L));
+		assertTrue(Objects.equals(statistics.get(now + resolution).getCount(), 1L));
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 59999).getCount(), 3L));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 60000);
+		assertTrue(Objects.equals(statistic.getCount(), 1L));
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(7)));
+	}
+
+	/**
+	 * Evicted seconds roll up into minutes, so longer windows keep them while the main window drops them
+	 */
+	@Test
+	public void whenSecondsAreEvictedLongerWindowsKeepThemRolledUp() {
+		statisticsRepository = new RingBufferStatisticsRepository(timeToKeepAlive, 1L, 3600L, 0, "fixed", 4);
+		long now = Instant.now().getEpochSecond() / 60 * 60;
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal("0.0000001"), now, null), now);
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 70, 300L).getCount(), 2L));
+		statisticsRepository.cleanOldStatistics(now + 70);
+		statisticsRepository.save(new Transaction(new BigDecimal(7), now + 70, null), now + 70);
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 70).getCount(), 1L));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 70, 300L);
+		assertTrue(Objects.equals(statistic.getCount(), 3L));
+		assertTrue(statistic.getSum().compareTo(new BigDecimal("107.0000001")) == 0);
+		assertTrue(Objects.equals(statistic.getMax(), new BigDecimal(100)));
+		assertTrue(Objects.equals(statistic.getMin(), new BigDecimal("0.0000001")));
+		statisticsRepository.cleanOldStatistics(now + 400);
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 400, 300L).getCount(), 0L));
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 400, 3600L).getCount(), 3L));
+		assertTrue(Objects.equals(statisticsRepository.getRetention(), 3600L));
+	}
+
+	/**
+	 * Cells recycled by the writers while a longer window is read are counted either in the window or in
+	 * the rollup, never in both, and every transaction is counted once the writers are done
+	 */
+	@Test
+	public void whenCellsAreRecycledConcurrentlyLongerWindowsConserveTheCount() throws Exception {
+		RingBufferStatisticsRepository repository = new RingBufferStatisticsRepository(4L, 1L, 3600L, 0, "fixed", 4);
+		int writers = 4;
+		int phases = 2000;
+		int transactions = 50;
+		long start = Instant.now().getEpochSecond() / 3600 * 3600;
+		AtomicLong currentTime = new AtomicLong(start);
+		AtomicLong saved = new AtomicLong();
+		AtomicBoolean overcounted = new AtomicBoolean();
+		// every writer saves the transactions of a second before any of them moves to the next one
+		CyclicBarrier barrier = new CyclicBarrier(writers, () -> currentTime.incrementAndGet());
+		ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+		try {
+			List<Future<?>> saves = new ArrayList<>();
+			for (int writer = 0; writer < writers; writer++) {
+				saves.add(executor.submit(() -> {
+					for (int phase = 0; phase < phases; phase++) {
+						long now = currentTime.get();
+						for (int transaction = 0; transaction < transactions; transaction++) {
+							// counted before it is saved, so a reader never sees more than this count
+							saved.incrementAndGet();
+							repository.save(new Transaction(BigDecimal.ONE, now, null), now);
+						}
+						barrier.await();
+					}
+					return null;
+				}));
+			}
+			Future<?> reads = executor.submit(() -> {
+				while (saves.stream().anyMatch(save -> !save.isDone())) {
+					long count = repository.getWindowStatistic(currentTime.get(), 3600L).getCount();
+					if (count > saved.get()) {
+						overcounted.set(true);
+					}
+				}
+			});
+			for (Future<?> save : saves) {
+				save.get(1, TimeUnit.MINUTES);
+			}
+			reads.get(1, TimeUnit.MINUTES);
+		} finally {
+			executor.shutdownNow();
+		}
+		Statistic statistic = repository.getWindowStatistic(currentTime.get(), 3600L);
+		assertTrue(!overcounted.get());
+		assertTrue(Objects.equals(statistic.getCount(), (long) writers * phases * transactions));
+		assertTrue(statistic.getSum().compareTo(BigDecimal.valueOf((long) writers * phases * transactions)) == 0);
+	}
+
+	@Test
+	public void whenWritersRecycleCellsContinuouslyReadsComplete() throws Exception {
+		RingBufferStatisticsRepository repository = new RingBufferStatisticsRepository(4L, 1L, 3600L, 0, "fixed", 4);
+		int writers = 2;
+		int reads = 2000;
+		long start = Instant.now().getEpochSecond() / 3600 * 3600;
+		AtomicLong currentTime = new AtomicLong(start);
+		AtomicLong saved = new AtomicLong();
+		AtomicBoolean reading = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(writers);
+		try {
+			List<Future<?>> saves = new ArrayList<>();
+			for (int writer = 0; writer < writers; writer++) {
+				// every save moves to a new second, so every save recycles a cell in a write section
+				saves.add(executor.submit(() -> {
+					while (reading.get()) {
+						long now = currentTime.incrementAndGet();
+						saved.incrementAndGet();
+						repository.save(new Transaction(BigDecimal.ONE, now, null), now);
+					}
+					return null;
+				}));
+			}
+			for (int read = 0; read < reads; read++) {
+				long count = repository.getWindowStatistic(currentTime.get(), 3600L).getCount();
+				assertTrue(count <= saved.get());
+			}
+			reading.set(false);
+			for (Future<?> save : saves) {
+				save.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			reading.set(false);
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Percentiles are estimated from the sketches of the alive cells, the expired ones are left out
+	 */
+	@Test
+	public void whenPercentilesAreTrackedWindowStatisticHoldsTheSketch() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(1000), now, null), now);
+		IntStream.rangeClosed(1, 100).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + 10, null), now + 10));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 65);
+		assertTrue(Objects.equals(statistic.getSketch().getCount(), 100L));
+		assertTrue(Math.abs(statistic.getSketch().quantile(0.5) - 50) <= 0.5);
+		assertTrue(Math.abs(statistic.getSketch().quantile(1.0) - 100) <= 1);
+	}
+
+	/**
+	 * The running sketch of the window forgets the buckets evicted and the ones of recycled cells
+	 */
+	@Test
+	public void whenBucketsAreEvictedOrRecycledWindowSketchForgetsThem() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(1000), now, null), now);
+		statisticsRepository.save(new Transaction(new BigDecimal(2000), now + 1, null), now + 1);
+		statisticsRepository.cleanOldStatistics(now + 60);
+		IntStream.rangeClosed(1, 10).forEach(i -> statisticsRepository.save(new Transaction(new BigDecimal(i), now + 61, null), now + 61));
+		Statistic statistic = statisticsRepository.getWindowStatistic(now + 61);
+		assertTrue(Objects.equals(statistic.getCount(), 10L));
+		assertTrue(Objects.equals(statistic.getSketch().getCount(), 10L));
+		assertTrue(Math.abs(statistic.getSketch().quantile(1.0) - 10) <= 0.1);
+		statisticsRepository.cleanAllStatistics();
+		assertTrue(Objects.equals(statisticsRepository.getWindowStatistic(now + 61).getSketch().getCount(), 0L));
+	}
+
+	/**
+	 * A cell emptied by cleaning all statistics starts again from zero
+	 */
+	@Test
+	public void whenCleanAllStatisticsSameSecondStartsFromZero() {
+		long now = Instant.now().getEpochSecond();
+		statisticsRepository.save(new Transaction(new BigDecimal(100), now, null), now);
+		statisticsRepository.cleanAllStatistics();
+		statisticsRepository.save(new Transaction(new BigDecimal(7), now, null), now);
+		Statistic statistic = statisticsRepository.getStatistics().get(now);
+		assertTrue(Objects.equals(statistic.getCount(), 1L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(7)));
+	}
+}
@@ -0,0 +1,146 @@
+package com.transactions.store.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+
+/**
+ * Statistics snapshot tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StatisticsSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	File file;
+
+	StatisticsSnapshot statisticsSnapshot;
+
+	StatisticsRepository statisticsRepository;
+
+	KeyedStatisticsRepository keyedStatisticsRepository;
+
+	/**
+	 * Time to keep statistics alive
+	 */
+	Long timeToKeepAlive = 60L;
+
+	long now;
+
+	@Before
+	public void setUp() {
+		file = new File(folder.getRoot(), "statistics.snapshot");
+		statisticsSnapshot = new StatisticsSnapshot(file.getPath());
+		statisticsRepository = new RingBufferStatisticsRepository(timeToKeepAlive);
+		keyedStatisticsRepository = new KeyedStatisticsRepository(timeToKeepAlive, 100, 12);
+		// aligned to the key slots, so the expiry of the key windows is deterministic
+		now = Instant.now().getEpochSecond() / 60 * 60;
+		IntStream.range(0, 10).forEach(i -> {
+			Transaction transaction = new Transaction(new BigDecimal(i + ".5"), now + i, null);
+			transaction.setKey("merchant-" + i % 2);
+			statisticsRepository.save(transaction, now + i);
+			keyedStatisticsRepository.save(transaction.getKey(), transaction, now + i);
+		});
+		statisticsRepository.save(new Transaction(new BigDecimal("0.000001"), now + 9, null), now + 9);
+	}
+
+	/**
+	 * A restored window has the same statistics, percentiles and keys than the snapshot one
+	 */
+	@Test
+	public void whenSnapshotIsRestoredStatisticsAreTheSame() {
+		assertTrue(Objects.equals(statisticsSnapshot.write(statisticsRepository, keyedStatisticsRepository, now + 9), 10));
+		StatisticsRepository restoredRepository = new StatisticsRepositoryImpl(timeToKeepAlive);
+		KeyedStatisticsRepository restoredKeyedRepository = new KeyedStatisticsRepository(timeToKeepAlive, 100, 12);
+		assertTrue(statisticsSnapshot.restore(restoredRepository, restoredKeyedRepository, now + 9));
+		Statistic expected = statisticsRepository.getWindowStatistic(now + 9);
+		Statistic statistic = restoredRepository.getWindowStatistic(now + 9);
+		assertTrue(Objects.equals(statistic.getCount(), expected.getCount()));
+		assertTrue(Objects.equals(statistic.getSum(), expected.getSum()));
+		assertTrue(Objects.equals(statistic.getAvg(), expected.getAvg()));
+		assertTrue(Objects.equals(statistic.getMax(), expected.getMax()));
+		assertTrue(Objects.equals(statistic.getMin(), expected.getMin()));
+		assertTrue(Objects.equals(statistic.getSketch().getCount(), 11L));
+		assertTrue(Objects.equals(statistic.getSketch().quantile(0.5), expected.getSketch().quantile(0.5)));
+		assertTrue(Objects.equals(restoredKeyedRepository.size(), 2));
+		assertTrue(Objects.equals(restoredKeyedRepository.getWindowStatistic("merchant-1", now + 9),
+				keyedStatisticsRepository.getWindowStatistic("merchant-1", now + 9)));
+	}
+
+	/**
+	 * The rolled up levels are restored too, so windows longer than the time to keep alive are the same
+	 */
+	@Test
+	public void whenSnapshotIsRestoredLongerWindowsAreTheSame() {
+		StatisticsRepository longRepository = new RingBufferStatisticsRepository(timeToKeepAlive, 1L, 3600L, 0, "fixed", 4);
+		IntStream.range(0, 10).forEach(i -> longRepository.save(new Transaction(new BigDecimal(i + ".5"), now + i, null), now + i));
+		longRepository.cleanOldStatistics(now + 120);
+		IntStream.range(0, 5).forEach(i -> longRepository.save(new Transaction(new BigDecimal(i), now + 110 + i, null), now + 115));
+		// the buckets of now + 61 are out of the window but not evicted yet when the snapshot is written
+		longRepository.save(new Transaction(new BigDecimal(7), now + 61, null), now + 61);
+		assertTrue(Objects.equals(statisticsSnapshot.write(longRepository, keyedStatisticsRepository, now + 121), 7));
+		StatisticsRepository restoredRepository = new RingBufferStatisticsRepository(timeToKeepAlive, 1L, 3600L, 0, "fixed", 4);
+		assertTrue(statisticsSnapshot.restore(restoredRepository, new KeyedStatisticsRepository(timeToKeepAlive, 100, 12), now + 125));
+		Statistic expected = longRepository.getWindowStatistic(now + 125, 3600L);
+		Statistic statistic = restoredRepository.getWindowStatistic(now + 125, 3600L);
+		assertTrue(Objects.equals(expected.getCount(), 16L));
+		assertTrue(Objects.equals(statistic.getCount(), expected.getCount()));
+		assertTrue(Objects.equals(statistic.getSum(), expected.getSum()));
+		assertTrue(statistic.getMax().compareTo(expected.getMax()) == 0);
+		assertTrue(statistic.getMin().compareTo(expected.getMin()) == 0);
+		assertTrue(Objects.equals(statistic.getSketch().getCount(), 16L));
+		assertTrue(Objects.equals(restoredRepository.getWindowStatistic(now + 125).getCount(), 5L));
+	}
+
+	/**
+	 * Buckets and keys that expired while the process was down are not restored
+	 */
+	@Test
+	public void whenBucketsExpiredTheyAreNotRestored() {
+		statisticsSnapshot.write(statisticsRepository, keyedStatisticsRepository, now + 9);
+		StatisticsRepository restoredRepository = new RingBufferStatisticsRepository(timeToKeepAlive);
+		KeyedStatisticsRepository restoredKeyedRepository = new KeyedStatisticsRepository(timeToKeepAlive, 100, 12);
+		assertTrue(statisticsSnapshot.restore(restoredRepository, restoredKeyedRepository, now + 65));
+		Statistic statistic = restoredRepository.getWindowStatistic(now + 65);
+		assertTrue(Objects.equals(statistic.getCount(), 5L));
+		assertTrue(statistic.getSum().compareTo(new BigDecimal("32.000001")) == 0);
+		assertTrue(Objects.equals(restoredRepository.getStatistics().size(), 4));
+		assertTrue(Objects.equals(restoredKeyedRepository.size(), 0));
+	}
+
+	/**
+	 * A snapshot with a wrong checksum is ignored
+	 */
+	@Test
+	public void whenSnapshotIsCorruptedItIsNotRestored() throws Exception {
+		statisticsSnapshot.write(statisticsRepository, keyedStatisticsRepository, now + 9);
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.seek(30);
+			int flipped = randomAccessFile.read() ^ 0x01;
+			randomAccessFile.seek(30);
+			randomAccessFile.write(flipped);
+		}
+		StatisticsRepository restoredRepository = new RingBufferStatisticsRepository(timeToKeepAlive);
+		assertTrue(!statisticsSnapshot.restore(restoredRepository, keyedStatisticsRepository, now + 9));
+		assertTrue(Objects.equals(restoredRepository.getWindowStatistic(now + 9).getCount(), 0L));
+	}
+}
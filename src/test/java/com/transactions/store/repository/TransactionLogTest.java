@@ -0,0 +1,128 @@
+package com.transactions.store.repository;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.transactions.store.model.Transaction;
+
+/**
+ * Transaction write ahead log tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TransactionLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	String directory;
+
+	/**
+	 * Time to keep statistics alive
+	 */
+	Long timeToKeepAlive = 60000L;
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot().getPath();
+	}
+
+	/**
+	 * A new log on the same directory replays every appended transaction in order
+	 */
+	@Test
+	public void whenLogIsReopenedAppendedTransactionsAreReplayed() {
+		long now = Instant.now().toEpochMilli();
+		TransactionLog transactionLog = new TransactionLog(directory, timeToKeepAlive, "batch");
+		Transaction keyed = new Transaction(new BigDecimal("-12.3456"), now - 1, null);
+		keyed.setKey("merchant-1");
+		transactionLog.append(new Transaction(new BigDecimal("100"), now, null), now);
+		transactionLog.append(keyed, now);
+		transactionLog.append(now - 2, -725L, 2, now);
+		transactionLog.close();
+		List<Transaction> transactions = new ArrayList<>();
+		long records = new TransactionLog(directory, timeToKeepAlive, "write").replay(transactions::add);
+		assertTrue(Objects.equals(records, 3L));
+		assertTrue(Objects.equals(transactions.get(0).getAmount(), new BigDecimal("100")));
+		assertTrue(Objects.equals(transactions.get(0).getTimestamp(), now));
+		assertTrue(Objects.isNull(transactions.get(0).getKey()));
+		assertTrue(Objects.equals(transactions.get(1).getAmount(), new BigDecimal("-12.3456")));
+		assertTrue(Objects.equals(transactions.get(1).getTimestamp(), now - 1));
+		assertTrue(Objects.equals(transactions.get(1).getKey(), "merchant-1"));
+		assertTrue(Objects.equals(transactions.get(2).getAmount(), new BigDecimal("-7.25")));
+		assertTrue(Objects.isNull(transactions.get(2).getKey()));
+	}
+
+	/**
+	 * A torn record ends the replay of its segment
+	 */
+	@Test
+	public void whenLastRecordIsTornItIsNotReplayed() throws Exception {
+		long now = Instant.now().toEpochMilli();
+		TransactionLog transactionLog = new TransactionLog(directory, timeToKeepAlive, "write");
+		IntStream.range(0, 3).forEach(i -> transactionLog.append(new Transaction(new BigDecimal(i), now, null), now));
+		transactionLog.close();
+		File segment = folder.getRoot().listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			// last byte of the third record payload
+			file.seek(8 + 3 * 25 - 1);
+			file.write(0x7F);
+		}
+		List<Transaction> transactions = new ArrayList<>();
+		new TransactionLog(directory, timeToKeepAlive, "batch").replay(transactions::add);
+		assertTrue(Objects.equals(transactions.size(), 2));
+	}
+
+	/**
+	 * Segments whose transactions all expired are deleted, the others are kept
+	 */
+	@Test
+	public void whenSegmentsExpireTheyAreTruncated() {
+		long now = Instant.now().toEpochMilli();
+		TransactionLog transactionLog = new TransactionLog(directory, timeToKeepAlive, "periodic");
+		// a segment covers a quarter of the window
+		IntStream.range(0, 6).forEach(i -> transactionLog.append(new Transaction(new BigDecimal(i), now + i * 15000L, null), now + i * 15000L));
+		assertTrue(Objects.equals(folder.getRoot().listFiles().length, 6));
+		transactionLog.truncate(now + 5 * 15000L);
+		assertTrue(Objects.equals(folder.getRoot().listFiles().length, 5));
+		List<Transaction> transactions = new ArrayList<>();
+		transactionLog.close();
+		new TransactionLog(directory, timeToKeepAlive, "batch").replay(transactions::add);
+		assertTrue(Objects.equals(transactions.size(), 5));
+		assertTrue(Objects.equals(transactions.get(0).getAmount(), BigDecimal.ONE));
+	}
+
+	/**
+	 * Clearing the log deletes every segment
+	 */
+	@Test
+	public void whenLogIsClearedNothingIsReplayed() {
+		long now = Instant.now().toEpochMilli();
+		TransactionLog transactionLog = new TransactionLog(directory, timeToKeepAlive, "batch");
+		transactionLog.append(new Transaction(BigDecimal.TEN, now, null), now);
+		transactionLog.clear();
+		transactionLog.append(new Transaction(BigDecimal.ONE, now, null), now);
+		transactionLog.close();
+		List<Transaction> transactions = new ArrayList<>();
+		new TransactionLog(directory, timeToKeepAlive, "batch").replay(transactions::add);
+		assertTrue(Objects.equals(transactions.size(), 1));
+		assertTrue(Objects.equals(transactions.get(0).getAmount(), BigDecimal.ONE));
+	}
+}
@@ -0,0 +1,63 @@
+package com.transactions.store.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Objects;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Coarse time source tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CoarseTimeSourceTest {
+
+	/**
+	 * The ticker thread keeps the cached time within a few resolutions of the system clock
+	 */
+	@Test
+	public void whenTickerRunsTimeFollowsTheSystemClock() throws Exception {
+		CoarseTimeSource timeSource = new CoarseTimeSource(5L);
+		timeSource.start();
+		try {
+			long start = timeSource.currentTimeMillis();
+			Thread.sleep(50);
+			long now = System.currentTimeMillis();
+			assertTrue(timeSource.currentTimeMillis() > start);
+			assertTrue(now - timeSource.currentTimeMillis() < 50);
+			assertTrue(Objects.equals(timeSource.resolution(), 5L));
+		} finally {
+			timeSource.stop();
+		}
+	}
+
+	/**
+	 * A system clock stepping back does not move the time backwards
+	 */
+	@Test
+	public void whenSystemClockStepsBackTimeDoesNotMoveBackwards() {
+		CoarseTimeSource timeSource = new CoarseTimeSource(1L);
+		long future = System.currentTimeMillis() + 60000L;
+		ReflectionTestUtils.setField(timeSource, "currentTime", future);
+		timeSource.tick();
+		assertTrue(Objects.equals(timeSource.currentTimeMillis(), future));
+	}
+
+	/**
+	 * The exact time reads the system clock, however far behind a stalled ticker left the cached time
+	 */
+	@Test
+	public void whenTickerLagsExactTimeCatchesUp() {
+		CoarseTimeSource timeSource = new CoarseTimeSource(10L);
+		ReflectionTestUtils.setField(timeSource, "currentTime", System.currentTimeMillis() - 1000L);
+		long now = System.currentTimeMillis();
+		assertTrue(timeSource.exactTimeMillis() >= now);
+		assertTrue(timeSource.currentTimeMillis() >= now);
+	}
+}
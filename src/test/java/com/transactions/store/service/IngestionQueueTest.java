@@ -0,0 +1,111 @@
+package com.transactions.store.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.transactions.store.model.Transaction;
+
+/**
+ * Ingestion queue tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class IngestionQueueTest {
+
+	/**
+	 * Transactions acknowledged on apply are all applied once, by the writer thread only, when their producers return
+	 */
+	@Test
+	public void whenAckOnApplyEveryTransactionIsAppliedOnReturn() throws Exception {
+		IngestionQueue queue = new IngestionQueue(64, "apply", 16);
+		long[] applied = new long[2];
+		Thread[] writerThread = new Thread[1];
+		queue.start((transaction, timestamp, unscaled, scale, currentTime) -> {
+			writerThread[0] = Thread.currentThread();
+			applied[0]++;
+			applied[1] += transaction == null ? unscaled : transaction.getAmount().longValueExact();
+		});
+		ExecutorService producers = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int producer = 0; producer < 4; producer++) {
+				futures.add(producers.submit(() -> {
+					for (int transaction = 0; transaction < 1000; transaction++) {
+						queue.publish(transaction, 1L, 0, transaction);
+					}
+					queue.publishAll(Arrays.asList(new Transaction(BigDecimal.TEN, 0L, null), new Transaction(BigDecimal.TEN, 0L, null)), 0L);
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			producers.shutdownNow();
+		}
+		assertTrue(queue.depth() == 0);
+		// the producers read the writer cursor, moved after the counters
+		assertTrue(applied[0] == 4 * 1002);
+		assertTrue(applied[1] == 4 * 1000 + 4 * 20);
+		assertTrue(writerThread[0].getName().equals("ingestion-writer"));
+		queue.stop();
+	}
+
+	/**
+	 * Transactions acknowledged on enqueue wait for the writer only when the ring is full, and are applied before it stops
+	 */
+	@Test
+	public void whenAckOnEnqueueTransactionsAreAppliedBeforeStop() throws Exception {
+		IngestionQueue queue = new IngestionQueue(8, "enqueue", 4);
+		long[] applied = new long[1];
+		queue.start((transaction, timestamp, unscaled, scale, currentTime) -> {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+			applied[0]++;
+		});
+		for (int transaction = 0; transaction < 100; transaction++) {
+			queue.publish(transaction, 1L, 0, transaction);
+			assertTrue(queue.depth() <= 8);
+		}
+		queue.stop();
+		assertTrue(applied[0] == 100);
+		assertTrue(queue.depth() == 0);
+		assertTrue(queue.drainLatency() > 0);
+	}
+
+	/**
+	 * Transactions queued once the writer is stopped are rejected instead of waiting forever
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void whenStoppedTransactionsAreRejected() {
+		IngestionQueue queue = new IngestionQueue(8, "apply", 4);
+		queue.start((transaction, timestamp, unscaled, scale, currentTime) -> {
+		});
+		queue.publish(0L, 1L, 0, 0L);
+		queue.stop();
+		queue.publish(0L, 1L, 0, 0L);
+	}
+
+	/**
+	 * The ring is a power of two
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void whenCapacityIsNotAPowerOfTwoQueueIsNotBuilt() {
+		new IngestionQueue(1000, "apply", 16);
+	}
+}
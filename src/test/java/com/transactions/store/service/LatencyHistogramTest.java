@@ -0,0 +1,50 @@
+package com.transactions.store.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Latency histogram tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class LatencyHistogramTest {
+
+	/**
+	 * Every latency is inside its bucket, and the buckets follow each other without gaps
+	 */
+	@Test
+	public void bucketsCoverEveryLatency() {
+		for (long nanos = 0; nanos < 1 << 20; nanos++) {
+			int index = LatencyHistogram.indexOf(nanos);
+			assertTrue(nanos <= LatencyHistogram.upperBoundOf(index));
+			assertTrue(index == 0 || nanos > LatencyHistogram.upperBoundOf(index - 1));
+			// at most 12.5% above the latency
+			assertTrue(LatencyHistogram.upperBoundOf(index) - nanos <= nanos / 8);
+		}
+		assertTrue(LatencyHistogram.indexOf(Long.MAX_VALUE) == LatencyHistogram.indexOf((1L << 41) - 1));
+	}
+
+	/**
+	 * Quantiles are answered as the upper bound of their bucket
+	 */
+	@Test
+	public void quantilesAreTheUpperBoundOfTheirBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertTrue(histogram.quantiles(0.5)[0] == 0L);
+		IntStream.rangeClosed(1, 1000).parallel().forEach(histogram::record);
+		long[] quantiles = histogram.quantiles(0.5, 0.99, 0.999);
+		assertTrue(histogram.count() == 1000);
+		assertTrue(histogram.sum() == 500500);
+		assertTrue(quantiles[0] >= 500 && quantiles[0] <= 500 * 9 / 8);
+		assertTrue(quantiles[1] >= 990 && quantiles[1] <= 990 * 9 / 8);
+		assertTrue(quantiles[2] >= 999 && quantiles[2] <= 1023);
+	}
+}
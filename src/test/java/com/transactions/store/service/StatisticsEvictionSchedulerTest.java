@@ -0,0 +1,27 @@
+package com.transactions.store.service;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Statistics eviction scheduler tests
+ *
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StatisticsEvictionSchedulerTest {
+
+	/**
+	 * A period that is not a multiple of the resolution would tick between bucket boundaries
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void whenPeriodIsNotAMultipleOfTheResolutionItIsRejected() {
+		StatisticsEvictionScheduler scheduler = new StatisticsEvictionScheduler();
+		ReflectionTestUtils.setField(scheduler, "resolution", 1000L);
+		ReflectionTestUtils.setField(scheduler, "evictionPeriod", 1500L);
+		scheduler.start();
+	}
+}
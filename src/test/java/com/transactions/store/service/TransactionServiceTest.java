@@ -1,183 +1,344 @@
-package com.transactions.store.service;
-
-import static org.junit.Assert.assertTrue;
-
-import java.math.BigDecimal;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.apache.commons.lang3.math.NumberUtils;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.mockito.Mockito;
-import org.mockito.MockitoAnnotations;
-import org.mockito.junit.MockitoJUnitRunner;
-import org.springframework.test.util.ReflectionTestUtils;
-
-import com.transactions.store.model.Statistic;
-import com.transactions.store.model.Transaction;
-import com.transactions.store.repository.StatisticsRepository;
-import com.transactions.store.service.TransactionService;
-
-/**
- * Transactions service tests
- * 
- * @author onoriel
- *
- */
-@RunWith(MockitoJUnitRunner.class)
-public class TransactionServiceTest {
-
-	@InjectMocks
-	TransactionService transactionService;
-
-	@Mock
-	StatisticsRepository statisticsRepository;
-	
-	/**
-	 * Time to keep statistics alive
-	 */
-	Long timeToKeepAlive = 60L;
-
-	/**
-	 * Mocks initialization
-	 */
-	@Before
-	public void init() {
-		// Process mock annotations
-		MockitoAnnotations.initMocks(this);
-		ReflectionTestUtils.setField(transactionService, "timeToKeepAlive", timeToKeepAlive);
-	}
-	
-	/**
-	 * When no transaction is saved previously statistic response is zero values
-	 * @throws Exception
-	 */
-	@Test
-	public void testNotTransactionsStatistic() throws Exception {
-		Mockito.doReturn(new ConcurrentHashMap<>()).when(statisticsRepository).getStatistics();
-		Statistic statistic = transactionService.getStatistics();
-		assertTrue(statistic != null);
-		assertTrue(Objects.equals(statistic.getCount(), NumberUtils.LONG_ZERO));
-		assertTrue(Objects.equals(statistic.getSum(), BigDecimal.ZERO));
-	}
-	@Test
-	public void testDeleteAllStatistic() throws Exception {
-		transactionService.deleteStatistics();
-		Statistic statistic = transactionService.getStatistics();
-		assertTrue(statistic != null);
-		assertTrue(Objects.equals(statistic.getCount(), NumberUtils.LONG_ZERO));
-		assertTrue(Objects.equals(statistic.getSum(), BigDecimal.ZERO));
-	}
-	@Test
-	public void testSaveTransaction() throws Exception {
-		transactionService.save(getTransaction());
-		Mockito.doReturn(getStatistics(getTransaction(), new ConcurrentHashMap<Long, Statistic>())).when(statisticsRepository).getStatistics();
-		Statistic statistic = transactionService.getStatistics();
-		assertTrue(statistic != null);
-		assertTrue(Objects.equals(statistic.getCount(), 1L));
-		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(100)));
-	}
-	/**
-	 * When no transaction is saved previously statistic response is zero values
-	 * @throws Exception
-	 */
-	@Test
-	public void testStatisticWhenTransactionIsSaved() throws Exception {
-		Mockito.doReturn(getStatistics(getTransaction(), new ConcurrentHashMap<Long, Statistic>())).when(statisticsRepository).getStatistics();
-		Statistic statistic = transactionService.getStatistics();
-		assertTrue(statistic != null);
-		assertTrue(Objects.equals(statistic.getCount(), 1L));
-		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(100)));
-	}
-	
-	/**
-	 * Statistics calculation are made when two different statistics were saved before 
-	 * @throws Exception
-	 */
-	@Test
-	public void testStatisticWhenTwoTransactionAreSaved() throws Exception {
-		Transaction transaction = getTransaction();
-		Map<Long, Statistic> statistics = new ConcurrentHashMap<Long, Statistic>();
-		Statistic statistic = getStatistics(transaction, statistics).get(transaction.getTimestamp());
-		statistic = mergeStatistic(statistic , getTransaction());
-		statistics.put(statistic.getTimestamp(), statistic);
-		Mockito.doReturn(statistics).when(statisticsRepository).getStatistics();
-		Mockito.doNothing().when(statisticsRepository).cleanOldStatistics(Mockito.anyLong());
-		Statistic statisticResponse = transactionService.getStatistics();
-		
-		assertTrue(statisticResponse != null);
-		assertTrue(Objects.equals(statisticResponse.getCount(), 2L));
-		assertTrue(Objects.equals(statisticResponse.getSum(), new BigDecimal(200)));
-	}
-	/**
-	 * Statistics calculation are made when two transactions were saved at the same statistic
-	 * @throws Exception
-	 */
-	@Test
-	public void testStatisticWhenTwoTransactionAreSavedInTheSameStatistic() throws Exception {
-		Transaction transaction = getTransaction();
-		Statistic statistic = getStatistic(transaction);
-		statistic = mergeStatistic(statistic, getTransaction() );
-		Map<Long, Statistic> statistics = new ConcurrentHashMap<Long, Statistic>();
-		statistics.put(statistic.getTimestamp(), statistic);
-		Mockito.doReturn(statistics).when(statisticsRepository).getStatistics();
-		Mockito.doNothing().when(statisticsRepository).cleanOldStatistics(Mockito.anyLong());
-		Statistic statisticResponse = transactionService.getStatistics();
-		
-		assertTrue(statistic != null);
-		assertTrue(Objects.equals(statisticResponse.getCount(), 2L));
-		assertTrue(Objects.equals(statisticResponse.getSum(), new BigDecimal(200)));
-	}
-	/**
-	 * Build a transaction
-	 * @return
-	 */
-	private Transaction getTransaction() { 
-		return new Transaction(new BigDecimal(100), ZonedDateTime.now(ZoneOffset.UTC).toEpochSecond()); 
-	}
-
-	/**
-	 * Build a new statistic object from a transaction
-	 * @param t
-	 * @return
-	 */
-	private Statistic getStatistic(Transaction t) {
-		Statistic statistic = new Statistic();
-		statistic.setAvg(BigDecimal.ONE);
-		statistic.setCount(1L);
-		statistic.setSum(t.getAmount());
-		statistic.setMax(t.getAmount());
-		statistic.setMin(t.getAmount());
-		statistic.setTimestamp(t.getTimestamp());
-		return statistic;
-	}
-	/** 
-	 * Generates statistics list
-	 * @param t
-	 * @return
-	 */
-	private Map<Long,Statistic> getStatistics(Transaction t, Map<Long,Statistic> response){
-		Statistic statistic = getStatistic(t);
-		if(Objects.isNull(response))
-			response = new ConcurrentHashMap<Long, Statistic>();
-		response.put(statistic.getTimestamp(),statistic);
-		return response;
-		
-	}
-	public Statistic mergeStatistic(Statistic statistic, Transaction transaction) {
-		statistic.setSum(statistic.getSum().add(transaction.getAmount()));
-		statistic.setCount(statistic.getCount() + 1);
-		statistic.setMax(statistic.getMax().max(transaction.getAmount()));
-		statistic.setMin(statistic.getMin().min(transaction.getAmount()));
-		statistic.setAvg(statistic.getSum().divide(new BigDecimal(statistic.getCount())));
-		return statistic;
-	}
-
-}
+package com.transactions.store.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.transactions.store.model.Statistic;
+import com.transactions.store.model.Transaction;
+import com.transactions.store.repository.KeyedStatisticsRepository;
+import com.transactions.store.repository.StatisticsRepository;
+import com.transactions.store.repository.TransactionLog;
+import com.transactions.store.service.TransactionService;
+
+/**
+ * Transactions service tests
+ * 
+ * @author onoriel
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TransactionServiceTest {
+
+	@InjectMocks
+	TransactionService transactionService;
+
+	@Mock
+	StatisticsRepository statisticsRepository;
+	
+	@Mock
+	KeyedStatisticsRepository keyedStatisticsRepository;
+	
+	@Mock
+	TransactionLog transactionLog;
+	
+	@Spy
+	TimeSource timeSource = new ManualTimeSource(Instant.now().toEpochMilli());
+	
+	@Spy
+	Metrics metrics = new Metrics();
+	
+	/**
+	 * Mocks initialization
+	 */
+	@Before
+	public void init() {
+		// Process mock annotations
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(transactionService, "resolution", 1L);
+		Mockito.when(statisticsRepository.getWindowStatistic(Mockito.anyLong())).thenCallRealMethod();
+	}
+	
+	/**
+	 * When no transaction is saved previously statistic response is zero values
+	 * @throws Exception
+	 */
+	@Test
+	public void testNotTransactionsStatistic() throws Exception {
+		Mockito.doReturn(new ConcurrentHashMap<>()).when(statisticsRepository).getStatistics();
+		Statistic statistic = transactionService.getStatistics();
+		assertTrue(statistic != null);
+		assertTrue(Objects.equals(statistic.getCount(), NumberUtils.LONG_ZERO));
+		assertTrue(Objects.equals(statistic.getSum(), BigDecimal.ZERO));
+	}
+	@Test
+	public void testDeleteAllStatistic() throws Exception {
+		transactionService.deleteStatistics();
+		Statistic statistic = transactionService.getStatistics();
+		assertTrue(statistic != null);
+		assertTrue(Objects.equals(statistic.getCount(), NumberUtils.LONG_ZERO));
+		assertTrue(Objects.equals(statistic.getSum(), BigDecimal.ZERO));
+	}
+	@Test
+	public void testSaveTransaction() throws Exception {
+		transactionService.save(getTransaction());
+		Mockito.doReturn(getStatistics(getTransaction(), new ConcurrentHashMap<Long, Statistic>())).when(statisticsRepository).getStatistics();
+		Statistic statistic = transactionService.getStatistics();
+		assertTrue(statistic != null);
+		assertTrue(Objects.equals(statistic.getCount(), 1L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(100)));
+		assertTrue(metrics.saved() == 1);
+		assertTrue(metrics.getSaveLatency().count() == 1);
+		assertTrue(metrics.getQueryLatency().count() == 1);
+	}
+	/**
+	 * When no transaction is saved previously statistic response is zero values
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticWhenTransactionIsSaved() throws Exception {
+		Mockito.doReturn(getStatistics(getTransaction(), new ConcurrentHashMap<Long, Statistic>())).when(statisticsRepository).getStatistics();
+		Statistic statistic = transactionService.getStatistics();
+		assertTrue(statistic != null);
+		assertTrue(Objects.equals(statistic.getCount(), 1L));
+		assertTrue(Objects.equals(statistic.getSum(), new BigDecimal(100)));
+	}
+	
+	/**
+	 * Statistics calculation are made when two different statistics were saved before 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticWhenTwoTransactionAreSaved() throws Exception {
+		Transaction transaction = getTransaction();
+		Map<Long, Statistic> statistics = new ConcurrentHashMap<Long, Statistic>();
+		Statistic statistic = getStatistics(transaction, statistics).get(transaction.getTimestamp());
+		statistic = mergeStatistic(statistic , getTransaction());
+		statistics.put(statistic.getTimestamp(), statistic);
+		Mockito.doReturn(statistics).when(statisticsRepository).getStatistics();
+		Statistic statisticResponse = transactionService.getStatistics();
+		
+		assertTrue(statisticResponse != null);
+		assertTrue(Objects.equals(statisticResponse.getCount(), 2L));
+		assertTrue(Objects.equals(statisticResponse.getSum(), new BigDecimal(200)));
+	}
+	/**
+	 * Statistics calculation are made when two transactions were saved at the same statistic
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticWhenTwoTransactionAreSavedInTheSameStatistic() throws Exception {
+		Transaction transaction = getTransaction();
+		Statistic statistic = getStatistic(transaction);
+		statistic = mergeStatistic(statistic, getTransaction() );
+		Map<Long, Statistic> statistics = new ConcurrentHashMap<Long, Statistic>();
+		statistics.put(statistic.getTimestamp(), statistic);
+		Mockito.doReturn(statistics).when(statisticsRepository).getStatistics();
+		Statistic statisticResponse = transactionService.getStatistics();
+		
+		assertTrue(statistic != null);
+		assertTrue(Objects.equals(statisticResponse.getCount(), 2L));
+		assertTrue(Objects.equals(statisticResponse.getSum(), new BigDecimal(200)));
+	}
+	/**
+	 * A transaction with a key is also saved in the statistics of its key
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionWithKey() throws Exception {
+		Transaction transaction = getTransaction();
+		transaction.setKey("merchant");
+		transactionService.save(transaction);
+		Mockito.verify(keyedStatisticsRepository).save(Mockito.eq("merchant"), Mockito.eq(transaction), Mockito.anyLong());
+		transactionService.save(getTransaction());
+		Mockito.verify(keyedStatisticsRepository, Mockito.times(1)).save(Mockito.any(), Mockito.any(), Mockito.anyLong());
+	}
+	
+	/**
+	 * A transaction is logged before it is saved, and the log is cleared with the statistics
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionIsLogged() throws Exception {
+		Transaction transaction = getTransaction();
+		transactionService.save(transaction);
+		InOrder inOrder = Mockito.inOrder(transactionLog, statisticsRepository);
+		inOrder.verify(transactionLog).append(Mockito.eq(transaction), Mockito.anyLong());
+		inOrder.verify(statisticsRepository).save(Mockito.eq(transaction), Mockito.anyLong());
+		transactionService.deleteStatistics();
+		Mockito.verify(transactionLog).clear();
+	}
+	/**
+	 * Statistics are read at the time of the time source
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatisticsAreReadAtTheTimeSourceTime() throws Exception {
+		((ManualTimeSource) timeSource).set(1531821591312L);
+		transactionService.getStatistics(60000L);
+		Mockito.verify(statisticsRepository).getWindowStatistic(1531821591312L, 60000L);
+		((ManualTimeSource) timeSource).advance(1000L);
+		transactionService.save(getTransaction());
+		Mockito.verify(statisticsRepository).save(Mockito.any(), Mockito.eq(1531821592312L));
+	}
+	/**
+	 * Transactions of a batch sharing a bucket are saved to the statistics at once
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveAllAggregatesBuckets() throws Exception {
+		Transaction transaction = getTransaction();
+		Transaction keyed = new Transaction(new BigDecimal(50), transaction.getTimestamp(), null);
+		keyed.setKey("merchant");
+		Transaction previous = new Transaction(new BigDecimal(10), transaction.getTimestamp() - 1, null);
+		transactionService.saveAll(Arrays.asList(transaction, keyed, previous));
+		Mockito.verify(statisticsRepository).saveBucket(Mockito.argThat(statistic -> Objects.equals(statistic.getCount(), 2L)
+				&& statistic.getSum().compareTo(new BigDecimal(150)) == 0 && statistic.getMin().compareTo(new BigDecimal(50)) == 0
+				&& Objects.equals(statistic.getSketch().getCount(), 2L)), Mockito.anyLong());
+		Mockito.verify(statisticsRepository, Mockito.times(2)).saveBucket(Mockito.any(), Mockito.anyLong());
+		Mockito.verify(statisticsRepository, Mockito.never()).save(Mockito.any(), Mockito.anyLong());
+		Mockito.verify(keyedStatisticsRepository).save(Mockito.eq("merchant"), Mockito.eq(keyed), Mockito.anyLong());
+		Mockito.verify(transactionLog, Mockito.times(3)).append(Mockito.any(), Mockito.anyLong());
+	}
+	/**
+	 * The generation moves after every save or removal, and not on reads
+	 * @throws Exception
+	 */
+	@Test
+	public void testGenerationMovesWhenStatisticsAreWritten() throws Exception {
+		long generation = transactionService.generation();
+		transactionService.getStatistics();
+		assertTrue(transactionService.generation() == generation);
+		transactionService.save(getTransaction());
+		transactionService.save(getTransaction());
+		assertTrue(transactionService.generation() == generation + 2);
+		assertTrue(transactionService.generation() == generation + 2);
+		transactionService.deleteStatistics();
+		assertTrue(transactionService.generation() == generation + 3);
+	}
+	/**
+	 * Queued transactions are logged by the request thread and applied by the writer thread before the acknowledge
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveTransactionIsQueued() throws Exception {
+		IngestionQueue ingestionQueue = new IngestionQueue(16, "apply", 4);
+		ReflectionTestUtils.setField(transactionService, "ingestionQueue", ingestionQueue);
+		transactionService.recover();
+		long generation = transactionService.generation();
+		Transaction transaction = getTransaction();
+		transactionService.save(transaction);
+		transactionService.save(transaction.getTimestamp(), 725L, 2, null);
+		transactionService.saveAll(Arrays.asList(transaction, transaction));
+		Mockito.verify(transactionLog, Mockito.times(3)).append(Mockito.eq(transaction), Mockito.anyLong());
+		Mockito.verify(statisticsRepository, Mockito.never()).save(Mockito.any(), Mockito.anyLong());
+		Mockito.verify(statisticsRepository, Mockito.never()).save(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyInt(), Mockito.anyLong());
+		Mockito.verify(statisticsRepository).saveBucket(Mockito.argThat(statistic -> Objects.equals(statistic.getCount(), 1L)
+				&& statistic.getSum().compareTo(new BigDecimal("7.25")) == 0), Mockito.anyLong());
+		Mockito.verify(statisticsRepository).saveBucket(Mockito.argThat(statistic -> Objects.equals(statistic.getCount(), 2L)
+				&& statistic.getSum().compareTo(new BigDecimal(200)) == 0), Mockito.anyLong());
+		assertTrue(transactionService.generation() > generation);
+		transactionService.shutdown();
+	}
+	/**
+	 * The transactions queued before a removal of the statistics are applied before it
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeleteStatisticsDrainsQueue() throws Exception {
+		IngestionQueue ingestionQueue = new IngestionQueue(16, "enqueue", 4);
+		ReflectionTestUtils.setField(transactionService, "ingestionQueue", ingestionQueue);
+		long[] depth = new long[] { -1L };
+		Mockito.doAnswer(invocation -> {
+			Thread.sleep(1);
+			return null;
+		}).when(statisticsRepository).saveBucket(Mockito.any(), Mockito.anyLong());
+		Mockito.doAnswer(invocation -> depth[0] = ingestionQueue.depth()).when(statisticsRepository).cleanAllStatistics();
+		transactionService.recover();
+		for (int transaction = 0; transaction < 10; transaction++) {
+			transactionService.save(getTransaction());
+		}
+		transactionService.deleteStatistics();
+		assertTrue(depth[0] == 0);
+		transactionService.shutdown();
+	}
+	/**
+	 * Transactions rejected by a stopped queue are not logged, so they are not replayed on the next start
+	 * @throws Exception
+	 */
+	@Test
+	public void testStoppedQueueRejectsWithoutLogging() throws Exception {
+		IngestionQueue ingestionQueue = new IngestionQueue(16, "apply", 4);
+		ReflectionTestUtils.setField(transactionService, "ingestionQueue", ingestionQueue);
+		transactionService.recover();
+		transactionService.shutdown();
+		Transaction transaction = getTransaction();
+		for (Runnable save : new Runnable[] { () -> transactionService.save(transaction),
+				() -> transactionService.save(transaction.getTimestamp(), 725L, 2, null),
+				() -> transactionService.saveAll(Arrays.asList(transaction, transaction)) }) {
+			try {
+				save.run();
+				assertTrue(false);
+			} catch (IllegalStateException exception) {
+				// rejected by the stopped queue
+			}
+		}
+		Mockito.verify(transactionLog, Mockito.never()).append(Mockito.any(), Mockito.anyLong());
+		Mockito.verify(transactionLog, Mockito.never()).append(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyInt(), Mockito.anyLong());
+	}
+	/**
+	 * Build a transaction
+	 * @return
+	 */
+	private Transaction getTransaction() { 
+		return new Transaction(new BigDecimal(100), ZonedDateTime.now(ZoneOffset.UTC).toEpochSecond(), null); 
+	}
+
+	/**
+	 * Build a new statistic object from a transaction
+	 * @param t
+	 * @return
+	 */
+	private Statistic getStatistic(Transaction t) {
+		Statistic statistic = new Statistic();
+		statistic.setAvg(BigDecimal.ONE);
+		statistic.setCount(1L);
+		statistic.setSum(t.getAmount());
+		statistic.setMax(t.getAmount());
+		statistic.setMin(t.getAmount());
+		statistic.setTimestamp(t.getTimestamp());
+		return statistic;
+	}
+	/** 
+	 * Generates statistics list
+	 * @param t
+	 * @return
+	 */
+	private Map<Long,Statistic> getStatistics(Transaction t, Map<Long,Statistic> response){
+		Statistic statistic = getStatistic(t);
+		if(Objects.isNull(response))
+			response = new ConcurrentHashMap<Long, Statistic>();
+		response.put(statistic.getTimestamp(),statistic);
+		return response;
+		
+	}
+	public Statistic mergeStatistic(Statistic statistic, Transaction transaction) {
+		statistic.setSum(statistic.getSum().add(transaction.getAmount()));
+		statistic.setCount(statistic.getCount() + 1);
+		statistic.setMax(statistic.getMax().max(transaction.getAmount()));
+		statistic.setMin(statistic.getMin().min(transaction.getAmount()));
+		statistic.setAvg(statistic.getSum().divide(new BigDecimal(statistic.getCount())));
+		return statistic;
+	}
+
+}